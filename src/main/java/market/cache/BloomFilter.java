@@ -0,0 +1,88 @@
+package market.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Фильтр Блума для строковых ключей.
+ * <p>
+ * Отвечает на вопрос «встречался ли ключ» без хранения самих ключей:
+ * {@code false} означает «точно нет», {@code true} — «возможно, да» с вероятностью
+ * ложного срабатывания около {@code fpp} при заполнении до {@code expectedInsertions}.
+ * Удалять ключи нельзя.
+ * <p>
+ * Позиции битов получаются двойным хешированием одного 64-битного хеша строки.
+ * Добавление и проверка потокобезопасны и не берут блокировок.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashes;
+
+    /**
+     * @param expectedInsertions ожидаемое количество ключей
+     * @param fpp                допустимая доля ложных срабатываний (0..1)
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0) throw new IllegalArgumentException("expectedInsertions must be > 0");
+        if (fpp <= 0 || fpp >= 1) throw new IllegalArgumentException("fpp must be in (0, 1)");
+        // m = -n·ln(p) / ln²2, k = m/n · ln2
+        long m = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE, (Math.max(64, m) + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = words * 64L;
+        this.hashes = Math.max(1, (int) Math.round((double) m / expectedInsertions * Math.log(2)));
+    }
+
+    /**
+     * Добавляет ключ.
+     *
+     * @param key ключ
+     */
+    public void add(CharSequence key) {
+        long h = hash(key);
+        long h1 = h;
+        long h2 = (h >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long old = bits.get(word);
+            while ((old & mask) == 0 && !bits.compareAndSet(word, old, old | mask)) {
+                old = bits.get(word);
+            }
+        }
+    }
+
+    /**
+     * Проверяет, мог ли ключ быть добавлен.
+     *
+     * @param key ключ
+     * @return {@code false} — ключ точно не добавлялся; {@code true} — возможно, добавлялся
+     */
+    public boolean mightContain(CharSequence key) {
+        long h = hash(key);
+        long h1 = h;
+        long h2 = (h >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** 64-битный FNV-1a по символам строки с финальным перемешиванием. */
+    private static long hash(CharSequence key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,56 @@
+package market.cache;
+
+import java.util.List;
+
+/**
+ * Неизменяемый снимок статистики {@link LRUCache}.
+ *
+ * @param hits       количество попаданий
+ * @param misses     количество промахов
+ * @param evictions  количество вытесненных записей
+ * @param loads      количество загрузок значения после промаха
+ * @param loadNanos  суммарное время загрузок после промахов (нс)
+ * @param size       текущее количество записей
+ * @param weight     текущий суммарный «вес» записей
+ * @param capacity   максимальное количество записей
+ * @param hottest    ключи с наибольшим числом обращений (по оценке count-min sketch)
+ * @param mostMissed ключи с наибольшим числом промахов (по оценке count-min sketch)
+ */
+public record CacheStats(long hits,
+                         long misses,
+                         long evictions,
+                         long loads,
+                         long loadNanos,
+                         int size,
+                         long weight,
+                         int capacity,
+                         List<KeyStats> hottest,
+                         List<KeyStats> mostMissed) {
+
+    /**
+     * Оценка обращений к одному ключу кэша.
+     *
+     * @param key    ключ (строковое представление)
+     * @param hits   оценка количества попаданий
+     * @param misses оценка количества промахов
+     */
+    public record KeyStats(String key, long hits, long misses) {
+
+        /** @return доля попаданий для ключа (0..1) */
+        public double hitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+    }
+
+    /** @return общая доля попаданий (0..1) */
+    public double hitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /** @return среднее время загрузки после промаха в миллисекундах */
+    public double avgLoadMillis() {
+        return loads == 0 ? 0.0 : loadNanos / 1_000_000.0 / loads;
+    }
+}
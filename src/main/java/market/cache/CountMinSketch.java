@@ -0,0 +1,159 @@
+package market.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Вероятностный частотный счётчик (count-min sketch) с выборочным учётом обращений.
+ * <p>
+ * Оценивает, сколько раз встречался ключ, используя фиксированный объём памяти
+ * ({@code 4 × width} счётчиков) независимо от числа различных ключей.
+ * Оценка никогда не бывает меньше истинного значения, но может быть завышена из-за коллизий.
+ * <p>
+ * Чтобы не тратить время на каждое обращение, учитывается только каждое
+ * {@code sampleRate}-е событие (в среднем); оценки масштабируются обратно.
+ * Дополнительно хранится небольшой список «кандидатов в лидеры» —
+ * ключей с наибольшей оценкой, из которого строится top-N.
+ * <p>
+ * Счётчики периодически делятся пополам, поэтому статистика отражает
+ * недавнюю нагрузку, а не всю историю.
+ * <p>
+ * Класс не является потокобезопасным.
+ *
+ * @param <K> тип ключа
+ */
+public class CountMinSketch<K> {
+
+    /** Количество строк (независимых хеш-функций). */
+    private static final int DEPTH = 4;
+
+    /** Нечётные множители для получения независимых хешей из одного {@code hashCode()}. */
+    private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+
+    private final int[] table;
+    private final int width;
+    private final int mask;
+    private final int sampleRate;
+    private final int topCapacity;
+    private final long agingThreshold;
+
+    /** Кандидаты в top-N: ключ → текущая (немасштабированная) оценка. */
+    private final Map<K, Integer> top = new HashMap<>();
+
+    /** Количество учтённых (попавших в выборку) событий с момента последнего старения. */
+    private long sampled;
+
+    /**
+     * Создаёт новый счётчик.
+     *
+     * @param width       ширина строки (округляется вверх до степени двойки)
+     * @param sampleRate  учитывать в среднем одно событие из {@code sampleRate} (1 — все события)
+     * @param topCapacity сколько кандидатов в лидеры хранить
+     */
+    public CountMinSketch(int width, int sampleRate, int topCapacity) {
+        if (width <= 0) throw new IllegalArgumentException("width must be > 0");
+        if (sampleRate <= 0) throw new IllegalArgumentException("sampleRate must be > 0");
+        this.width = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        this.mask = this.width - 1;
+        this.table = new int[DEPTH * this.width];
+        this.sampleRate = sampleRate;
+        this.topCapacity = topCapacity;
+        this.agingThreshold = 10L * this.width;
+    }
+
+    /**
+     * Учитывает одно обращение к ключу (с учётом выборки).
+     *
+     * @param key ключ
+     */
+    public void record(K key) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        int h = Objects.hashCode(key);
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int idx = i * width + index(h, i);
+            if (table[idx] < Integer.MAX_VALUE) table[idx]++;
+            min = Math.min(min, table[idx]);
+        }
+        offerTop(key, min);
+        if (++sampled >= agingThreshold) age();
+    }
+
+    /**
+     * Возвращает оценку количества обращений к ключу.
+     *
+     * @param key ключ
+     * @return оценка сверху с учётом коэффициента выборки
+     */
+    public long estimate(K key) {
+        int h = Objects.hashCode(key);
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, table[i * width + index(h, i)]);
+        }
+        return (long) min * sampleRate;
+    }
+
+    /**
+     * Возвращает до {@code n} ключей с наибольшей оценкой, по убыванию.
+     *
+     * @param n максимальное количество ключей
+     * @return список ключей (может быть пустым)
+     */
+    public List<K> top(int n) {
+        List<Map.Entry<K, Integer>> entries = new ArrayList<>(top.entrySet());
+        entries.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        List<K> out = new ArrayList<>(Math.min(n, entries.size()));
+        for (int i = 0; i < entries.size() && i < n; i++) {
+            out.add(entries.get(i).getKey());
+        }
+        return out;
+    }
+
+    private void offerTop(K key, int count) {
+        if (topCapacity <= 0) return;
+        if (top.containsKey(key) || top.size() < topCapacity) {
+            top.put(key, count);
+            return;
+        }
+        K weakest = null;
+        int weakestCount = Integer.MAX_VALUE;
+        for (Map.Entry<K, Integer> e : top.entrySet()) {
+            if (e.getValue() < weakestCount) {
+                weakest = e.getKey();
+                weakestCount = e.getValue();
+            }
+        }
+        if (count > weakestCount) {
+            top.remove(weakest);
+            top.put(key, count);
+        }
+    }
+
+    /** Делит все счётчики пополам, чтобы старые обращения постепенно «забывались». */
+    private void age() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] >>>= 1;
+        }
+        for (Iterator<Map.Entry<K, Integer>> it = top.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<K, Integer> e = it.next();
+            int v = e.getValue() >>> 1;
+            if (v == 0) it.remove();
+            else e.setValue(v);
+        }
+        sampled = 0;
+    }
+
+    private int index(int h, int row) {
+        int x = h * SEEDS[row];
+        x ^= x >>> 16;
+        return x & mask;
+    }
+}
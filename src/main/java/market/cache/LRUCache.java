@@ -1,8 +1,16 @@
 package market.cache;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 /**
  * Реализация кэша с политикой вытеснения LRU (Least Recently Used).
@@ -10,12 +18,24 @@ import java.util.Optional;
  * Хранит ограниченное количество элементов и автоматически удаляет
  * наименее недавно использованные записи при превышении заданной ёмкости.
  * <p>
- * Кроме того, собирает статистику обращений — количество попаданий и промахов.
+ * Кроме того, собирает статистику обращений: попадания и промахи, вытеснения,
+ * время загрузки значений после промаха, текущий «вес» записей, а также
+ * самые востребованные и самые часто промахивающиеся ключи
+ * (по оценке {@link CountMinSketch}). Сводка доступна через {@link #stats(int)}.
+ * <p>
+ * Суммарный вес ведётся нарастающим итогом, поэтому {@link #stats(int)} не обходит записи.
+ * Для этого кэш меняется только через {@code put}, {@code putIfAbsent}, {@code putAll},
+ * {@code remove} и {@code clear}: представления ({@link #keySet()}, {@link #values()},
+ * {@link #entrySet()}) доступны только для чтения, а {@code compute}, {@code merge} и
+ * {@code replace} не поддерживаются.
  *
  * @param <K> тип ключа
  * @param <V> тип значения
  */
 public class LRUCache<K,V> extends LinkedHashMap<K,V> {
+    /** Сколько кандидатов в «горячие» ключи отслеживать. */
+    private static final int TOP_CANDIDATES = 32;
+
     /** Максимальное количество элементов в кэше. */
     private final int capacity;
 
@@ -25,15 +45,63 @@ public class LRUCache<K,V> extends LinkedHashMap<K,V> {
     /** Количество промахов кэша (cache misses). */
     private long misses;
 
+    /** Количество записей, вытесненных из-за превышения ёмкости. */
+    private long evictions;
+
+    /** Количество загрузок значения после промаха. */
+    private long loads;
+
+    /** Суммарное время загрузок после промаха (нс). */
+    private long loadNanos;
+
+    /** Функция оценки «веса» значения (например, размер списка). */
+    private final ToIntFunction<? super V> weigher;
+
+    /** Суммарный вес записей (нарастающий итог). */
+    private long weight;
+
+    /** Частоты попаданий по ключам. */
+    private final CountMinSketch<K> hitSketch;
+
+    /** Частоты промахов по ключам. */
+    private final CountMinSketch<K> missSketch;
+
     /**
      * Создаёт новый LRU-кэш с заданной ёмкостью.
+     * Вес каждой записи считается равным 1.
      *
      * @param capacity максимальное количество элементов, которые может хранить кэш
      */
     public LRUCache(int capacity) {
+        this(capacity, v -> 1);
+    }
+
+    /**
+     * Создаёт новый LRU-кэш с заданной ёмкостью и функцией веса значений.
+     *
+     * @param capacity максимальное количество элементов, которые может хранить кэш
+     * @param weigher  функция, возвращающая «вес» значения для статистики
+     */
+    public LRUCache(int capacity, ToIntFunction<? super V> weigher) {
+        this(capacity, weigher, 1);
+    }
+
+    /**
+     * Создаёт новый LRU-кэш с заданной ёмкостью, функцией веса и частотой выборки
+     * для статистики по ключам.
+     *
+     * @param capacity   максимальное количество элементов, которые может хранить кэш
+     * @param weigher    функция, возвращающая «вес» значения для статистики
+     * @param sampleRate учитывать в статистике по ключам в среднем одно обращение из {@code sampleRate}
+     */
+    public LRUCache(int capacity, ToIntFunction<? super V> weigher, int sampleRate) {
         // accessOrder = true — порядок записей зависит от порядка доступа
         super(capacity, 0.75f, true);
         this.capacity = capacity;
+        this.weigher = weigher;
+        int width = Math.max(64, capacity * 4);
+        this.hitSketch = new CountMinSketch<>(width, sampleRate, TOP_CANDIDATES);
+        this.missSketch = new CountMinSketch<>(width, sampleRate, TOP_CANDIDATES);
     }
 
     /**
@@ -44,7 +112,105 @@ public class LRUCache<K,V> extends LinkedHashMap<K,V> {
      */
     @Override
     protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-        return size() > capacity;
+        if (size() > capacity) {
+            evictions++;
+            weight -= weigher.applyAsInt(eldest.getValue());
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        V old = super.put(key, value);
+        weight += weigher.applyAsInt(value);
+        if (old != null) weight -= weigher.applyAsInt(old);
+        return old;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        V old = super.putIfAbsent(key, value);
+        if (old == null) weight += weigher.applyAsInt(value);
+        return old;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        V old = super.remove(key);
+        if (old != null) weight -= weigher.applyAsInt(old);
+        return old;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object key, Object value) {
+        if (!super.remove(key, value)) return false;
+        weight -= weigher.applyAsInt((V) value);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        weight = 0;
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return Collections.unmodifiableSet(super.keySet());
+    }
+
+    @Override
+    public Collection<V> values() {
+        return Collections.unmodifiableCollection(super.values());
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return Collections.unmodifiableSet(super.entrySet());
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        throw new UnsupportedOperationException("replace не поддерживается, используйте put");
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        throw new UnsupportedOperationException("replace не поддерживается, используйте put");
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        throw new UnsupportedOperationException("replaceAll не поддерживается");
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        throw new UnsupportedOperationException("computeIfAbsent не поддерживается, используйте getIfPresent и put");
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        throw new UnsupportedOperationException("computeIfPresent не поддерживается");
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        throw new UnsupportedOperationException("compute не поддерживается");
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        throw new UnsupportedOperationException("merge не поддерживается");
     }
 
     /**
@@ -59,12 +225,27 @@ public class LRUCache<K,V> extends LinkedHashMap<K,V> {
     public Optional<V> getIfPresent(K key) {
         if (super.containsKey(key)) {
             hits++;
+            hitSketch.record(key);
             return Optional.of(super.get(key));
         }
         misses++;
+        missSketch.record(key);
         return Optional.empty();
     }
 
+    /**
+     * Учитывает время, затраченное на получение значения после промаха.
+     * <p>
+     * Вызывается кодом, который после {@link #getIfPresent(Object)} вычислил
+     * значение самостоятельно и положил его в кэш.
+     *
+     * @param nanos длительность загрузки в наносекундах
+     */
+    public void recordLoad(long nanos) {
+        loads++;
+        loadNanos += nanos;
+    }
+
     /**
      * Возвращает количество успешных обращений к кэшу (cache hits).
      *
@@ -82,4 +263,43 @@ public class LRUCache<K,V> extends LinkedHashMap<K,V> {
     public long getMisses() {
         return misses;
     }
+
+    /**
+     * Возвращает количество записей, вытесненных из-за превышения ёмкости.
+     *
+     * @return количество вытеснений
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Возвращает текущий суммарный вес записей за O(1).
+     *
+     * @return сумма весов всех значений в кэше
+     */
+    public long weight() {
+        return weight;
+    }
+
+    /**
+     * Формирует снимок статистики кэша.
+     *
+     * @param topN сколько самых «горячих» и самых часто промахивающихся ключей включить
+     * @return снимок статистики
+     */
+    public CacheStats stats(int topN) {
+        return new CacheStats(hits, misses, evictions, loads, loadNanos,
+                size(), weight(), capacity,
+                keyStats(hitSketch.top(topN)),
+                keyStats(missSketch.top(topN)));
+    }
+
+    private List<CacheStats.KeyStats> keyStats(List<K> keys) {
+        List<CacheStats.KeyStats> out = new ArrayList<>(keys.size());
+        for (K k : keys) {
+            out.add(new CacheStats.KeyStats(String.valueOf(k), hitSketch.estimate(k), missSketch.estimate(k)));
+        }
+        return out;
+    }
 }
@@ -0,0 +1,122 @@
+package market.cache;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+/**
+ * Потокобезопасный кэш ограниченного размера с временем жизни записей (TTL).
+ * <p>
+ * Запись считается устаревшей через {@code ttl} после того, как её положили в кэш,
+ * и при следующем обращении удаляется как промах. При превышении ёмкости вытесняется
+ * наименее недавно использованная запись (LRU), как в {@link LRUCache}.
+ *
+ * @param <K> тип ключа
+ * @param <V> тип значения
+ */
+public class TtlCache<K, V> {
+
+    private record Entry<V>(V value, long expiresAt) {}
+
+    private final int capacity;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final LinkedHashMap<K, Entry<V>> map;
+
+    private long hits;
+    private long misses;
+    private long expirations;
+
+    /**
+     * @param capacity максимальное количество записей
+     * @param ttl      время жизни записи
+     */
+    public TtlCache(int capacity, Duration ttl) {
+        this(capacity, ttl, System::nanoTime);
+    }
+
+    /**
+     * @param capacity максимальное количество записей
+     * @param ttl      время жизни записи
+     * @param clock    источник времени в наносекундах (для тестов)
+     */
+    TtlCache(int capacity, Duration ttl, LongSupplier clock) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0");
+        if (ttl.isNegative() || ttl.isZero()) throw new IllegalArgumentException("ttl must be > 0");
+        this.capacity = capacity;
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+        this.map = new LinkedHashMap<>(Math.min(capacity, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > TtlCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Возвращает значение, если оно есть в кэше и ещё не устарело.
+     *
+     * @param key ключ
+     * @return значение или {@link Optional#empty()}
+     */
+    public synchronized Optional<V> get(K key) {
+        Entry<V> e = map.get(key);
+        if (e != null && e.expiresAt() - clock.getAsLong() > 0) {
+            hits++;
+            return Optional.of(e.value());
+        }
+        if (e != null) {
+            map.remove(key);
+            expirations++;
+        }
+        misses++;
+        return Optional.empty();
+    }
+
+    /**
+     * Кладёт значение в кэш; отсчёт времени жизни начинается заново.
+     *
+     * @param key   ключ
+     * @param value значение
+     */
+    public synchronized void put(K key, V value) {
+        map.put(key, new Entry<>(value, clock.getAsLong() + ttlNanos));
+    }
+
+    /**
+     * Удаляет запись из кэша.
+     *
+     * @param key ключ
+     */
+    public synchronized void invalidate(K key) {
+        map.remove(key);
+    }
+
+    /** Очищает кэш. */
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    /** @return количество записей (включая ещё не удалённые устаревшие) */
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /** @return количество попаданий */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return количество промахов (включая устаревшие записи) */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** @return количество записей, удалённых по истечении времени жизни */
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+}
@@ -1,9 +1,12 @@
 package market.controller.api;
 
 import market.domain.Category;
+import market.domain.ImportReport;
 import market.domain.Product;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 
@@ -80,6 +83,33 @@ public interface ProductController {
      */
     void persist() throws IOException;
 
+    /**
+     * Импортирует товары из CSV-файла в формате {@code products.csv}.
+     *
+     * @param file путь к CSV-файлу
+     * @return отчёт об импорте
+     * @throws IOException если файл не удалось прочитать
+     */
+    ImportReport importCsv(Path file) throws IOException;
+
+    /**
+     * Выгружает товары, удовлетворяющие критериям поиска, в CSV.
+     *
+     * @param out        поток, куда пишется CSV
+     * @param q          часть названия или описания
+     * @param brand      фильтр по бренду
+     * @param category   фильтр по категории
+     * @param min        минимальная цена
+     * @param max        максимальная цена
+     * @param onlyActive фильтр по активности
+     * @return количество выгруженных товаров
+     * @throws IOException если не удалось записать данные
+     */
+    long exportCsv(OutputStream out, String q, String brand,
+                   Category category,
+                   Double min, Double max,
+                   Boolean onlyActive) throws IOException;
+
     /**
      * Возвращает часть списка товаров (страницу) на основе заданных параметров пагинации.
      * <p>
@@ -2,10 +2,13 @@ package market.controller.api.impl.console;
 
 import market.controller.api.ProductController;
 import market.domain.Category;
+import market.domain.ImportReport;
 import market.domain.Product;
 import market.service.CatalogService;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 
@@ -70,6 +73,23 @@ public class ConsoleProductController implements ProductController {
         catalog.persist();
     }
 
+    @Override
+    public ImportReport importCsv(Path file) throws IOException {
+        return catalog.importCsv(file);
+    }
+
+    @Override
+    public long exportCsv(OutputStream out,
+                          String q,
+                          String brand,
+                          Category category,
+                          Double min,
+                          Double max,
+                          Boolean onlyActive
+    ) throws IOException {
+        return catalog.exportCsv(out, q, brand, category, min, max, onlyActive);
+    }
+
     @Override
     public List<Product> paginate(List<Product> list, int page, int size) {
         return catalog.paginate(list, page, size);
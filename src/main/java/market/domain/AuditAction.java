@@ -6,5 +6,7 @@ public enum AuditAction {
     CREATE,
     UPDATE,
     DELETE,
-    SEARCH
+    SEARCH,
+    IMPORT,
+    EXPORT
 }
@@ -0,0 +1,20 @@
+package market.domain;
+
+import java.time.LocalDateTime;
+
+/**
+ * Позиция в журнале аудита для постраничного чтения по ключу (keyset pagination).
+ * <p>
+ * Следующая страница начинается строго после события с этими {@code ts} и {@code id}
+ * в порядке «от новых к старым», поэтому стоимость чтения не зависит от номера страницы.
+ *
+ * @param ts время последнего события предыдущей страницы
+ * @param id идентификатор последнего события предыдущей страницы
+ */
+public record AuditCursor(LocalDateTime ts, long id) {
+
+    /** @return курсор, указывающий сразу после события {@code e} */
+    public static AuditCursor after(AuditEvent e) {
+        return new AuditCursor(e.getTimestamp(), e.getId());
+    }
+}
@@ -4,11 +4,16 @@ import java.time.LocalDateTime;
 public class AuditEvent {
 
     private Long id;
+    private Long productId;
     private String productName;
     private String username;
     private AuditAction action;
     private String details;
     private LocalDateTime timestamp;
+    /** Число найденных или обработанных записей (поиск, экспорт, импорт). */
+    private Integer resultSize;
+    /** Длительность операции, мс. */
+    private Long latencyMs;
 
     public AuditEvent(String username, AuditAction action, String details) {
         this.username = username;
@@ -40,10 +45,22 @@ public class AuditEvent {
         return id;
     }
 
+    public Long getProductId() {
+        return productId;
+    }
+
     public String getProductName() {
         return productName;
     }
 
+    public Integer getResultSize() {
+        return resultSize;
+    }
+
+    public Long getLatencyMs() {
+        return latencyMs;
+    }
+
     @Override
     public String toString() {
         return "[%s] user=%s action=%s details=%s"
@@ -73,4 +90,16 @@ public class AuditEvent {
     public void setProductName(String productName) {
         this.productName = productName;
     }
-}
\ No newline at end of file
+
+    public void setProductId(Long productId) {
+        this.productId = productId;
+    }
+
+    public void setResultSize(Integer resultSize) {
+        this.resultSize = resultSize;
+    }
+
+    public void setLatencyMs(Long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+}
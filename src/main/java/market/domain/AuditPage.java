@@ -0,0 +1,17 @@
+package market.domain;
+
+import java.util.List;
+
+/**
+ * Страница событий аудита.
+ *
+ * @param items события страницы (от новых к старым)
+ * @param next  курсор следующей страницы или {@code null}, если страница последняя
+ */
+public record AuditPage(List<AuditEvent> items, AuditCursor next) {
+
+    /** @return {@code true}, если есть следующая страница */
+    public boolean hasNext() {
+        return next != null;
+    }
+}
@@ -0,0 +1,20 @@
+package market.domain;
+
+import java.time.LocalDateTime;
+
+/**
+ * Фильтр запроса к журналу аудита. Любое поле может быть {@code null} — тогда
+ * соответствующее условие не применяется.
+ *
+ * @param username имя пользователя
+ * @param action   тип действия
+ * @param from     начало интервала времени (включительно)
+ * @param to       конец интервала времени (не включительно)
+ */
+public record AuditQuery(String username, AuditAction action, LocalDateTime from, LocalDateTime to) {
+
+    /** @return фильтр по одному пользователю за всё время */
+    public static AuditQuery byUser(String username) {
+        return new AuditQuery(username, null, null, null);
+    }
+}
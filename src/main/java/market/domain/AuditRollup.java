@@ -0,0 +1,20 @@
+package market.domain;
+
+import java.time.LocalDateTime;
+
+/**
+ * Агрегат журнала аудита: количество событий одного типа за интервал времени.
+ *
+ * @param bucket   начало интервала (минута, час, ...)
+ * @param action   тип действия
+ * @param username пользователь или {@link #ALL_USERS} для суммы по всем пользователям
+ * @param count    количество событий
+ */
+public record AuditRollup(LocalDateTime bucket, AuditAction action, String username, long count) {
+
+    /** Значение {@code username} у строк с суммой по всем пользователям. */
+    public static final String ALL_USERS = "";
+
+    /** Передаётся вместо имени пользователя, чтобы получить разбивку по каждому пользователю. */
+    public static final String EACH_USER = "*";
+}
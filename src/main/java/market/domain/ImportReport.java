@@ -0,0 +1,26 @@
+package market.domain;
+
+import java.util.List;
+
+/**
+ * Итог массового импорта товаров из CSV.
+ *
+ * @param read     количество прочитанных записей (без комментариев и пустых строк)
+ * @param imported количество записей, записанных в каталог
+ * @param rejected количество записей, отклонённых при разборе или валидации
+ * @param millis   длительность импорта в миллисекундах
+ * @param errors   первые сообщения об ошибках разбора (для диагностики)
+ */
+public record ImportReport(long read, long imported, long rejected, long millis, List<String> errors) {
+
+    /** @return скорость импорта, строк в секунду */
+    public double rowsPerSecond() {
+        return millis == 0 ? imported : imported * 1000.0 / millis;
+    }
+
+    @Override
+    public String toString() {
+        return "read=%d, imported=%d, rejected=%d, %d ms (%.0f rows/s)"
+                .formatted(read, imported, rejected, millis, rowsPerSecond());
+    }
+}
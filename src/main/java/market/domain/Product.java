@@ -10,6 +10,8 @@ public class Product {
     private double price;
     private String description;
     private boolean active = true;
+    private long version;
+    private String sku;
 
     public Product() {}
     public Product(
@@ -26,6 +28,15 @@ public class Product {
         this.price = price;
         this.description = description;
     }
+
+    /** Копия товара со всеми полями, включая версию и SKU. */
+    public Product(Product other) {
+        this(other.id, other.name, other.brand, other.category, other.price, other.description);
+        this.active = other.active;
+        this.version = other.version;
+        this.sku = other.sku;
+    }
+
     public Long getId(){
         return id;
     }
@@ -84,6 +95,22 @@ public class Product {
         this.active = active;
     }
 
+    public long getVersion(){
+        return version;
+    }
+
+    public void setVersion(long version){
+        this.version = version;
+    }
+
+    public String getSku(){
+        return sku;
+    }
+
+    public void setSku(String sku){
+        this.sku = sku;
+    }
+
     @Override
     public String toString() {
         return "#%d | %s (%s) | %s | %.2f | %s%s".formatted(
@@ -0,0 +1,13 @@
+package market.domain;
+
+/**
+ * Результат идемпотентной записи товара (upsert).
+ */
+public enum UpsertResult {
+    /** Товара не было — создан новый. */
+    INSERTED,
+    /** Товар существовал и его данные изменились. */
+    UPDATED,
+    /** Товар существовал с теми же данными — запись не выполнялась. */
+    UNCHANGED
+}
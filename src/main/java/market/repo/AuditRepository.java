@@ -1,7 +1,11 @@
 package market.repo;
 
+import market.domain.AuditCursor;
 import market.domain.AuditEvent;
+import market.domain.AuditPage;
+import market.domain.AuditQuery;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -18,6 +22,16 @@ public interface AuditRepository {
      */
     void save(AuditEvent event);
 
+    /**
+     * Сохраняет пачку событий одной операцией.
+     * <p>
+     * В отличие от {@link #save(AuditEvent)} идентификаторы событиям не проставляются:
+     * пачки пишет фоновый поток, и читать сгенерированные ключи ему незачем.
+     *
+     * @param events события для сохранения
+     */
+    void saveAll(List<AuditEvent> events);
+
     /**
      * Возвращает все события аудита,
      * отсортированные по времени (от новых к старым).
@@ -41,4 +55,35 @@ public interface AuditRepository {
      * @return список последних событий
      */
     List<AuditEvent> findRecent(int limit);
+
+    /**
+     * Возвращает события за интервал времени {@code [from, to)},
+     * отсортированные от новых к старым.
+     *
+     * @param from начало интервала (включительно)
+     * @param to   конец интервала (не включительно)
+     * @return список событий за интервал
+     */
+    List<AuditEvent> findBetween(LocalDateTime from, LocalDateTime to);
+
+    /**
+     * Возвращает события, относящиеся к товару, от новых к старым.
+     *
+     * @param productId идентификатор товара
+     * @return список событий по товару
+     */
+    List<AuditEvent> findByProduct(long productId);
+
+    /**
+     * Возвращает страницу событий, подходящих под фильтр, от новых к старым.
+     * <p>
+     * В отличие от {@link #findAll()} и {@link #findByUsername(String)} объём ответа
+     * ограничен, а следующая страница читается по ключу {@code (ts, id)}, а не через OFFSET.
+     *
+     * @param query фильтр по пользователю, действию и интервалу времени
+     * @param after курсор предыдущей страницы ({@code null} — первая страница)
+     * @param limit максимальный размер страницы
+     * @return страница событий с курсором следующей страницы
+     */
+    AuditPage findPage(AuditQuery query, AuditCursor after, int limit);
 }
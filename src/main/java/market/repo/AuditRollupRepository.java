@@ -0,0 +1,34 @@
+package market.repo;
+
+import market.domain.AuditAction;
+import market.domain.AuditRollup;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Хранилище поминутных агрегатов журнала аудита ({@code market.audit_rollup}).
+ */
+public interface AuditRollupRepository {
+
+    /**
+     * Прибавляет приращения к поминутным счётчикам (создаёт недостающие строки).
+     *
+     * @param deltas приращения; {@code bucket} — начало минуты
+     */
+    void increment(List<AuditRollup> deltas);
+
+    /**
+     * Возвращает агрегаты за интервал {@code [from, to)}, сгруппированные по интервалам {@code bucket}.
+     *
+     * @param action   тип действия ({@code null} — все типы, с разбивкой по типу)
+     * @param username пользователь, {@code null} — сумма по всем, {@link AuditRollup#EACH_USER} — по каждому
+     * @param from     начало интервала (включительно)
+     * @param to       конец интервала (не включительно)
+     * @param bucket   размер интервала группировки (не меньше минуты)
+     * @return агрегаты, упорядоченные по времени
+     */
+    List<AuditRollup> aggregate(AuditAction action, String username,
+                                LocalDateTime from, LocalDateTime to, Duration bucket);
+}
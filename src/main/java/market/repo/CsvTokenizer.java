@@ -0,0 +1,313 @@
+package market.repo;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Потоковый разбор CSV в UTF-8 прямо по байтам буфера.
+ * <p>
+ * В отличие от {@link CsvUtil#parseLine(String)}, не создаёт строк и списков на каждую
+ * запись: {@link #nextRecord()} только запоминает границы полей в переиспользуемых
+ * массивах, а значения извлекаются по номеру поля — числа и перечисления разбираются
+ * из байтов, {@link String} создаётся только в {@link #string(int)}.
+ * Правила те же, что у {@link CsvUtil}: поле в кавычках может содержать запятые,
+ * переводы строк и удвоенные кавычки; пробелы по краям поля отбрасываются.
+ * <p>
+ * Экземпляр не потокобезопасен; для повторного использования вызывается {@link #reset(ByteBuffer)}.
+ */
+public class CsvTokenizer {
+
+    private static final int QUOTED_ESCAPES = 1;
+    /** Знаков мантиссы, которые точно представимы в double (2^53 > 10^15). */
+    private static final int FAST_DOUBLE_DIGITS = 15;
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private ByteBuffer buf;
+    private int pos;
+    private int limit;
+
+    private int recordStart;
+    private int recordEnd;
+    private int count;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int[] flags = new int[16];
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Начинает разбор окна буфера от {@code position} до {@code limit}.
+     * Позиция самого буфера не меняется.
+     *
+     * @param buf буфер с CSV (например, отображённый в память файл)
+     * @return этот же токенизатор
+     */
+    public CsvTokenizer reset(ByteBuffer buf) {
+        this.buf = buf;
+        this.pos = buf.position();
+        this.limit = buf.limit();
+        this.count = 0;
+        return this;
+    }
+
+    /**
+     * Переходит к следующей записи.
+     *
+     * @return {@code false}, если окно закончилось
+     */
+    public boolean nextRecord() {
+        if (pos >= limit) {
+            count = 0;
+            return false;
+        }
+        if (limit - pos >= 3 && buf.get(pos) == (byte) 0xEF && buf.get(pos + 1) == (byte) 0xBB
+                && buf.get(pos + 2) == (byte) 0xBF) {
+            pos += 3; // BOM
+        }
+        recordStart = pos;
+        count = 0;
+        while (true) {
+            int flag = 0;
+            int start = skipSpaces(pos);
+            int end;
+            if (start < limit && buf.get(start) == '"') {
+                int i = start + 1;
+                start = i;
+                end = limit;
+                while (i < limit) {
+                    if (buf.get(i) == '"') {
+                        if (i + 1 < limit && buf.get(i + 1) == '"') {
+                            flag |= QUOTED_ESCAPES;
+                            i += 2;
+                            continue;
+                        }
+                        end = i;
+                        i++;
+                        break;
+                    }
+                    i++;
+                }
+                // мусор между закрывающей кавычкой и разделителем игнорируется
+                while (i < limit && buf.get(i) != ',' && buf.get(i) != '\n') i++;
+                pos = i;
+            } else {
+                int i = start;
+                while (i < limit && buf.get(i) != ',' && buf.get(i) != '\n') i++;
+                end = i;
+                pos = i;
+            }
+            start = skipSpaces(start, end);
+            end = trimEnd(start, end);
+            add(start, end, flag);
+
+            if (pos < limit && buf.get(pos) == ',') {
+                pos++;
+                continue;
+            }
+            recordEnd = pos;
+            if (pos < limit) pos++; // '\n'
+            return true;
+        }
+    }
+
+    /** @return количество полей текущей записи */
+    public int fieldCount() {
+        return count;
+    }
+
+    /** @return {@code true}, если запись пустая (только пробелы) */
+    public boolean isBlank() {
+        return count == 1 && ends[0] == starts[0] && flags[0] == 0;
+    }
+
+    /** @return {@code true}, если запись — комментарий или заголовок ({@code #...}) */
+    public boolean isComment() {
+        int i = skipSpaces(recordStart);
+        return i < recordEnd && buf.get(i) == '#';
+    }
+
+    /**
+     * @param field номер поля
+     * @return {@code true}, если поле пустое
+     */
+    public boolean isEmpty(int field) {
+        check(field);
+        return ends[field] == starts[field];
+    }
+
+    /**
+     * Создаёт строку со значением поля (без кавычек и экранирования).
+     *
+     * @param field номер поля
+     * @return значение поля
+     */
+    public String string(int field) {
+        check(field);
+        int start = starts[field];
+        int len = ends[field] - start;
+        if ((flags[field] & QUOTED_ESCAPES) == 0 && buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + start, len, StandardCharsets.UTF_8);
+        }
+        byte[] out = scratch(len);
+        int n = 0;
+        for (int i = start; i < start + len; i++) {
+            byte b = buf.get(i);
+            out[n++] = b;
+            if (b == '"' && (flags[field] & QUOTED_ESCAPES) != 0) i++; // "" → "
+        }
+        return new String(out, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Разбирает поле как {@code long} без создания строки.
+     *
+     * @param field номер поля
+     * @return значение
+     * @throws NumberFormatException если поле не целое число
+     */
+    public long parseLong(int field) {
+        check(field);
+        int i = starts[field];
+        int end = ends[field];
+        boolean negative = i < end && buf.get(i) == '-';
+        if (negative || (i < end && buf.get(i) == '+')) i++;
+        if (i == end || end - i > 18) return Long.parseLong(string(field));
+        long v = 0;
+        for (; i < end; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9) throw new NumberFormatException("For input string: \"" + string(field) + "\"");
+            v = v * 10 + d;
+        }
+        return negative ? -v : v;
+    }
+
+    /**
+     * Разбирает поле как {@code double}. Простые десятичные записи вида {@code -123.45}
+     * (до {@value #FAST_DOUBLE_DIGITS} знаков) разбираются из байтов с тем же результатом,
+     * что и {@link Double#parseDouble(String)}; остальные — через него.
+     *
+     * @param field номер поля
+     * @return значение
+     * @throws NumberFormatException если поле не число
+     */
+    public double parseDouble(int field) {
+        check(field);
+        int i = starts[field];
+        int end = ends[field];
+        boolean negative = i < end && buf.get(i) == '-';
+        if (negative || (i < end && buf.get(i) == '+')) i++;
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        boolean anyDigit = false;
+        for (; i < end; i++) {
+            byte b = buf.get(i);
+            if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                anyDigit = true;
+                if (mantissa != 0) digits++;
+                if (fraction >= 0) fraction++;
+            } else {
+                return Double.parseDouble(string(field)); // экспонента, NaN и т.п.
+            }
+        }
+        if (!anyDigit || digits > FAST_DOUBLE_DIGITS || fraction >= POW10.length) {
+            return Double.parseDouble(string(field));
+        }
+        // мантисса и 10^k точно представимы в double, поэтому одно деление округляется верно
+        double v = fraction > 0 ? mantissa / POW10[fraction] : mantissa;
+        return negative ? -v : v;
+    }
+
+    /**
+     * Разбирает поле как {@code boolean} по правилам {@link Boolean#parseBoolean(String)}.
+     *
+     * @param field номер поля
+     * @return {@code true} только для {@code true} в любом регистре
+     */
+    public boolean parseBoolean(int field) {
+        check(field);
+        int i = starts[field];
+        if (ends[field] - i != 4) return false;
+        return (buf.get(i) | 0x20) == 't' && (buf.get(i + 1) | 0x20) == 'r'
+                && (buf.get(i + 2) | 0x20) == 'u' && (buf.get(i + 3) | 0x20) == 'e';
+    }
+
+    /**
+     * Находит константу перечисления по имени в поле, не создавая строки.
+     *
+     * @param field  номер поля
+     * @param values константы ({@code E.values()}, лучше закэшированные)
+     * @param <E>    тип перечисления
+     * @return константа
+     * @throws IllegalArgumentException если такой константы нет
+     */
+    public <E extends Enum<E>> E parseEnum(int field, E[] values) {
+        check(field);
+        int start = starts[field];
+        int len = ends[field] - start;
+        for (E e : values) {
+            String name = e.name();
+            if (name.length() != len) continue;
+            int i = 0;
+            while (i < len && buf.get(start + i) == name.charAt(i)) i++;
+            if (i == len) return e;
+        }
+        throw new IllegalArgumentException("No enum constant " + string(field));
+    }
+
+    /** @return текст текущей записи (для сообщений об ошибках) */
+    public String record() {
+        int len = recordEnd - recordStart;
+        byte[] out = scratch(len);
+        for (int i = 0; i < len; i++) out[i] = buf.get(recordStart + i);
+        return new String(out, 0, len, StandardCharsets.UTF_8);
+    }
+
+    private void add(int start, int end, int flag) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+            flags = Arrays.copyOf(flags, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        flags[count] = flag;
+        count++;
+    }
+
+    private int skipSpaces(int i) {
+        while (i < limit && isSpace(buf.get(i))) i++;
+        return i;
+    }
+
+    private int skipSpaces(int i, int end) {
+        while (i < end && isSpace(buf.get(i))) i++;
+        return i;
+    }
+
+    private int trimEnd(int start, int end) {
+        while (end > start && isSpace(buf.get(end - 1))) end--;
+        return end;
+    }
+
+    /** Как в {@link String#trim()}: всё до пробела включительно, но не перевод строки. */
+    private static boolean isSpace(byte b) {
+        return b >= 0 && b <= ' ' && b != '\n';
+    }
+
+    private byte[] scratch(int len) {
+        if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+        return scratch;
+    }
+
+    private void check(int field) {
+        Objects.checkIndex(field, count);
+    }
+}
@@ -1,5 +1,10 @@
 package market.repo;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Утилитарный класс для безопасной работы со строками CSV.
  * <p>
@@ -60,4 +65,63 @@ public final class CsvUtil {
         }
         return v;
     }
+
+    /**
+     * Разбирает одну CSV-запись на поля.
+     * <p>
+     * Учитывает значения в кавычках (в том числе содержащие запятые и переводы строк)
+     * и удвоенные кавычки внутри них.
+     *
+     * @param line CSV-запись
+     * @return список значений полей (без экранирования)
+     */
+    public static List<String> parseLine(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') { cur.append('"'); i++; }
+                else quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                out.add(unesc(cur.toString())); cur.setLength(0);
+            } else {
+                cur.append(c);
+            }
+        }
+        out.add(unesc(cur.toString()));
+        return out;
+    }
+
+    /**
+     * Читает из потока одну CSV-запись.
+     * <p>
+     * Если значение в кавычках содержит перевод строки, запись занимает несколько
+     * физических строк — они склеиваются обратно.
+     *
+     * @param br источник
+     * @return запись целиком или {@code null}, если поток закончился
+     * @throws IOException при ошибке чтения
+     */
+    public static String readRecord(BufferedReader br) throws IOException {
+        String line = br.readLine();
+        if (line == null) return null;
+        if (!hasOpenQuote(line)) return line;
+        StringBuilder sb = new StringBuilder(line);
+        String next;
+        while ((next = br.readLine()) != null) {
+            sb.append('\n').append(next);
+            if (!hasOpenQuote(sb)) break;
+        }
+        return sb.toString();
+    }
+
+    private static boolean hasOpenQuote(CharSequence s) {
+        int quotes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '"') quotes++;
+        }
+        return (quotes & 1) == 1;
+    }
 }
@@ -0,0 +1,72 @@
+package market.repo;
+
+import market.exception.PersistenceException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Источник блоков идентификаторов для файловых репозиториев (CSV).
+ * <p>
+ * В файле хранится «верхняя отметка» — последний зарезервированный идентификатор.
+ * Каждый {@link #reserve()} увеличивает её на размер блока и атомарно перезаписывает
+ * файл (временный файл + rename), поэтому после перезапуска выдача продолжается
+ * с нового блока и уже выданные идентификаторы не повторяются.
+ */
+public class FileIdBlockSource implements IdGenerator.BlockSource {
+
+    private final Path file;
+    private final int blockSize;
+    private long high;
+
+    /**
+     * @param file      файл с верхней отметкой (создаётся при первом резервировании)
+     * @param blockSize сколько идентификаторов резервировать за одну запись файла
+     */
+    public FileIdBlockSource(Path file, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Размер блока id должен быть > 0");
+        }
+        this.file = file;
+        this.blockSize = blockSize;
+        this.high = read();
+    }
+
+    @Override
+    public synchronized IdGenerator.IdBlock reserve() {
+        long from = high + 1;
+        write(high + blockSize);
+        return new IdGenerator.IdBlock(from, from + blockSize);
+    }
+
+    @Override
+    public synchronized void advanceTo(long id) {
+        if (id > high) {
+            write(id);
+        }
+    }
+
+    private long read() {
+        if (!Files.exists(file)) return 0;
+        try {
+            String s = Files.readString(file, StandardCharsets.UTF_8).trim();
+            return s.isEmpty() ? 0 : Long.parseLong(s);
+        } catch (IOException | NumberFormatException e) {
+            throw new PersistenceException("Не удалось прочитать отметку id из " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void write(long value) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.writeString(tmp, Long.toString(value), StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            high = value;
+        } catch (IOException e) {
+            throw new PersistenceException("Не удалось сохранить отметку id в " + file + ": " + e.getMessage());
+        }
+    }
+}
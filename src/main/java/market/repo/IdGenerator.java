@@ -1,46 +1,167 @@
 package market.repo;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
- * Простой генератор уникальных идентификаторов.
+ * Потокобезопасный генератор уникальных идентификаторов с выделением блоками (hi/lo).
  * <p>
- * Используется для последовательной генерации числовых ID в оперативной памяти
- * или при работе с файловыми репозиториями (например, CSV).
+ * Генератор резервирует у {@link BlockSource} сразу блок идентификаторов и раздаёт его
+ * без блокировок — одним {@code getAndIncrement}. Обращение к источнику (последовательность
+ * PostgreSQL, файл с «верхней отметкой») происходит только при исчерпании блока,
+ * и только один поток выполняет его под монитором; остальные ждут новый блок.
  * <p>
- * Генератор не является потокобезопасным и предназначен
- * для использования в однопоточном окружении (например, консольное приложение).
+ * Идентификаторы уникальны, но не обязательно непрерывны: остаток блока теряется
+ * при перезапуске, а блоки разных процессов чередуются.
  */
 public class IdGenerator {
 
-    /** Текущее значение последовательности. */
-    private long seq;
+    /**
+     * Полуоткрытый диапазон зарезервированных идентификаторов {@code [from, to)}.
+     *
+     * @param from первый идентификатор блока
+     * @param to   идентификатор, следующий за последним в блоке
+     */
+    public record IdBlock(long from, long to) {
+        public IdBlock {
+            if (to < from) {
+                throw new IllegalArgumentException("Пустой блок id: [" + from + ", " + to + ")");
+            }
+        }
+    }
+
+    /**
+     * Источник блоков идентификаторов. Каждый вызов {@link #reserve()} обязан
+     * вернуть блок, не пересекающийся ни с одним ранее выданным.
+     */
+    public interface BlockSource {
+
+        /** @return новый зарезервированный блок идентификаторов */
+        IdBlock reserve();
+
+        /**
+         * Гарантирует, что последующие блоки будут начинаться после {@code id}
+         * (например, после загрузки данных с уже назначенными идентификаторами).
+         *
+         * @param id максимальный занятый идентификатор
+         */
+        void advanceTo(long id);
+    }
+
+    /** Диапазон, из которого сейчас выдаются идентификаторы. */
+    private static final class Range {
+        final AtomicLong next;
+        final long end;
+
+        Range(long from, long end) {
+            this.next = new AtomicLong(from);
+            this.end = end;
+        }
+    }
+
+    /** Размер блока генератора, работающего только в памяти. */
+    private static final int MEMORY_BLOCK = 1024;
+
+    private final BlockSource source;
+    private volatile Range range = new Range(0, 0);
 
     /**
-     * Создаёт новый генератор, начиная с указанного стартового значения.
+     * Создаёт генератор, работающий только в памяти и начинающий после {@code start}.
      *
-     * @param start начальное значение счётчика (обычно 0 или максимальный ID из файла)
+     * @param start последний занятый идентификатор (обычно 0 или максимальный ID из файла)
      */
     public IdGenerator(long start) {
-        this.seq = start;
+        this(new MemoryBlockSource(start));
+    }
+
+    /**
+     * @param source источник блоков идентификаторов
+     */
+    public IdGenerator(BlockSource source) {
+        this.source = source;
     }
 
     /**
-     * Возвращает следующий уникальный идентификатор и увеличивает внутренний счётчик.
+     * Возвращает следующий уникальный идентификатор.
      *
      * @return следующий уникальный идентификатор
      */
     public long next() {
-        return ++seq;
+        while (true) {
+            Range r = range;
+            long id = r.next.getAndIncrement();
+            if (id < r.end) {
+                return id;
+            }
+            refill(r);
+        }
     }
 
     /**
-     * Возвращает текущее значение счётчика без его увеличения.
-     * <p>
-     * Полезно, если нужно узнать последний выданный ID,
-     * но не генерировать новый.
+     * Возвращает последний выданный идентификатор текущего блока без выделения нового.
      *
-     * @return текущее значение идентификатора
+     * @return последний выданный идентификатор или {@code 0}, если блок ещё не выделен
      */
     public long peek() {
-        return seq;
+        Range r = range;
+        return Math.max(0, Math.min(r.next.get(), r.end) - 1);
+    }
+
+    /**
+     * Гарантирует, что {@link #next()} больше не выдаст идентификатор {@code <= id}.
+     * <p>
+     * Вызывается, когда идентификатор назначен извне (загрузка файла, явный id).
+     * Если {@code id} уже позади текущего блока, метод не берёт блокировку.
+     *
+     * @param id занятый идентификатор
+     */
+    public void advanceTo(long id) {
+        if (id < issuedUpTo(range)) {
+            return;
+        }
+        synchronized (this) {
+            Range r = range;
+            if (id < issuedUpTo(r)) {
+                return;
+            }
+            source.advanceTo(id);
+            // сдвигаем тот же счётчик, а не подменяем Range: поток, уже прочитавший range
+            // в next(), иначе продолжил бы выдавать id <= id из старого объекта.
+            // Если блок исчерпан, next() возьмёт новый — он уже начнётся после id.
+            r.next.accumulateAndGet(id + 1, Math::max);
+        }
+    }
+
+    /** Граница выдачи: всё меньшее уже выдано или занято, всё большее — ещё нет. */
+    private static long issuedUpTo(Range r) {
+        return Math.min(r.next.get(), r.end);
+    }
+
+    private synchronized void refill(Range exhausted) {
+        if (range != exhausted) {
+            return; // блок уже заменил другой поток
+        }
+        IdBlock block = source.reserve();
+        range = new Range(block.from(), block.to());
+    }
+
+    /** Источник блоков в памяти: «верхняя отметка» живёт только в этом процессе. */
+    private static final class MemoryBlockSource implements BlockSource {
+        private long high;
+
+        MemoryBlockSource(long start) {
+            this.high = start;
+        }
+
+        @Override
+        public synchronized IdBlock reserve() {
+            IdBlock block = new IdBlock(high + 1, high + 1 + MEMORY_BLOCK);
+            high += MEMORY_BLOCK;
+            return block;
+        }
+
+        @Override
+        public synchronized void advanceTo(long id) {
+            high = Math.max(high, id);
+        }
     }
 }
@@ -3,52 +3,206 @@ package market.repo;
 
 import market.domain.Category;
 import market.domain.Product;
+import market.domain.UpsertResult;
+import market.exception.PersistenceException;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Map;
-import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * In-memory репозиторий для сущности {@link Product}.
- * Данные хранятся в HashMap и исчезают после завершения программы.
+ * Данные хранятся в {@link LongObjectMap} — без упакованных ключей и узлов на каждый товар.
+ * Рядом ведётся индекс «артикул → id»: {@link #upsert(Product)} находит товар по SKU
+ * без перебора, а запись с чужим артикулом или с занятым id отклоняется, как
+ * уникальный индекс и первичный ключ в PostgreSQL.
+ * <p>
+ * Идентификаторы выдаёт {@link IdGenerator}; чтобы они не повторялись между запусками,
+ * ему можно передать {@link FileIdBlockSource} с файлом «верхней отметки».
+ * <p>
+ * Каждое изменение сначала дописывается в журнал {@code products.csv.journal}
+ * (write-ahead): {@code U,<строка CSV>} для записи товара, {@code D,<id>} для удаления.
+ * {@link #flush()} только сбрасывает журнал на диск, а снимок переписывается целиком
+ * (временный файл + атомарное переименование) фоновым потоком — раз в
+ * {@value #SNAPSHOT_CHECK_MS} мс или когда журнал вырос до {@code snapshotEvery} записей.
+ * <p>
+ * Снимок — двоичный {@code products.bin} ({@link ProductSnapshotCodec}), он читается
+ * без разбора текста. {@code products.csv} остаётся форматом обмена: {@link #load()} берёт
+ * более свежий из двух файлов (CSV разбирается {@link ParallelCsvLoader} и сразу
+ * переводится в двоичный снимок), а {@link #close()} выгружает каталог обратно в CSV.
+ * Журнал воспроизводится поверх любого из снимков.
  */
-public class InMemoryProductRepository implements ProductRepository {
-    private final Map<Long, Product> store = new HashMap<>();
-    private final Path file = Paths.get("products.csv");
-    private final IdGenerator ids = new IdGenerator(0);
+public class InMemoryProductRepository implements ProductRepository, AutoCloseable {
+    private static final String HEADER = "#id,name,brand,category,price,description,active,sku";
+    private static final int DEFAULT_SNAPSHOT_EVERY = 10_000;
+    private static final long SNAPSHOT_CHECK_MS = 60_000;
+    private static final Category[] CATEGORIES = Category.values();
+
+    private final LongObjectMap<Product> store = new LongObjectMap<>();
+    /** Артикул → id товара; меняется только вместе со {@link #store} (см. {@link #put(Product)}). */
+    private final Map<String, Long> skuIndex = new HashMap<>();
+    private final Path file;
+    private final Path binary;
+    private final IdGenerator ids;
+    private final JournalFile journal;
+    private final int snapshotEvery;
+    private final ScheduledExecutorService snapshotter;
+    private final ParallelCsvLoader loader = new ParallelCsvLoader();
+    /** Токенизатор для воспроизведения журнала; используется только внутри {@link #load()}. */
+    private final CsvTokenizer replayTokenizer = new CsvTokenizer();
+    /**
+     * Загружен ли каталог полностью: без этого выгрузка в CSV при закрытии
+     * и фоновый снимок затёрли бы файлы пустым или неполным каталогом.
+     */
+    private volatile boolean loaded;
+
+    public InMemoryProductRepository(){
+        this(Paths.get("products.csv"), new IdGenerator(0));
+    }
+
+    /**
+     * @param file CSV-файл каталога
+     * @param ids  генератор идентификаторов новых товаров
+     */
+    public InMemoryProductRepository(Path file, IdGenerator ids){
+        this(file, ids, DEFAULT_SNAPSHOT_EVERY);
+    }
+
+    /**
+     * @param file          CSV-файл каталога; двоичный снимок хранится рядом ({@code .bin})
+     * @param ids           генератор идентификаторов новых товаров
+     * @param snapshotEvery после скольких записей журнала переписывать снимок
+     */
+    public InMemoryProductRepository(Path file, IdGenerator ids, int snapshotEvery){
+        this.file = file;
+        String name = file.getFileName().toString();
+        this.binary = file.resolveSibling((name.endsWith(".csv") ? name.substring(0, name.length() - 4) : name) + ".bin");
+        this.ids = ids;
+        this.journal = new JournalFile(file, false);
+        this.snapshotEvery = snapshotEvery;
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "products-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        snapshotter.scheduleWithFixedDelay(() -> snapshotQuietly(false), SNAPSHOT_CHECK_MS, SNAPSHOT_CHECK_MS, TimeUnit.MILLISECONDS);
+    }
 
     @Override
-    public Product save(Product p){
+    public synchronized Product save(Product p){
 
-        if (p.getId()==0)
+        if (p.getId()==null || p.getId()==0)
             p.setId(nextId());
+        else
+            ids.advanceTo(p.getId());
+        checkSku(p);
 
-        store.put(p.getId(), p);
+        log(List.of("U," + row(p)));
+        put(p);
 
         return p;
     }
 
     @Override
-    public Optional<Product> findById(long id){
+    public synchronized List<Product> saveAll(List<Product> products){
+        List<String> entries = new ArrayList<>(products.size());
+        Map<String, Long> batchSkus = new HashMap<>();
+        for (Product p : products) {
+            if (p.getId()==null || p.getId()==0)
+                p.setId(nextId());
+            else
+                ids.advanceTo(p.getId());
+            checkSku(p);
+            if (p.getSku() != null) {
+                Long other = batchSkus.putIfAbsent(p.getSku(), p.getId());
+                if (other != null && !other.equals(p.getId())) {
+                    throw new PersistenceException("Артикул " + p.getSku() + " повторяется в пачке: id="
+                            + other + " и id=" + p.getId());
+                }
+            }
+            entries.add("U," + row(p));
+        }
+        // вся пачка — одна дозапись в журнал
+        log(entries);
+        for (Product p : products) put(p);
+        return products;
+    }
+
+    @Override
+    public synchronized UpsertResult upsert(Product p){
+        Product existing = null;
+        if (p.getSku() != null) {
+            existing = findBySku(p.getSku());
+            if (existing == null && p.getId() != null && p.getId() != 0 && store.containsKey(p.getId())) {
+                // новый артикул с id чужого товара: в PostgreSQL это нарушение первичного ключа
+                throw new PersistenceException("Товар id=" + p.getId() + " уже существует с другим артикулом, "
+                        + "артикул " + p.getSku() + " не найден");
+            }
+        } else if (p.getId() != null && p.getId() != 0) {
+            existing = store.get(p.getId());
+        }
+        if (existing == null) {
+            save(p);
+            return UpsertResult.INSERTED;
+        }
+        p.setId(existing.getId());
+        if (sameData(existing, p)) {
+            p.setVersion(existing.getVersion());
+            return UpsertResult.UNCHANGED;
+        }
+        p.setVersion(existing.getVersion() + 1);
+        log(List.of("U," + row(p)));
+        put(p);
+        return UpsertResult.UPDATED;
+    }
+
+    @Override
+    public synchronized int upsertAll(List<Product> products){
+        int written = 0;
+        for (Product p : products) {
+            if (upsert(p) != UpsertResult.UNCHANGED) written++;
+        }
+        return written;
+    }
+
+    private static boolean sameData(Product a, Product b){
+        return Objects.equals(a.getName(), b.getName())
+                && Objects.equals(a.getBrand(), b.getBrand())
+                && a.getCategory() == b.getCategory()
+                && Double.compare(a.getPrice(), b.getPrice()) == 0
+                && Objects.equals(a.getDescription(), b.getDescription())
+                && a.isActive() == b.isActive()
+                && Objects.equals(a.getSku(), b.getSku());
+    }
+
+    @Override
+    public synchronized Optional<Product> findById(long id){
         return Optional.ofNullable(store.get(id));
     }
 
     @Override
-    public boolean deleteById(long id){
-        return store.remove(id)!=null;
+    public synchronized boolean deleteById(long id){
+        if (!store.containsKey(id)) return false;
+        log(List.of("D," + id));
+        remove(id);
+        return true;
     }
 
     @Override
-    public List<Product> findAll(){
-        return new ArrayList<>(store.values());
+    public synchronized List<Product> findAll(){
+        return store.values();
     }
 
     @Override
@@ -56,79 +210,199 @@ public class InMemoryProductRepository implements ProductRepository {
         return ids.next();
     }
 
+    /**
+     * Загружает каталог из снимка и журнала.
+     *
+     * @throws PersistenceException если снимок или CSV не читается или повреждён;
+     *                              каталог остаётся пустым, а файлы при закрытии не переписываются
+     */
     @Override
-    public void load(){
+    public synchronized void load(){
         store.clear();
+        skuIndex.clear();
+        loaded = false;
 
-        if (!Files.exists(file)) return;
-
-        try (BufferedReader br = Files.newBufferedReader(file)){
-            String line;
-            long maxId = 0;
-
-            while ((line = br.readLine()) != null) {
-                if (line.isBlank() || line.startsWith("#")) continue;
-                List<String> parts = parseCsvLine(line);
-                long id = Long.parseLong(parts.get(0));
-                Product p = new Product(
-                        id,
-                        parts.get(1),
-                        parts.get(2),
-                        Category.valueOf(parts.get(3)),
-                        Double.parseDouble(parts.get(4)),
-                        parts.get(5)
-                );
-                p.setActive(Boolean.parseBoolean(parts.get(6)));
-                store.put(id, p);
-                if (id>maxId) maxId = id;
+        boolean convert = false;
+        try {
+            if (Files.exists(binary) && !isOlder(binary, file)) {
+                ProductSnapshotCodec.read(binary, this::put);
+            } else if (Files.exists(file)) {
+                // куски разбираются параллельно, а в карту кладутся по порядку файла
+                for (List<Product> chunk : loader.load(file, tok -> parse(tok, 0))) {
+                    for (Product p : chunk) put(p);
+                }
+                convert = true;
             }
-            if (maxId>0) while (ids.peek()<maxId) ids.next();
-        } catch (IOException e) {
-            System.err.println("Failed to load products.csv: " + e.getMessage());
+            journal.replay(this::replay);
+        } catch (IOException | RuntimeException e) {
+            store.clear();
+            skuIndex.clear();
+            throw new PersistenceException("Не удалось загрузить каталог " + file + ": " + e.getMessage());
         }
+        loaded = true;
+        if (convert) snapshotter.execute(() -> snapshotQuietly(true));
+        long maxId = 0;
+        for (Product p : store) maxId = Math.max(maxId, p.getId());
+        ids.advanceTo(maxId);
     }
+
+    /**
+     * Сбрасывает журнал на диск; если он вырос до порога, ставит снимок в очередь.
+     * Стоимость пропорциональна изменениям с прошлого вызова, а не размеру каталога.
+     */
     @Override public void flush(){
-        try (BufferedWriter bw = Files.newBufferedWriter(file)) {
-            bw.write("#id,name,brand,category,price,description,active\n");
-            for (Product p: store.values()){
-                bw.write(String.join("," ,
-                        Long.toString(p.getId()),
-                        CsvUtil.esc(p.getName()),
-                        CsvUtil.esc(p.getBrand()),
-                        p.getCategory().name(),
-                        Double.toString(p.getPrice()),
-                        CsvUtil.esc(p.getDescription()),
-                        Boolean.toString(p.isActive())
-                ));
-                bw.write("\n");
-            }
+        try {
+            journal.sync();
         } catch (IOException e) {
-            System.err.println("Failed to write products.csv: " + e.getMessage());
-        }
-    }
-    private static List<String> parseCsvLine(String line){
-        List<String> out = new ArrayList<>();
-        StringBuilder cur = new StringBuilder();
-        boolean quoted = false;
-        for (int i=0;i<line.length();i++){
-            char c = line.charAt(i);
-            if (c=='"') {
-                if (quoted && i+1<line.length() && line.charAt(i+1)=='"'){ cur.append('"'); i++; }
-                else quoted = !quoted;
-            } else if (c==',' && !quoted) {
-                out.add(unesc(cur.toString())); cur.setLength(0);
-            } else {
-                cur.append(c);
-            }
+            System.err.println("Failed to sync products.csv.journal: " + e.getMessage());
+        }
+        if (journal.entries() >= snapshotEvery) {
+            snapshotter.execute(() -> snapshotQuietly(false));
         }
-        out.add(unesc(cur.toString()));
-        return out;
     }
-    private static String unesc(String s){
-        String v = s.trim();
-        if (v.startsWith("\"") && v.endsWith("\"")) {
-            v = v.substring(1, v.length()-1).replace("\"\"", "\"");
+
+    /**
+     * Переписывает двоичный снимок текущим каталогом и очищает журнал.
+     *
+     * @throws IOException если запись снимка не удалась
+     */
+    public void snapshot() throws IOException {
+        Path rotated;
+        List<Product> products;
+        synchronized (this) {
+            rotated = journal.beginCompaction();
+            products = store.values();
         }
-        return v;
+        ProductSnapshotCodec.write(binary, products);
+        journal.endCompaction(rotated);
+    }
+
+    /**
+     * Выгружает каталог в CSV (формат обмена) атомарно: временный файл и переименование.
+     *
+     * @param target CSV-файл
+     * @throws IOException если запись не удалась
+     */
+    public void exportCsv(Path target) throws IOException {
+        List<String> rows;
+        synchronized (this) {
+            rows = new ArrayList<>(store.size());
+            for (Product p : store) rows.add(row(p));
+        }
+        JournalFile.writeSnapshot(target, HEADER, rows);
+    }
+
+    /**
+     * Останавливает фоновые снимки и закрывает журнал. Загруженный каталог выгружается
+     * в CSV, после чего пишется двоичный снимок — он остаётся не старше CSV.
+     */
+    @Override
+    public void close() throws IOException {
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.sync();
+        if (loaded) {
+            exportCsv(file);
+            snapshot();
+        }
+        journal.close();
+    }
+
+    private void snapshotQuietly(boolean force) {
+        try {
+            if (loaded && (force || journal.entries() > 0)) snapshot();
+        } catch (IOException e) {
+            System.err.println("Failed to write products.bin: " + e.getMessage());
+        }
+    }
+
+    /** @return {@code true}, если файл {@code a} изменён раньше существующего файла {@code b} */
+    private static boolean isOlder(Path a, Path b) throws IOException {
+        return Files.exists(b) && Files.getLastModifiedTime(a).compareTo(Files.getLastModifiedTime(b)) < 0;
+    }
+
+    /** Кладёт товар в хранилище и обновляет индекс артикулов. */
+    private void put(Product p) {
+        Product old = store.put(p.getId(), p);
+        if (old != null && old.getSku() != null) skuIndex.remove(old.getSku(), old.getId());
+        if (p.getSku() != null) skuIndex.put(p.getSku(), p.getId());
+    }
+
+    private void remove(long id) {
+        Product old = store.remove(id);
+        if (old != null && old.getSku() != null) skuIndex.remove(old.getSku(), id);
+    }
+
+    /** @return товар с артикулом или {@code null}; устаревшая запись индекса (товар изменён на месте) удаляется */
+    private Product findBySku(String sku) {
+        Long id = skuIndex.get(sku);
+        if (id == null) return null;
+        Product p = store.get(id);
+        if (p != null && sku.equals(p.getSku())) return p;
+        skuIndex.remove(sku);
+        return null;
+    }
+
+    /** Отклоняет запись, если артикул уже принадлежит другому товару (уникальный индекс в PostgreSQL). */
+    private void checkSku(Product p) {
+        if (p.getSku() == null) return;
+        Product owner = findBySku(p.getSku());
+        if (owner != null && !owner.getId().equals(p.getId())) {
+            throw new PersistenceException("Артикул " + p.getSku() + " уже занят товаром id=" + owner.getId());
+        }
+    }
+
+    private void log(List<String> entries) {
+        try {
+            journal.append(entries);
+        } catch (IOException e) {
+            throw new PersistenceException("Не удалось записать изменения в журнал товаров: " + e.getMessage());
+        }
+    }
+
+    private void replay(String record) {
+        try {
+            replayTokenizer.reset(ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8))).nextRecord();
+            if (record.startsWith("D,")) {
+                remove(replayTokenizer.parseLong(1));
+            } else if (record.startsWith("U,")) {
+                Product p = parse(replayTokenizer, 1);
+                put(p);
+            }
+        } catch (RuntimeException e) {
+            // недописанная при сбое последняя запись журнала
+            System.err.println("Skipping broken products journal record: " + e.getMessage());
+        }
+    }
+
+    /** Разбирает товар из полей записи, начиная с {@code from}: строки создаются только для текстовых полей. */
+    private static Product parse(CsvTokenizer tok, int from) {
+        Product p = new Product(
+                tok.parseLong(from),
+                tok.string(from + 1),
+                tok.string(from + 2),
+                tok.parseEnum(from + 3, CATEGORIES),
+                tok.parseDouble(from + 4),
+                tok.string(from + 5)
+        );
+        p.setActive(tok.parseBoolean(from + 6));
+        if (tok.fieldCount() > from + 7 && !tok.isEmpty(from + 7)) p.setSku(tok.string(from + 7));
+        return p;
+    }
+
+    private static String row(Product p) {
+        return String.join(",",
+                Long.toString(p.getId()),
+                CsvUtil.esc(p.getName()),
+                CsvUtil.esc(p.getBrand()),
+                p.getCategory().name(),
+                Double.toString(p.getPrice()),
+                CsvUtil.esc(p.getDescription()),
+                Boolean.toString(p.isActive()),
+                CsvUtil.esc(p.getSku()));
     }
 }
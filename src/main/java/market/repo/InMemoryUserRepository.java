@@ -3,66 +3,190 @@ package market.repo;
 import market.domain.Role;
 import market.domain.User;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * In-memory репозиторий для сущности {@link User}.
  * Данные хранятся в HashMap и исчезают после завершения программы.
+ * <p>
+ * Между запусками данные хранятся в {@code users.csv} (снимок) и {@link JournalFile}
+ * {@code users.csv.journal}: {@link #persist()} дописывает в журнал только изменения
+ * с прошлого вызова, а снимок переписывается фоновым потоком, когда в журнале
+ * накопилось {@code compactThreshold} строк. {@link #load()} читает снимок и
+ * применяет журнал поверх него.
  */
-public class InMemoryUserRepository implements UserRepository{
+public class InMemoryUserRepository implements UserRepository, AutoCloseable {
+
+    private static final String HEADER = "#username,password,role";
+    private static final int DEFAULT_COMPACT_THRESHOLD = 1000;
+    private static final long COMPACT_CHECK_MS = 60_000;
+    private static final Role[] ROLES = Role.values();
+
     private final Map<String, User> users = new HashMap<>();
-    private final Path file = Paths.get("users.csv");
+    private final Path file;
+    private final JournalFile journal;
+    private final int compactThreshold;
+    /** Строки изменений, ещё не дописанные в журнал. */
+    private final List<String> pending = new ArrayList<>();
+    private final ScheduledExecutorService compactor;
+    private final CsvTokenizer tokenizer = new CsvTokenizer();
+
+    public InMemoryUserRepository() {
+        this(Paths.get("users.csv"), DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    /**
+     * @param file             файл-снимок пользователей
+     * @param compactThreshold после скольких строк журнала переписывать снимок
+     */
+    public InMemoryUserRepository(Path file, int compactThreshold) {
+        this.file = file;
+        this.journal = new JournalFile(file, false);
+        this.compactThreshold = compactThreshold;
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "users-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded, COMPACT_CHECK_MS, COMPACT_CHECK_MS, TimeUnit.MILLISECONDS);
+    }
 
     @Override
-    public Optional<User> findByUsername(String username) {
+    public synchronized Optional<User> findByUsername(String username) {
         return Optional.ofNullable(users.get(username));
     }
 
     @Override
-    public void saveUser(User user) {
+    public synchronized void saveUser(User user) {
         users.put(user.getUsername(), user);
+        pending.add(row(user));
+    }
+
+    @Override
+    public synchronized boolean register(User user) {
+        if (users.putIfAbsent(user.getUsername(), user) != null) return false;
+        pending.add(row(user));
+        return true;
     }
 
     @Override
-    public boolean exists(String username) {
+    public synchronized int registerAll(List<User> batch) {
+        int created = 0;
+        for (User u : batch) {
+            if (register(u)) created++;
+        }
+        return created;
+    }
+
+    @Override
+    public synchronized boolean exists(String username) {
         return users.containsKey(username);
     }
 
     @Override
-    public void load() throws IOException {
-        if (!Files.exists(file)) return;
-        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                line = line.replace("\uFEFF","").trim();
-                if (line.isBlank() || line.startsWith("#")) continue;
-                String[] p = line.split(",", -1);
-                if (p.length < 3) continue;
-                users.put(p[0], new User(p[0], p[1], Role.valueOf(p[2])));
+    public synchronized List<String> findAllUsernames() {
+        return new ArrayList<>(users.keySet());
+    }
+
+    @Override
+    public synchronized void load() throws IOException {
+        if (Files.exists(file)) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                tokenizer.reset(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+                while (tokenizer.nextRecord()) apply(tokenizer);
             }
         }
+        // строки журнала — те же строки CSV, применяются поверх снимка
+        journal.replay(line -> {
+            tokenizer.reset(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
+            if (tokenizer.nextRecord()) apply(tokenizer);
+        });
     }
 
+    /**
+     * Дописывает в журнал изменения с прошлого вызова — O(изменений), а не O(пользователей).
+     * Если журнал вырос до порога, ставит переписывание снимка в фоновую очередь.
+     */
     @Override
     public void persist() throws IOException {
-        try (BufferedWriter bw = Files.newBufferedWriter(
-                file, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
-            bw.write("#username,password,role\n");
-            for (User u : users.values()) {
-                bw.write(String.join(",", u.getUsername(), u.getPassword(), u.getRole().name()));
-                bw.newLine();
-            }
+        long entries;
+        synchronized (this) {
+            journal.append(pending);
+            pending.clear();
+            entries = journal.entries();
         }
+        if (entries >= compactThreshold) {
+            compactor.execute(this::compactIfNeeded);
+        }
+    }
+
+    /**
+     * Переписывает снимок текущим состоянием и очищает журнал.
+     *
+     * @throws IOException если запись снимка не удалась
+     */
+    public void compact() throws IOException {
+        Path rotated;
+        List<String> rows;
+        synchronized (this) {
+            journal.append(pending);
+            pending.clear();
+            rotated = journal.beginCompaction();
+            if (rotated == null) return;
+            rows = new ArrayList<>(users.size());
+            for (User u : users.values()) rows.add(row(u));
+        }
+        // долгая запись снимка — без блокировки: новые изменения идут в свежий журнал
+        JournalFile.writeSnapshot(file, HEADER, rows);
+        journal.endCompaction(rotated);
+    }
+
+    /** Дописывает изменения и останавливает фоновую компактизацию. */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            journal.append(pending);
+            pending.clear();
+            journal.close();
+        }
+    }
+
+    private void compactIfNeeded() {
+        try {
+            if (journal.entries() > 0) compact();
+        } catch (IOException e) {
+            System.err.println("Failed to compact users.csv: " + e.getMessage());
+        }
+    }
+
+    private void apply(CsvTokenizer tok) {
+        if (tok.isBlank() || tok.isComment() || tok.fieldCount() < 3) return;
+        String username = tok.string(0);
+        users.put(username, new User(username, tok.string(1), tok.parseEnum(2, ROLES)));
+    }
+
+    private static String row(User u) {
+        return String.join(",", CsvUtil.esc(u.getUsername()), CsvUtil.esc(u.getPassword()), u.getRole().name());
     }
 }
@@ -0,0 +1,184 @@
+package market.repo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Журнал изменений (append-only) рядом с файлом-снимком.
+ * <p>
+ * Изменения дописываются строками в {@code <снимок>.journal} — O(изменений), а не
+ * O(всех данных), как при перезаписи снимка. Состояние восстанавливается так: снимок,
+ * затем {@link #replay(Consumer)} журнала. Строки журнала должны быть идемпотентными
+ * (повторное применение не меняет результат): после сбоя во время компактизации
+ * часть строк может быть применена дважды.
+ * <p>
+ * Компактизация: {@link #beginCompaction()} под монитором переименовывает журнал
+ * в {@code .compacting} и начинает новый; вызывающий пишет новый снимок
+ * ({@link #writeSnapshot(Path, String, Collection)}) и вызывает {@link #endCompaction(Path)}.
+ * Пока снимок не записан, {@code .compacting} участвует в {@link #replay(Consumer)}.
+ */
+public class JournalFile implements AutoCloseable {
+
+    private final Path path;
+    private final Path compacting;
+    private final boolean sync;
+    private FileChannel channel;
+    private long entries;
+
+    /**
+     * @param snapshot файл-снимок; журнал хранится рядом как {@code <снимок>.journal}
+     * @param sync     вызывать ли {@code fsync} после каждой дозаписи
+     */
+    public JournalFile(Path snapshot, boolean sync) {
+        this.path = snapshot.resolveSibling(snapshot.getFileName() + ".journal");
+        this.compacting = snapshot.resolveSibling(snapshot.getFileName() + ".journal.compacting");
+        this.sync = sync;
+    }
+
+    /**
+     * Дописывает строки в журнал одной операцией записи.
+     *
+     * @param lines строки без перевода строки
+     * @throws IOException если запись не удалась
+     */
+    public synchronized void append(Collection<String> lines) throws IOException {
+        if (lines.isEmpty()) return;
+        StringBuilder sb = new StringBuilder(lines.size() * 32);
+        for (String line : lines) sb.append(line).append('\n');
+        ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        while (buf.hasRemaining()) channel.write(buf);
+        if (sync) channel.force(false);
+        entries += lines.size();
+    }
+
+    /**
+     * Передаёт записи журнала (сначала незавершённой компактизации, затем текущего)
+     * в порядке записи. Запись читается {@link CsvUtil#readRecord(BufferedReader)}, так что
+     * поле в кавычках может содержать перевод строки.
+     *
+     * @param apply обработчик строки
+     * @throws IOException если чтение не удалось
+     */
+    public synchronized void replay(Consumer<String> apply) throws IOException {
+        long n = 0;
+        for (Path p : List.of(compacting, path)) {
+            if (!Files.exists(p)) continue;
+            try (BufferedReader br = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = CsvUtil.readRecord(br)) != null) {
+                    if (line.isBlank()) continue;
+                    apply.accept(line);
+                    n++;
+                }
+            }
+        }
+        entries = n;
+    }
+
+    /**
+     * Сбрасывает дописанное на диск ({@code fsync}).
+     *
+     * @throws IOException если сброс не удался
+     */
+    public synchronized void sync() throws IOException {
+        if (channel != null) channel.force(false);
+    }
+
+    /** @return строк в журнале с момента последней компактизации */
+    public synchronized long entries() {
+        return entries;
+    }
+
+    /**
+     * Начинает компактизацию: текущий журнал откладывается, новые строки пишутся в чистый.
+     * Вызывающий должен под тем же замком, что и {@link #append(Collection)}, снять
+     * копию состояния — она покрывает все отложенные строки.
+     *
+     * @return отложенный журнал или {@code null}, если компактизировать нечего
+     * @throws IOException если переименование не удалось
+     */
+    public synchronized Path beginCompaction() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        if (!Files.exists(path)) {
+            return Files.exists(compacting) ? compacting : null;
+        }
+        if (Files.exists(compacting)) {
+            // прошлая компактизация не завершилась — её строки ещё не в снимке, сохраняем их
+            try (FileChannel out = FileChannel.open(compacting, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                 FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                in.transferTo(0, in.size(), out);
+            }
+            Files.delete(path);
+        } else {
+            Files.move(path, compacting, StandardCopyOption.ATOMIC_MOVE);
+        }
+        entries = 0;
+        return compacting;
+    }
+
+    /**
+     * Завершает компактизацию после того, как снимок записан.
+     *
+     * @param rotated результат {@link #beginCompaction()}
+     * @throws IOException если удаление не удалось
+     */
+    public synchronized void endCompaction(Path rotated) throws IOException {
+        if (rotated != null) Files.deleteIfExists(rotated);
+    }
+
+    /**
+     * Атомарно перезаписывает снимок: временный файл и переименование.
+     *
+     * @param snapshot файл-снимок
+     * @param header   строка заголовка ({@code null} — без заголовка)
+     * @param lines    строки снимка
+     * @throws IOException если запись не удалась
+     */
+    public static void writeSnapshot(Path snapshot, String header, Collection<String> lines) throws IOException {
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             BufferedWriter w = new BufferedWriter(
+                     new OutputStreamWriter(Channels.newOutputStream(ch), StandardCharsets.UTF_8), 64 * 1024)) {
+            if (header != null) {
+                w.write(header);
+                w.newLine();
+            }
+            for (String line : lines) {
+                w.write(line);
+                w.newLine();
+            }
+            w.flush();
+            ch.force(false);
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
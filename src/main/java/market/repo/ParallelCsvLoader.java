@@ -0,0 +1,180 @@
+package market.repo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Параллельное чтение большого CSV-файла через отображение в память.
+ * <p>
+ * Файл делится на куски примерно по {@code chunkBytes}; граница куска сдвигается
+ * вперёд до ближайшего перевода строки вне кавычек, так что запись с переводом строки
+ * внутри поля в кавычках не разрывается. Чтобы понять, открыта ли кавычка в точке
+ * разреза, сначала параллельно считается число кавычек в каждом куске, а чётность
+ * в начале куска — префиксная сумма. Байты {@code "} и {@code \n} в UTF-8 не встречаются
+ * внутри многобайтовых символов, поэтому считать можно прямо по байтам.
+ * <p>
+ * Затем куски разбираются параллельно, каждый своим {@link CsvTokenizer} прямо
+ * по отображённым байтам; результат — списки записей в порядке кусков,
+ * то есть в порядке файла. Файл не больше одного куска разбирается в вызывающем потоке.
+ */
+public class ParallelCsvLoader {
+
+    /** Размер куска по умолчанию. */
+    public static final int DEFAULT_CHUNK_BYTES = 16 * 1024 * 1024;
+
+    private final int threads;
+    private final int chunkBytes;
+
+    public ParallelCsvLoader() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param threads    количество потоков разбора
+     * @param chunkBytes примерный размер куска в байтах
+     */
+    public ParallelCsvLoader(int threads, int chunkBytes) {
+        if (threads <= 0 || chunkBytes <= 0) {
+            throw new IllegalArgumentException("threads и chunkBytes должны быть > 0");
+        }
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Читает файл и разбирает каждую запись.
+     * Пустые строки и строки-комментарии ({@code #...}, в том числе заголовок) пропускаются.
+     *
+     * @param file   CSV-файл
+     * @param parser разбор текущей записи токенизатора в объект
+     * @param <T>    тип результата
+     * @return результаты по кускам, в порядке файла
+     * @throws IOException если чтение не удалось
+     */
+    public <T> List<List<T>> load(Path file, Function<CsvTokenizer, T> parser) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size == 0) return List.of();
+            if (size <= chunkBytes) {
+                return List.of(parse(ch, 0, size, parser));
+            }
+
+            int n = (int) ((size + chunkBytes - 1) / chunkBytes);
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, n), daemonThreads());
+            try {
+                // 1) кавычки в каждом «сыром» куске
+                List<Callable<Long>> counts = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    long from = (long) i * chunkBytes;
+                    long to = Math.min(size, from + chunkBytes);
+                    counts.add(() -> countQuotes(ch, from, to));
+                }
+                List<Long> quotes = all(pool.invokeAll(counts));
+
+                // 2) границы кусков — первый перевод строки вне кавычек после точки разреза
+                long[] bounds = new long[n + 1];
+                bounds[n] = size;
+                long quotesBefore = 0;
+                for (int i = 1; i < n; i++) {
+                    quotesBefore += quotes.get(i - 1);
+                    long cut = (long) i * chunkBytes;
+                    bounds[i] = Math.max(bounds[i - 1], recordStart(ch, cut, size, (quotesBefore & 1) == 1));
+                }
+
+                // 3) разбор кусков
+                List<Callable<List<T>>> parts = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    long from = bounds[i];
+                    long to = bounds[i + 1];
+                    parts.add(() -> parse(ch, from, to, parser));
+                }
+                return all(pool.invokeAll(parts));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Чтение " + file + " прервано", e);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Находит начало записи не раньше {@code cut}.
+     *
+     * @param inQuotes открыта ли кавычка в точке {@code cut}
+     * @return позиция после перевода строки вне кавычек или {@code size}
+     */
+    private long recordStart(FileChannel ch, long cut, long size, boolean inQuotes) throws IOException {
+        for (long from = cut; from < size; from += chunkBytes) {
+            long to = Math.min(size, from + chunkBytes);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            for (int i = 0; i < buf.limit(); i++) {
+                byte b = buf.get(i);
+                if (b == '"') inQuotes = !inQuotes;
+                else if (b == '\n' && !inQuotes) return from + i + 1;
+            }
+        }
+        return size;
+    }
+
+    private static long countQuotes(FileChannel ch, long from, long to) throws IOException {
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        long n = 0;
+        for (int i = 0; i < buf.limit(); i++) {
+            if (buf.get(i) == '"') n++;
+        }
+        return n;
+    }
+
+    private static <T> List<T> parse(FileChannel ch, long from, long to, Function<CsvTokenizer, T> parser)
+            throws IOException {
+        List<T> out = new ArrayList<>();
+        if (to <= from) return out;
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        CsvTokenizer tok = new CsvTokenizer().reset(buf);
+        while (tok.nextRecord()) {
+            if (tok.isBlank() || tok.isComment()) continue;
+            out.add(parser.apply(tok));
+        }
+        return out;
+    }
+
+    private static <R> List<R> all(List<Future<R>> futures) throws IOException, InterruptedException {
+        List<R> out = new ArrayList<>(futures.size());
+        for (Future<R> f : futures) {
+            try {
+                out.add(f.get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException io) throw io;
+                if (cause instanceof UncheckedIOException io) throw io.getCause();
+                if (cause instanceof RuntimeException re) throw re;
+                throw new IOException(cause);
+            }
+        }
+        return out;
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "csv-loader-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
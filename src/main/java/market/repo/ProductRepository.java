@@ -1,6 +1,7 @@
 package market.repo;
 
 import market.domain.Product;
+import market.domain.UpsertResult;
 
 import java.io.IOException;
 import java.util.List;
@@ -26,6 +27,43 @@ public interface ProductRepository {
      */
     Product save(Product p);
 
+    /**
+     * Сохраняет набор товаров за одну операцию.
+     * <p>
+     * Товары без идентификатора создаются, остальные — обновляются.
+     * Реализации, работающие с БД, выполняют запись пакетно в одной транзакции:
+     * либо сохраняются все товары, либо ни один.
+     *
+     * @param products товары для сохранения
+     * @return те же товары (в исходном порядке) с актуальными идентификаторами
+     */
+    List<Product> saveAll(List<Product> products);
+
+    /**
+     * Идемпотентно записывает товар: создаёт его, если товара ещё нет,
+     * обновляет, если данные отличаются, и ничего не делает, если данные совпадают.
+     * <p>
+     * Ключ поиска — артикул {@code sku}, если он задан, иначе {@code id}.
+     * Товар без артикула и без идентификатора всегда создаётся.
+     * После вызова в объекте проставлены актуальные {@code id} и {@code version}.
+     *
+     * @param p товар из внешнего источника
+     * @return что произошло с товаром
+     */
+    UpsertResult upsert(Product p);
+
+    /**
+     * Пакетный вариант {@link #upsert(Product)} для синхронизации с поставщиком.
+     * <p>
+     * Неизменившиеся товары не перезаписываются, поэтому повторная загрузка
+     * того же фида практически ничего не стоит. Идентификаторы проставляются
+     * только для вновь созданных товаров без артикула.
+     *
+     * @param products товары из внешнего источника
+     * @return количество реально созданных или изменённых товаров
+     */
+    int upsertAll(List<Product> products);
+
     /**
      * Ищет товар по его идентификатору.
      *
@@ -0,0 +1,191 @@
+package market.repo;
+
+import market.domain.Category;
+import market.domain.Product;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Двоичный снимок каталога ({@code products.bin}) для быстрого старта.
+ * <p>
+ * Формат (big-endian):
+ * <pre>
+ * заголовок: magic "PRDS" (int), версия схемы (int), товаров (int), констант Category (int)
+ * товар:     id (long), цена в копейках (long), ordinal категории (byte), active (byte),
+ *            name, brand, description, sku — строки: длина в байтах (int, -1 = null) + UTF-8
+ * </pre>
+ * Цена хранится целым числом копеек, поэтому округляется до двух знаков.
+ * Чтение и запись идут крупными блоками через {@link ByteBuffer}, без разбора текста.
+ * CSV остаётся форматом обмена; переводит между форматами {@link InMemoryProductRepository}.
+ * <p>
+ * Не предназначен для создания экземпляров — все методы статические.
+ */
+public final class ProductSnapshotCodec {
+
+    /** Версия схемы; при изменении формата увеличивается. */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x50524453; // "PRDS"
+    private static final int HEADER_BYTES = 16;
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final Category[] CATEGORIES = Category.values();
+
+    /** Закрытый конструктор предотвращает создание экземпляров утилитарного класса. */
+    private ProductSnapshotCodec() {}
+
+    /**
+     * Атомарно записывает снимок: временный файл, {@code fsync} и переименование.
+     *
+     * @param file     файл снимка
+     * @param products товары
+     * @throws IOException если запись не удалась
+     */
+    public static void write(Path file, Collection<Product> products) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(products.size()).putInt(CATEGORIES.length);
+            for (Product p : products) {
+                if (buf.remaining() < 18) drain(ch, buf);
+                buf.putLong(p.getId())
+                        .putLong(Math.round(p.getPrice() * 100))
+                        .put((byte) p.getCategory().ordinal())
+                        .put((byte) (p.isActive() ? 1 : 0));
+                putString(ch, buf, p.getName());
+                putString(ch, buf, p.getBrand());
+                putString(ch, buf, p.getDescription());
+                putString(ch, buf, p.getSku());
+            }
+            drain(ch, buf);
+            ch.force(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Читает снимок целиком.
+     *
+     * @param file файл снимка
+     * @return товары в порядке записи
+     * @throws IOException если файл не читается, повреждён или другой версии
+     */
+    public static List<Product> read(Path file) throws IOException {
+        List<Product> out = new ArrayList<>();
+        read(file, out::add);
+        return out;
+    }
+
+    /**
+     * Читает снимок, передавая товары по одному.
+     *
+     * @param file файл снимка
+     * @param sink получатель товаров
+     * @throws IOException если файл не читается, повреждён или другой версии
+     */
+    public static void read(Path file, Consumer<Product> sink) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, READ)) {
+            Reader in = new Reader(ch);
+            in.require(HEADER_BYTES);
+            if (in.buf.getInt() != MAGIC) throw new IOException(file + ": не снимок каталога");
+            int version = in.buf.getInt();
+            if (version != VERSION) throw new IOException(file + ": неподдерживаемая версия снимка " + version);
+            int count = in.buf.getInt();
+            if (in.buf.getInt() != CATEGORIES.length) {
+                throw new IOException(file + ": снимок записан с другим набором категорий");
+            }
+            for (int i = 0; i < count; i++) {
+                in.require(18);
+                long id = in.buf.getLong();
+                double price = in.buf.getLong() / 100.0;
+                int ordinal = in.buf.get();
+                if (ordinal < 0 || ordinal >= CATEGORIES.length) {
+                    throw new IOException(file + ": неизвестная категория " + ordinal);
+                }
+                Category category = CATEGORIES[ordinal];
+                boolean active = in.buf.get() != 0;
+                Product p = new Product(id, in.string(), in.string(), category, price, in.string());
+                p.setActive(active);
+                p.setSku(in.string());
+                sink.accept(p);
+            }
+        }
+    }
+
+    private static void putString(FileChannel ch, ByteBuffer buf, String s) throws IOException {
+        if (s == null) {
+            if (buf.remaining() < 4) drain(ch, buf);
+            buf.putInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (buf.remaining() < 4 + bytes.length) drain(ch, buf);
+        buf.putInt(bytes.length);
+        if (bytes.length <= buf.remaining()) {
+            buf.put(bytes);
+        } else {
+            // строка больше буфера — пишется напрямую
+            drain(ch, buf);
+            ByteBuffer big = ByteBuffer.wrap(bytes);
+            while (big.hasRemaining()) ch.write(big);
+        }
+    }
+
+    private static void drain(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+
+    /** Буферизованное чтение канала с дозагрузкой нужного числа байтов. */
+    private static final class Reader {
+        final FileChannel ch;
+        final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        byte[] scratch = new byte[256];
+
+        Reader(FileChannel ch) {
+            this.ch = ch;
+            buf.flip();
+        }
+
+        /** Гарантирует, что в буфере есть {@code n} байтов (n не больше буфера). */
+        void require(int n) throws IOException {
+            if (buf.remaining() >= n) return;
+            buf.compact();
+            while (buf.position() < n) {
+                if (ch.read(buf) < 0) throw new EOFException("Снимок каталога обрезан");
+            }
+            buf.flip();
+        }
+
+        String string() throws IOException {
+            require(4);
+            int len = buf.getInt();
+            if (len < 0) return null;
+            if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+            int off = 0;
+            while (off < len) {
+                if (!buf.hasRemaining()) require(1);
+                int n = Math.min(len - off, buf.remaining());
+                buf.get(scratch, off, n);
+                off += n;
+            }
+            return new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,562 @@
+package market.repo;
+
+import market.domain.AuditAction;
+import market.domain.AuditCursor;
+import market.domain.AuditEvent;
+import market.domain.AuditPage;
+import market.domain.AuditQuery;
+import market.exception.PersistenceException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Файловый репозиторий аудита: двоичные сегменты только для дозаписи.
+ * <p>
+ * Формат сегмента {@code segment-NNNNNNNN.seg}:
+ * <pre>
+ * заголовок (32 байта): magic "MAUD" | version:int | номер сегмента:long | время создания:long | резерв:long
+ * запись:               длина:int | payload | длина:int
+ * payload:              id:long | ts (мкс UTC):long | username | action | details
+ *                       | productId:long | productName | resultSize:int | latencyMs:long
+ * </pre>
+ * Строка — длина:int + UTF-8; {@code -1} в длине и в числовых полях означает {@code null}.
+ * Сегменты версии 1 (без полей после {@code details}) читаются; новые записи в них
+ * не дописываются — при открытии такого журнала начинается новый сегмент.
+ * Длина в конце записи позволяет читать сегмент и с конца — так отвечает {@link #findRecent(int)}.
+ * <p>
+ * Время событий в журнале не убывает: событие с меньшим временем, чем предыдущее, получает
+ * время предыдущего. Поэтому рядом с сегментом хранится разреженный индекс {@code .idx}
+ * — пары (ts, смещение) примерно через каждые {@value #INDEX_INTERVAL} байт, — и запрос
+ * за интервал времени находит начало двоичным поиском, а не сканированием.
+ * Чтение идёт через отображённые в память ({@code mmap}) сегменты. Активный сегмент
+ * отображается один раз сразу на {@code maxSegmentBytes} (файл на это время дополняется
+ * нулями и обрезается до данных при смене сегмента и закрытии), так что чтение после
+ * дозаписи не создаёт нового отображения.
+ * <p>
+ * Фильтры по пользователю и действию индекса не имеют и проверяются при чтении.
+ */
+public class SegmentedAuditRepository implements AuditRepository, AutoCloseable {
+
+    private static final int MAGIC = 0x4D415544; // "MAUD"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    /** Примерное расстояние между точками разреженного индекса, байт. */
+    static final int INDEX_INTERVAL = 4096;
+    private static final long DEFAULT_SEGMENT_BYTES = 16L * 1024 * 1024;
+
+    private final Path dir;
+    private final long maxSegmentBytes;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Segment> segments = new ArrayList<>();
+
+    private FileChannel out;
+    private FileChannel idxOut;
+    private long nextId = 1;
+    private long lastTs = Long.MIN_VALUE;
+
+    public SegmentedAuditRepository(Path dir) {
+        this(dir, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * @param dir             каталог сегментов (создаётся при необходимости)
+     * @param maxSegmentBytes размер, после которого начинается новый сегмент
+     */
+    public SegmentedAuditRepository(Path dir, long maxSegmentBytes) {
+        if (maxSegmentBytes <= HEADER_SIZE || maxSegmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Недопустимый размер сегмента: " + maxSegmentBytes);
+        }
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        try {
+            Files.createDirectories(dir);
+            open();
+        } catch (IOException e) {
+            throw new PersistenceException("Не удалось открыть журнал аудита " + dir + ": " + e.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------ запись
+
+    @Override
+    public void save(AuditEvent event) {
+        saveAll(List.of(event));
+    }
+
+    @Override
+    public void saveAll(List<AuditEvent> events) {
+        lock.writeLock().lock();
+        try {
+            if (out == null) {
+                throw new PersistenceException("Журнал аудита " + dir + " закрыт");
+            }
+            for (AuditEvent e : events) {
+                append(e);
+            }
+        } catch (IOException ex) {
+            throw new PersistenceException("Не удалось записать событие аудита: " + ex.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void append(AuditEvent e) throws IOException {
+        if (e.getTimestamp() == null) e.setTimestamp(LocalDateTime.now());
+        long ts = Math.max(toMicros(e.getTimestamp()), lastTs);
+        e.setTimestamp(fromMicros(ts));
+        e.setId(nextId);
+
+        byte[] user = utf8(e.getUsername());
+        byte[] action = utf8(e.getAction().name());
+        byte[] details = utf8(e.getDetails());
+        byte[] productName = utf8(e.getProductName());
+        int payload = 16 + str(user) + str(action) + str(details) + 8 + str(productName) + 4 + 8;
+        ByteBuffer buf = ByteBuffer.allocate(payload + 8);
+        buf.putInt(payload).putLong(nextId).putLong(ts);
+        putStr(buf, user);
+        putStr(buf, action);
+        putStr(buf, details);
+        buf.putLong(e.getProductId() != null ? e.getProductId() : -1);
+        putStr(buf, productName);
+        buf.putInt(e.getResultSize() != null ? e.getResultSize() : -1);
+        buf.putLong(e.getLatencyMs() != null ? e.getLatencyMs() : -1);
+        buf.putInt(payload).flip();
+
+        Segment active = active();
+        if (active.size > HEADER_SIZE && active.size + buf.remaining() > maxSegmentBytes) {
+            active = roll();
+        }
+        long offset = active.size;
+        while (buf.hasRemaining()) out.write(buf);
+        active.size = out.position();
+        active.lastTs = ts;
+        if (active.firstTs == Long.MIN_VALUE) active.firstTs = ts;
+        if (active.indexCount == 0 || offset - active.indexOffsets[active.indexCount - 1] >= INDEX_INTERVAL) {
+            active.addIndex(ts, offset);
+            ByteBuffer entry = ByteBuffer.allocate(16).putLong(ts).putLong(offset).flip();
+            while (entry.hasRemaining()) idxOut.write(entry);
+        }
+        nextId++;
+        lastTs = ts;
+    }
+
+    // ------------------------------------------------------------------ чтение
+
+    @Override
+    public List<AuditEvent> findAll() {
+        return scanBackward(Long.MAX_VALUE, Long.MIN_VALUE, e -> true, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<AuditEvent> findByUsername(String username) {
+        return scanBackward(Long.MAX_VALUE, Long.MIN_VALUE, e -> username.equals(e.getUsername()), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<AuditEvent> findByProduct(long productId) {
+        Long id = productId;
+        return scanBackward(Long.MAX_VALUE, Long.MIN_VALUE, e -> id.equals(e.getProductId()), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<AuditEvent> findRecent(int limit) {
+        return scanBackward(Long.MAX_VALUE, Long.MIN_VALUE, e -> true, limit);
+    }
+
+    @Override
+    public List<AuditEvent> findBetween(LocalDateTime from, LocalDateTime to) {
+        long lo = toMicros(from);
+        long hi = toMicros(to);
+        List<AuditEvent> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Segment s : segments) {
+                if (s.firstTs == Long.MIN_VALUE || s.lastTs < lo || s.firstTs >= hi) continue;
+                ByteBuffer map = s.map();
+                int pos = (int) s.seekBefore(lo);
+                while (pos < s.size) {
+                    long ts = map.getLong(pos + 12);
+                    if (ts >= hi) break;
+                    if (ts >= lo) result.add(read(map, pos, s.version));
+                    pos += 8 + map.getInt(pos);
+                }
+            }
+        } catch (IOException e) {
+            throw new PersistenceException("Не удалось прочитать журнал аудита: " + e.getMessage());
+        } finally {
+            lock.readLock().unlock();
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    @Override
+    public AuditPage findPage(AuditQuery query, AuditCursor after, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть > 0");
+        }
+        long hi = query.to() != null ? toMicros(query.to()) - 1 : Long.MAX_VALUE;
+        if (after != null) hi = Math.min(hi, toMicros(after.ts()));
+        long lo = query.from() != null ? toMicros(query.from()) : Long.MIN_VALUE;
+
+        Predicate<AuditEvent> filter = e -> true;
+        if (query.username() != null) filter = filter.and(e -> query.username().equals(e.getUsername()));
+        if (query.action() != null) filter = filter.and(e -> e.getAction() == query.action());
+        if (after != null) {
+            long cursorTs = toMicros(after.ts());
+            filter = filter.and(e -> toMicros(e.getTimestamp()) < cursorTs || e.getId() < after.id());
+        }
+
+        List<AuditEvent> items = scanBackward(hi, lo, filter, limit + 1);
+        AuditCursor next = null;
+        if (items.size() > limit) {
+            items.remove(limit);
+            next = AuditCursor.after(items.get(limit - 1));
+        }
+        return new AuditPage(items, next);
+    }
+
+    /**
+     * Читает события от новых к старым с временем в {@code [lo, hi]}.
+     * Начальная точка в каждом сегменте находится по индексу.
+     */
+    private List<AuditEvent> scanBackward(long hi, long lo, Predicate<AuditEvent> filter, int limit) {
+        List<AuditEvent> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int i = segments.size() - 1; i >= 0 && result.size() < limit; i--) {
+                Segment s = segments.get(i);
+                if (s.firstTs == Long.MIN_VALUE || s.firstTs > hi) continue;
+                if (s.lastTs < lo) break;
+                ByteBuffer map = s.map();
+                int end = (int) s.seekAfter(hi);
+                while (end > HEADER_SIZE && result.size() < limit) {
+                    int start = end - 8 - map.getInt(end - 4);
+                    long ts = map.getLong(start + 12);
+                    if (ts < lo) return result;
+                    if (ts <= hi) {
+                        AuditEvent e = read(map, start, s.version);
+                        if (filter.test(e)) result.add(e);
+                    }
+                    end = start;
+                }
+            }
+        } catch (IOException e) {
+            throw new PersistenceException("Не удалось прочитать журнал аудита: " + e.getMessage());
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (out != null) {
+                out.truncate(active().size);
+                out.force(false);
+                out.close();
+                idxOut.close();
+                out = null;
+            }
+        } catch (IOException e) {
+            System.err.println("Audit close failed: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ------------------------------------------------------------------ сегменты
+
+    /** Открывает существующие сегменты и восстанавливает хвост последнего. */
+    private void open() throws IOException {
+        List<Path> files;
+        try (var stream = Files.list(dir)) {
+            files = stream.filter(p -> p.getFileName().toString().matches("segment-\\d{8}\\.seg"))
+                    .sorted()
+                    .toList();
+        }
+        for (Path p : files) {
+            segments.add(Segment.load(p));
+        }
+        if (segments.isEmpty()) {
+            roll();
+            return;
+        }
+        long maxId = 0;
+        for (Segment s : segments) {
+            s.recoverTail();
+            if (s.lastTs != Long.MIN_VALUE) lastTs = Math.max(lastTs, s.lastTs);
+            // последний сегмент может быть пустым (сбой сразу после roll()), поэтому максимум по всем
+            maxId = Math.max(maxId, s.lastId);
+        }
+        Segment last = segments.get(segments.size() - 1);
+        if (maxId > 0) nextId = maxId + 1;
+        if (last.version != VERSION) {
+            // в сегмент старого формата не дописываем — записи разных версий не смешиваются
+            roll();
+            return;
+        }
+        out = FileChannel.open(last.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        out.truncate(last.size).position(last.size);
+        last.mapActive(out, maxSegmentBytes);
+        // индекс активного сегмента переписываем целиком: восстановление могло его дополнить
+        idxOut = FileChannel.open(last.indexPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer idx = ByteBuffer.allocate(16 * last.indexCount);
+        for (int i = 0; i < last.indexCount; i++) {
+            idx.putLong(last.indexTs[i]).putLong(last.indexOffsets[i]);
+        }
+        idx.flip();
+        while (idx.hasRemaining()) idxOut.write(idx);
+    }
+
+    private Segment active() {
+        return segments.get(segments.size() - 1);
+    }
+
+    /** Закрывает текущий сегмент и начинает новый. */
+    private Segment roll() throws IOException {
+        if (out != null) {
+            // отрезаем нули, которыми файл дополнен под отображение
+            out.truncate(active().size);
+            out.force(false);
+            out.close();
+            idxOut.close();
+        }
+        long number = segments.isEmpty() ? 1 : active().number + 1;
+        Path path = dir.resolve("segment-%08d.seg".formatted(number));
+        out = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC).putInt(VERSION).putLong(number).putLong(System.currentTimeMillis()).putLong(0)
+                .flip();
+        while (header.hasRemaining()) out.write(header);
+        Segment s = new Segment(path, number, VERSION);
+        s.size = HEADER_SIZE;
+        s.mapActive(out, maxSegmentBytes);
+        idxOut = FileChannel.open(s.indexPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        segments.add(s);
+        return s;
+    }
+
+    /** Сегмент журнала с разреженным индексом в памяти. */
+    private static final class Segment {
+        final Path path;
+        final long number;
+        final int version;
+        long size;
+        long firstTs = Long.MIN_VALUE;
+        long lastTs = Long.MIN_VALUE;
+        long lastId;
+        long[] indexTs = new long[16];
+        long[] indexOffsets = new long[16];
+        int indexCount;
+        /** Отображение сегмента; у активного — с запасом до максимального размера. */
+        private MappedByteBuffer mapped;
+        private long mappedSize;
+
+        Segment(Path path, long number, int version) {
+            this.path = path;
+            this.number = number;
+            this.version = version;
+        }
+
+        Path indexPath() {
+            String name = path.getFileName().toString();
+            return path.resolveSibling(name.substring(0, name.length() - 4) + ".idx");
+        }
+
+        static Segment load(Path path) throws IOException {
+            Segment s;
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (header.hasRemaining() && ch.read(header) >= 0) { }
+                header.flip();
+                if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                    throw new IOException("Повреждён заголовок сегмента " + path);
+                }
+                int version = header.getInt();
+                if (version < 1 || version > VERSION) {
+                    throw new IOException("Неподдерживаемая версия сегмента " + version + ": " + path);
+                }
+                s = new Segment(path, header.getLong(), version);
+                s.size = ch.size();
+            }
+            Path idx = s.indexPath();
+            if (Files.exists(idx)) {
+                ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(idx));
+                while (buf.remaining() >= 16) {
+                    long ts = buf.getLong();
+                    long off = buf.getLong();
+                    if (off >= s.size) break;
+                    s.addIndex(ts, off);
+                }
+            }
+            if (s.indexCount > 0) {
+                s.firstTs = s.indexTs[0];
+            }
+            return s;
+        }
+
+        /**
+         * Проверяет записи после последней точки индекса и отрезает недописанный хвост
+         * (например, после аварийного завершения). Заодно дополняет индекс.
+         */
+        void recoverTail() throws IOException {
+            long pos = indexCount > 0 ? indexOffsets[indexCount - 1] : HEADER_SIZE;
+            long fileSize = Files.size(path);
+            ByteBuffer map;
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                map = ch.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            }
+            long lastIndexed = indexCount > 0 ? indexOffsets[indexCount - 1] : -INDEX_INTERVAL;
+            while (pos + 8 <= fileSize) {
+                int len = map.getInt((int) pos);
+                if (len < 28 || pos + 8 + len > fileSize || map.getInt((int) (pos + 4 + len)) != len) break;
+                long ts = map.getLong((int) pos + 12);
+                if (firstTs == Long.MIN_VALUE) firstTs = ts;
+                if (pos - lastIndexed >= INDEX_INTERVAL) {
+                    addIndex(ts, pos);
+                    lastIndexed = pos;
+                }
+                lastTs = ts;
+                lastId = map.getLong((int) pos + 4);
+                pos += 8 + len;
+            }
+            size = pos;
+            mapped = null;
+        }
+
+        void addIndex(long ts, long offset) {
+            if (indexCount == indexTs.length) {
+                indexTs = Arrays.copyOf(indexTs, indexCount * 2);
+                indexOffsets = Arrays.copyOf(indexOffsets, indexCount * 2);
+            }
+            indexTs[indexCount] = ts;
+            indexOffsets[indexCount] = offset;
+            indexCount++;
+        }
+
+        /** @return смещение точки индекса, после которой могут начинаться записи с ts >= lo */
+        long seekBefore(long lo) {
+            int i = lastIndexBelow(lo);
+            return i < 0 ? HEADER_SIZE : indexOffsets[i];
+        }
+
+        /** @return смещение, до которого лежат все записи с ts <= hi (граница записи) */
+        long seekAfter(long hi) {
+            int lo = 0;
+            int high = indexCount - 1;
+            int first = indexCount; // первая точка индекса с ts > hi
+            while (lo <= high) {
+                int mid = (lo + high) >>> 1;
+                if (indexTs[mid] > hi) { first = mid; high = mid - 1; } else lo = mid + 1;
+            }
+            return first == indexCount ? size : indexOffsets[first];
+        }
+
+        private int lastIndexBelow(long ts) {
+            int lo = 0;
+            int hi = indexCount - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (indexTs[mid] < ts) { found = mid; lo = mid + 1; } else hi = mid - 1;
+            }
+            return found;
+        }
+
+        /**
+         * Отображает активный сегмент сразу на {@code capacity} байт. Канал открыт на запись,
+         * поэтому файл дополняется до этого размера нулями; читаются только первые {@code size}.
+         */
+        synchronized void mapActive(FileChannel ch, long capacity) throws IOException {
+            mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.max(capacity, size));
+            mappedSize = mapped.capacity();
+        }
+
+        synchronized ByteBuffer map() throws IOException {
+            // заново — только если записи вышли за отображение (запись крупнее сегмента)
+            if (mapped == null || mappedSize < size) {
+                try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                    mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    mappedSize = size;
+                }
+            }
+            return mapped.duplicate();
+        }
+    }
+
+    // ------------------------------------------------------------------ кодирование
+
+    private static AuditEvent read(ByteBuffer map, int pos, int version) {
+        ByteBuffer b = map.duplicate().position(pos + 4);
+        AuditEvent e = new AuditEvent();
+        e.setId(b.getLong());
+        e.setTimestamp(fromMicros(b.getLong()));
+        e.setUsername(getStr(b));
+        e.setAction(AuditAction.valueOf(getStr(b)));
+        e.setDetails(getStr(b));
+        if (version >= 2) {
+            long productId = b.getLong();
+            e.setProductId(productId < 0 ? null : productId);
+            e.setProductName(getStr(b));
+            int resultSize = b.getInt();
+            e.setResultSize(resultSize < 0 ? null : resultSize);
+            long latency = b.getLong();
+            e.setLatencyMs(latency < 0 ? null : latency);
+        }
+        return e;
+    }
+
+    private static byte[] utf8(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int str(byte[] b) {
+        return 4 + (b == null ? 0 : b.length);
+    }
+
+    private static void putStr(ByteBuffer buf, byte[] b) {
+        if (b == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(b.length).put(b);
+        }
+    }
+
+    private static String getStr(ByteBuffer b) {
+        int len = b.getInt();
+        if (len < 0) return null;
+        byte[] bytes = new byte[len];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static long toMicros(LocalDateTime t) {
+        return t.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + t.getNano() / 1_000;
+    }
+
+    static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+    }
+}
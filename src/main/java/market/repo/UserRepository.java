@@ -3,6 +3,7 @@ package market.repo;
 import market.domain.User;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -33,6 +34,23 @@ public interface UserRepository {
      */
     void saveUser(User user);
 
+    /**
+     * Создаёт пользователя, если имя ещё свободно, — одной атомарной операцией,
+     * без отдельной проверки {@link #exists(String)}.
+     *
+     * @param user новый пользователь; при успехе ему проставляется идентификатор
+     * @return {@code true}, если пользователь создан; {@code false}, если имя уже занято
+     */
+    boolean register(User user);
+
+    /**
+     * Массово создаёт пользователей; занятые имена пропускаются.
+     *
+     * @param users новые пользователи; созданным проставляются идентификаторы
+     * @return количество созданных пользователей
+     */
+    int registerAll(List<User> users);
+
     /**
      * Проверяет существование пользователя с указанным именем.
      *
@@ -41,6 +59,14 @@ public interface UserRepository {
      */
     boolean exists(String username);
 
+    /**
+     * Возвращает имена всех зарегистрированных пользователей
+     * (например, чтобы заполнить фильтр Блума в сервисе).
+     *
+     * @return список имён пользователей
+     */
+    List<String> findAllUsernames();
+
     /**
      * Загружает данные пользователей из внешнего источника (например, CSV-файла).
      *
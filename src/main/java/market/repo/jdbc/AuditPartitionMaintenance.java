@@ -0,0 +1,110 @@
+package market.repo.jdbc;
+
+import market.exception.PersistenceException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Обслуживание месячных секций {@code market.audit_log}.
+ * <p>
+ * Раз в сутки (и сразу при запуске) создаёт секции на {@code monthsAhead} месяцев вперёд
+ * и удаляет секции старше {@code retentionMonths} месяцев. Удаление секции — это
+ * {@code DROP TABLE}, не зависящий от количества строк, в отличие от {@code DELETE}.
+ * Сама логика живёт в функциях БД {@code ensure_audit_partitions} и
+ * {@code drop_audit_partitions_before}, поэтому её можно запускать и из {@code pg_cron}.
+ */
+public class AuditPartitionMaintenance implements AutoCloseable {
+
+    private final DataSource ds;
+    private final int monthsAhead;
+    private final int retentionMonths;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "audit-partitions");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param ds              источник соединений
+     * @param monthsAhead     на сколько месяцев вперёд создавать секции
+     * @param retentionMonths сколько полных месяцев хранить ({@code <= 0} — хранить всё)
+     */
+    public AuditPartitionMaintenance(DataSource ds, int monthsAhead, int retentionMonths) {
+        this.ds = ds;
+        this.monthsAhead = monthsAhead;
+        this.retentionMonths = retentionMonths;
+    }
+
+    /**
+     * Запускает обслуживание: первый проход сразу, далее раз в сутки.
+     */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::runQuietly, 0, 1, TimeUnit.DAYS);
+    }
+
+    /**
+     * Создаёт недостающие секции от текущего месяца на {@code monthsAhead} вперёд.
+     *
+     * @return количество созданных секций
+     */
+    public int ensurePartitions() {
+        LocalDate today = LocalDate.now();
+        return call("SELECT market.ensure_audit_partitions(?, ?)",
+                "Не удалось создать секции аудита",
+                Date.valueOf(today), Date.valueOf(today.plusMonths(monthsAhead)));
+    }
+
+    /**
+     * Удаляет секции, целиком лежащие раньше начала месяца {@code now - retentionMonths}.
+     *
+     * @return количество удалённых секций
+     */
+    public int dropExpired() {
+        if (retentionMonths <= 0) return 0;
+        LocalDate before = LocalDate.now().minusMonths(retentionMonths).withDayOfMonth(1);
+        return call("SELECT market.drop_audit_partitions_before(?)",
+                "Не удалось удалить устаревшие секции аудита",
+                Date.valueOf(before));
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void runQuietly() {
+        try {
+            ensurePartitions();
+            dropExpired();
+        } catch (PersistenceException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private int call(String sql, String action, Date... args) {
+        try (Connection cn = ds.getConnection();
+             PreparedStatement ps = cn.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++) {
+                ps.setDate(i + 1, args[i]);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            throw wrap(action, e);
+        }
+    }
+
+    private PersistenceException wrap(String action, SQLException e) {
+        return new PersistenceException(action + ". Причина: " + e.getMessage());
+    }
+}
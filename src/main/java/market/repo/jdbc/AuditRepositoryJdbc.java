@@ -1,12 +1,16 @@
 package market.repo.jdbc;
 
 import market.domain.AuditAction;
+import market.domain.AuditCursor;
 import market.domain.AuditEvent;
+import market.domain.AuditPage;
+import market.domain.AuditQuery;
 import market.exception.PersistenceException;
 import market.repo.AuditRepository;
 
 import javax.sql.DataSource;
 import java.sql.*;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
@@ -15,9 +19,22 @@ import java.util.List;
  * JDBC-реализация репозитория аудита.
  * <p>
  * Хранит данные в PostgreSQL в таблице {@code market.audit_log}.
+ * <p>
+ * Таблица секционирована по месяцам по столбцу {@code ts} (см. {@code 07-audit-partitioning.yaml}),
+ * поэтому запросы по времени всегда содержат условие на {@code ts}: так планировщик
+ * читает только нужные секции. Созданием и удалением секций занимается
+ * {@link AuditPartitionMaintenance}.
+ * <p>
+ * Для {@link #findPage(AuditQuery, AuditCursor, int)} предназначены индексы
+ * {@code ix_audit_log_user_ts (username, ts DESC, id DESC)} — выборка по пользователю
+ * остаётся диапазонным сканированием индекса — и BRIN по {@code ts} для широких интервалов.
+ * {@link #findByProduct(long)} читает частичный индекс {@code ix_audit_log_product_ts}.
  */
 public class AuditRepositoryJdbc implements AuditRepository {
 
+    /** Строк в одном многострочном INSERT (8 параметров на строку, лимит протокола — 32767). */
+    private static final int ROWS_PER_INSERT = 1000;
+
     private final DataSource ds;
 
     public AuditRepositoryJdbc(DataSource ds) {
@@ -28,8 +45,9 @@ public class AuditRepositoryJdbc implements AuditRepository {
     public void save(AuditEvent event) {
         String sql = """
             
-                INSERT INTO market.audit_log (username, action, details, ts)
-            VALUES (?, ?, ?, ?)
+                INSERT INTO market.audit_log
+                (username, action, details, ts, product_id, product_name, result_size, latency_ms)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
             """;
 
         LocalDateTime ts = event.getTimestamp() != null
@@ -43,6 +61,7 @@ public class AuditRepositoryJdbc implements AuditRepository {
             ps.setString(2, event.getAction().name());
             ps.setString(3, event.getDetails());
             ps.setTimestamp(4, Timestamp.valueOf(ts));
+            bindPayload(ps, 5, event);
 
             ps.executeUpdate();
 
@@ -59,11 +78,61 @@ public class AuditRepositoryJdbc implements AuditRepository {
         }
     }
 
+    @Override
+    public void saveAll(List<AuditEvent> events) {
+        if (events.isEmpty()) return;
+        LocalDateTime now = LocalDateTime.now();
+        for (AuditEvent e : events) {
+            if (e.getTimestamp() == null) e.setTimestamp(now);
+        }
+
+        try (Connection cn = ds.getConnection()) {
+            int from = 0;
+            while (from < events.size()) {
+                int to = Math.min(from + ROWS_PER_INSERT, events.size());
+                try (PreparedStatement ps = cn.prepareStatement(multiRowInsert(to - from))) {
+                    int i = 1;
+                    for (AuditEvent e : events.subList(from, to)) {
+                        ps.setString(i++, e.getUsername());
+                        ps.setString(i++, e.getAction().name());
+                        ps.setString(i++, e.getDetails());
+                        ps.setTimestamp(i++, Timestamp.valueOf(e.getTimestamp()));
+                        i = bindPayload(ps, i, e);
+                    }
+                    ps.executeUpdate();
+                }
+                from = to;
+            }
+        } catch (SQLException e) {
+            throw wrap("Не удалось сохранить пачку из " + events.size() + " событий аудита", e);
+        }
+    }
+
+    private static String multiRowInsert(int rows) {
+        StringBuilder sb = new StringBuilder(64 + rows * 16)
+                .append("INSERT INTO market.audit_log")
+                .append(" (username, action, details, ts, product_id, product_name, result_size, latency_ms) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("(?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+        return sb.toString();
+    }
+
+    /** Привязывает типизированные поля события, начиная с параметра {@code i}; возвращает следующий индекс. */
+    private static int bindPayload(PreparedStatement ps, int i, AuditEvent e) throws SQLException {
+        ps.setObject(i++, e.getProductId(), Types.BIGINT);
+        ps.setString(i++, e.getProductName());
+        ps.setObject(i++, e.getResultSize(), Types.INTEGER);
+        ps.setObject(i++, e.getLatencyMs(), Types.BIGINT);
+        return i;
+    }
+
     @Override
     public List<AuditEvent> findAll() {
         String sql =
                 """
-            SELECT id, username, action, details, ts
+            SELECT id, username, action, details, ts, product_id, product_name, result_size, latency_ms
             FROM
                 market.audit_log
                             ORDER BY ts DESC, id DESC
@@ -90,7 +159,7 @@ public class AuditRepositoryJdbc implements AuditRepository {
                 """
             SELECT id,
                 username, action,
-                details, ts
+                details, ts, product_id, product_name, result_size, latency_ms
             FROM
                 market.audit_log
             WHERE username = ?
@@ -115,13 +184,21 @@ public class AuditRepositoryJdbc implements AuditRepository {
     }
 
     @Override
-    public List<AuditEvent>
-                findRecent(int limit) {
+    public List<AuditEvent> findRecent(int limit) {
+        // сначала только текущая месячная секция; полный просмотр — если её не хватило
+        LocalDateTime monthStart = LocalDate.now().withDayOfMonth(1).atStartOfDay();
+        List<AuditEvent> result = queryRecent(monthStart, limit);
+        if (result.size() < limit) {
+            result = queryRecent(null, limit);
+        }
+        return result;
+    }
+
+    private List<AuditEvent> queryRecent(LocalDateTime since, int limit) {
         String sql = """
-            
-                SELECT id,
-                username, action, details, ts
+            SELECT id, username, action, details, ts, product_id, product_name, result_size, latency_ms
             FROM market.audit_log
+            WHERE ts >= COALESCE(?, '-infinity'::timestamp)
             ORDER BY ts DESC, id DESC
             LIMIT ?
             """;
@@ -129,7 +206,8 @@ public class AuditRepositoryJdbc implements AuditRepository {
         try (Connection cn = ds.getConnection();
              PreparedStatement ps = cn.prepareStatement(sql)) {
 
-            ps.setInt(1, limit);
+            ps.setTimestamp(1, since != null ? Timestamp.valueOf(since) : null);
+            ps.setInt(2, limit);
 
             try (ResultSet rs = ps.executeQuery()) {
                 List<AuditEvent> result = new ArrayList<>();
@@ -143,6 +221,121 @@ public class AuditRepositoryJdbc implements AuditRepository {
         }
     }
 
+    @Override
+    public List<AuditEvent> findBetween(LocalDateTime from, LocalDateTime to) {
+        // условие по ts позволяет планировщику отсечь лишние месячные секции
+        String sql = """
+            SELECT id, username, action, details, ts, product_id, product_name, result_size, latency_ms
+            FROM market.audit_log
+            WHERE ts >= ? AND ts < ?
+            ORDER BY ts DESC, id DESC
+            """;
+
+        try (Connection cn = ds.getConnection();
+             PreparedStatement ps = cn.prepareStatement(sql)) {
+
+            ps.setTimestamp(1, Timestamp.valueOf(from));
+            ps.setTimestamp(2, Timestamp.valueOf(to));
+
+            try (ResultSet rs = ps.executeQuery()) {
+                List<AuditEvent> result = new ArrayList<>();
+                while (rs.next()) {
+                    result.add(map(rs));
+                }
+                return result;
+            }
+        } catch (SQLException e) {
+            throw wrap("Не удалось прочитать события аудита за " + from + " — " + to, e);
+        }
+    }
+
+    @Override
+    public List<AuditEvent> findByProduct(long productId) {
+        String sql = """
+            SELECT id, username, action, details, ts, product_id, product_name, result_size, latency_ms
+            FROM market.audit_log
+            WHERE product_id = ?
+            ORDER BY ts DESC, id DESC
+            """;
+
+        try (Connection cn = ds.getConnection();
+             PreparedStatement ps = cn.prepareStatement(sql)) {
+
+            ps.setLong(1, productId);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                List<AuditEvent> result = new ArrayList<>();
+                while (rs.next()) {
+                    result.add(map(rs));
+                }
+                return result;
+            }
+        } catch (SQLException e) {
+            throw wrap("Не удалось прочитать события аудита для товара id=" + productId, e);
+        }
+    }
+
+    @Override
+    public AuditPage findPage(AuditQuery query, AuditCursor after, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть > 0");
+        }
+        StringBuilder sql = new StringBuilder("""
+            SELECT id, username, action, details, ts, product_id, product_name, result_size, latency_ms
+            FROM market.audit_log
+            WHERE TRUE
+            """);
+        List<Object> params = new ArrayList<>();
+        if (query.username() != null) {
+            sql.append(" AND username = ?");
+            params.add(query.username());
+        }
+        if (query.action() != null) {
+            sql.append(" AND action = ?");
+            params.add(query.action().name());
+        }
+        if (query.from() != null) {
+            sql.append(" AND ts >= ?");
+            params.add(Timestamp.valueOf(query.from()));
+        }
+        if (query.to() != null) {
+            sql.append(" AND ts < ?");
+            params.add(Timestamp.valueOf(query.to()));
+        }
+        if (after != null) {
+            // сравнение строк совпадает с порядком индекса (ts DESC, id DESC)
+            sql.append(" AND (ts, id) < (?, ?)");
+            params.add(Timestamp.valueOf(after.ts()));
+            params.add(after.id());
+        }
+        // одна лишняя строка показывает, есть ли следующая страница
+        sql.append(" ORDER BY ts DESC, id DESC LIMIT ?");
+        params.add(limit + 1);
+
+        try (Connection cn = ds.getConnection();
+             PreparedStatement ps = cn.prepareStatement(sql.toString())) {
+
+            for (int i = 0; i < params.size(); i++) {
+                ps.setObject(i + 1, params.get(i));
+            }
+
+            try (ResultSet rs = ps.executeQuery()) {
+                List<AuditEvent> items = new ArrayList<>();
+                while (rs.next()) {
+                    items.add(map(rs));
+                }
+                AuditCursor next = null;
+                if (items.size() > limit) {
+                    items.remove(limit);
+                    next = AuditCursor.after(items.get(limit - 1));
+                }
+                return new AuditPage(items, next);
+            }
+        } catch (SQLException e) {
+            throw wrap("Не удалось прочитать страницу журнала аудита", e);
+        }
+    }
+
     private AuditEvent map(ResultSet rs) throws SQLException {
         AuditEvent e = new AuditEvent();
         e.setId(rs.getLong("id"));
@@ -153,6 +346,11 @@ public class AuditRepositoryJdbc implements AuditRepository {
         Timestamp ts = rs.getTimestamp("ts");
         e.setTimestamp(ts != null ? ts.toLocalDateTime() : null);
 
+        e.setProductId(rs.getObject("product_id", Long.class));
+        e.setProductName(rs.getString("product_name"));
+        e.setResultSize(rs.getObject("result_size", Integer.class));
+        e.setLatencyMs(rs.getObject("latency_ms", Long.class));
+
         return e;
     }
 
@@ -0,0 +1,114 @@
+package market.repo.jdbc;
+
+import market.domain.AuditAction;
+import market.domain.AuditRollup;
+import market.exception.PersistenceException;
+import market.repo.AuditRollupRepository;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * JDBC-реализация хранилища агрегатов аудита.
+ * <p>
+ * Приращения складываются в БД через {@code INSERT ... ON CONFLICT DO UPDATE SET cnt = cnt + EXCLUDED.cnt},
+ * поэтому несколько экземпляров приложения могут сбрасывать свои счётчики в одну таблицу.
+ * Укрупнение интервалов (час, день) выполняет {@code date_bin} над поминутными строками.
+ */
+public class AuditRollupRepositoryJdbc implements AuditRollupRepository {
+
+    private static final String INCREMENT_SQL = """
+            INSERT INTO market.audit_rollup AS r (minute, action, username, cnt)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (minute, action, username) DO UPDATE SET cnt = r.cnt + EXCLUDED.cnt
+        """;
+
+    private final DataSource ds;
+
+    public AuditRollupRepositoryJdbc(DataSource ds) {
+        this.ds = ds;
+    }
+
+    @Override
+    public void increment(List<AuditRollup> deltas) {
+        if (deltas.isEmpty()) return;
+        // единый порядок блокировки строк — параллельные сбросы не взаимоблокируются
+        List<AuditRollup> sorted = new ArrayList<>(deltas);
+        sorted.sort(Comparator.comparing(AuditRollup::bucket)
+                .thenComparing(r -> r.action().name())
+                .thenComparing(AuditRollup::username));
+
+        try (Connection cn = ds.getConnection();
+             PreparedStatement ps = cn.prepareStatement(INCREMENT_SQL)) {
+            for (AuditRollup r : sorted) {
+                ps.setTimestamp(1, Timestamp.valueOf(r.bucket()));
+                ps.setString(2, r.action().name());
+                ps.setString(3, r.username());
+                ps.setLong(4, r.count());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } catch (SQLException e) {
+            throw wrap("Не удалось сохранить агрегаты аудита", e);
+        }
+    }
+
+    @Override
+    public List<AuditRollup> aggregate(AuditAction action, String username,
+                                       LocalDateTime from, LocalDateTime to, Duration bucket) {
+        if (bucket.toMinutes() < 1) {
+            throw new IllegalArgumentException("Интервал группировки должен быть не меньше минуты");
+        }
+        StringBuilder sql = new StringBuilder("""
+            SELECT date_bin(?::interval, minute, TIMESTAMP '2000-01-01') AS bucket,
+                   action, username, SUM(cnt) AS cnt
+            FROM market.audit_rollup
+            WHERE minute >= ? AND minute < ?
+            """);
+        if (action != null) sql.append(" AND action = ?");
+        if (AuditRollup.EACH_USER.equals(username)) {
+            sql.append(" AND username <> ''");
+        } else {
+            sql.append(" AND username = ?");
+        }
+        sql.append(" GROUP BY 1, 2, 3 ORDER BY 1, 2, 3");
+
+        try (Connection cn = ds.getConnection();
+             PreparedStatement ps = cn.prepareStatement(sql.toString())) {
+            int i = 1;
+            ps.setString(i++, bucket.toSeconds() + " seconds");
+            ps.setTimestamp(i++, Timestamp.valueOf(from));
+            ps.setTimestamp(i++, Timestamp.valueOf(to));
+            if (action != null) ps.setString(i++, action.name());
+            if (!AuditRollup.EACH_USER.equals(username)) {
+                ps.setString(i, username == null ? AuditRollup.ALL_USERS : username);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                List<AuditRollup> result = new ArrayList<>();
+                while (rs.next()) {
+                    result.add(new AuditRollup(
+                            rs.getTimestamp("bucket").toLocalDateTime(),
+                            AuditAction.valueOf(rs.getString("action")),
+                            rs.getString("username"),
+                            rs.getLong("cnt")));
+                }
+                return result;
+            }
+        } catch (SQLException e) {
+            throw wrap("Не удалось прочитать агрегаты аудита", e);
+        }
+    }
+
+    private PersistenceException wrap(String action, SQLException e) {
+        return new PersistenceException(action + ". Причина: " + e.getMessage());
+    }
+}
@@ -0,0 +1,361 @@
+package market.repo.jdbc;
+
+import market.domain.Category;
+import market.exception.ValidationException;
+import market.domain.ImportReport;
+import market.exception.PersistenceException;
+import market.repo.CsvUtil;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Массовая загрузка и выгрузка товаров PostgreSQL через протокол {@code COPY}.
+ * <p>
+ * <b>Импорт.</b>
+ * Файл в формате {@code products.csv} обрабатывается потоково, без загрузки в память:
+ * <ol>
+ *   <li>отдельный поток читает, разбирает и валидирует записи и пишет
+ *       нормализованные строки в канал (pipe);</li>
+ *   <li>текущий поток передаёт содержимое канала в
+ *       {@code COPY ... FROM STDIN} во временную staging-таблицу через {@link CopyManager};</li>
+ *   <li>одним запросом {@code INSERT ... SELECT ... ON CONFLICT (id) DO UPDATE}
+ *       данные переносятся в {@code market.products}.</li>
+ * </ol>
+ * Всё выполняется в одной транзакции: при любой ошибке каталог не меняется.
+ * Некорректные записи не прерывают импорт — они пропускаются и учитываются в отчёте.
+ * <p>
+ * <b>Экспорт.</b> {@code COPY (SELECT ...) TO STDOUT WITH (FORMAT csv)} пишет данные
+ * сервера прямо в {@link OutputStream}, не создавая объектов {@code Product},
+ * поэтому расход памяти не зависит от размера каталога.
+ */
+public class ProductCopyJdbc {
+
+    /** Сколько сообщений об ошибках разбора сохранять в отчёте. */
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    /** Размер буфера канала между потоком разбора и COPY (в символах). */
+    private static final int PIPE_SIZE = 1 << 16;
+
+    private static final String CREATE_STAGING = """
+            CREATE TEMP TABLE products_import (
+                ord         BIGINT GENERATED ALWAYS AS IDENTITY,
+                id          BIGINT,
+                name        VARCHAR(255) NOT NULL,
+                brand       VARCHAR(100),
+                category    VARCHAR(50)  NOT NULL,
+                price       NUMERIC(12,2) NOT NULL,
+                description TEXT,
+                active      BOOLEAN NOT NULL
+            ) ON COMMIT DROP
+            """;
+
+    private static final String COPY_IN = """
+            COPY products_import (id, name, brand, category, price, description, active)
+            FROM STDIN WITH (FORMAT csv)
+            """;
+
+    /**
+     * Сдвигает последовательность за все id — и уже сохранённые, и явно заданные в файле,
+     * чтобы сгенерированный id не совпал с явным id из того же файла.
+     */
+    private static final String SYNC_SEQUENCE = """
+            SELECT setval('market.seq_product_id',
+                          GREATEST((SELECT COALESCE(MAX(id), 0) FROM market.products),
+                                   (SELECT COALESCE(MAX(id), 0) FROM products_import),
+                                   (SELECT last_value FROM market.seq_product_id)))
+            """;
+
+    /** Записи без id получают значение из последовательности — уже после {@link #SYNC_SEQUENCE}. */
+    private static final String ASSIGN_IDS = """
+            UPDATE products_import SET id = nextval('market.seq_product_id') WHERE id IS NULL
+            """;
+
+    /**
+     * Перенос из staging-таблицы. Если один id встречается в файле несколько раз,
+     * побеждает последняя запись.
+     */
+    private static final String MERGE = """
+            INSERT INTO market.products (id, name, brand, category, price, description, active)
+            SELECT id, name, brand, category, price, description, active
+            FROM (
+                SELECT DISTINCT ON (id) *
+                FROM products_import
+                ORDER BY id, ord DESC
+            ) s
+            ON CONFLICT (id) DO UPDATE
+            SET name = EXCLUDED.name,
+                brand = EXCLUDED.brand,
+                category = EXCLUDED.category,
+                price = EXCLUDED.price,
+                description = EXCLUDED.description,
+                active = EXCLUDED.active,
+                version = market.products.version + 1
+            """;
+
+    /** Заголовок выгрузки — такой же, как у {@code products.csv}, чтобы файл можно было импортировать обратно. */
+    private static final String CSV_HEADER = "#id,name,brand,category,price,description,active\n";
+
+    private final DataSource ds;
+
+    public ProductCopyJdbc(DataSource ds) {
+        this.ds = ds;
+    }
+
+    /**
+     * Выгружает товары в CSV в формате {@code products.csv}, потоково и в постоянной памяти.
+     * <p>
+     * Фильтры совпадают с фильтрами поиска: {@code null} или пустая строка —
+     * фильтр не применяется.
+     *
+     * @param out        поток, куда пишется CSV (не закрывается)
+     * @param q          часть названия или описания (без учёта регистра)
+     * @param brand      часть названия бренда (без учёта регистра)
+     * @param category   категория
+     * @param minPrice   минимальная цена
+     * @param maxPrice   максимальная цена
+     * @param onlyActive если {@code true} — только активные товары
+     * @return количество выгруженных товаров
+     * @throws IOException если не удалось записать в поток
+     */
+    public long exportCsv(OutputStream out,
+                          String q,
+                          String brand,
+                          Category category,
+                          Double minPrice,
+                          Double maxPrice,
+                          Boolean onlyActive) throws IOException {
+        String sql = "COPY (" + exportQuery(q, brand, category, minPrice, maxPrice, onlyActive)
+                + ") TO STDOUT WITH (FORMAT csv)";
+        try (Connection cn = ds.getConnection()) {
+            out.write(CSV_HEADER.getBytes(StandardCharsets.UTF_8));
+            CopyManager copy = cn.unwrap(PGConnection.class).getCopyAPI();
+            return copy.copyOut(sql, out);
+        } catch (SQLException e) {
+            throw wrap("Export products failed: ", e);
+        }
+    }
+
+    /**
+     * Строит SELECT для выгрузки. {@code COPY} не поддерживает параметры запроса,
+     * поэтому значения фильтров подставляются как экранированные литералы.
+     */
+    private static String exportQuery(String q,
+                                      String brand,
+                                      Category category,
+                                      Double min,
+                                      Double max,
+                                      Boolean onlyActive) {
+        // COPY пишет boolean как t/f, а products.csv и импорт ждут true/false
+        StringBuilder sql = new StringBuilder(
+                "SELECT id, name, brand, category, price, description,"
+                        + " CASE WHEN active THEN 'true' ELSE 'false' END AS active"
+                        + " FROM market.products WHERE TRUE");
+        if (q != null && !q.isBlank()) {
+            String like = likeLiteral(q);
+            sql.append(" AND (name ILIKE ").append(like).append(" ESCAPE '\\'")
+               .append(" OR description ILIKE ").append(like).append(" ESCAPE '\\')");
+        }
+        if (brand != null && !brand.isBlank()) {
+            sql.append(" AND brand ILIKE ").append(likeLiteral(brand)).append(" ESCAPE '\\'");
+        }
+        if (category != null) {
+            sql.append(" AND category = ").append(literal(category.name()));
+        }
+        if (min != null) {
+            sql.append(" AND price >= ").append(numeric(min));
+        }
+        if (max != null) {
+            sql.append(" AND price <= ").append(numeric(max));
+        }
+        if (onlyActive != null && onlyActive) {
+            sql.append(" AND active");
+        }
+        return sql.append(" ORDER BY id").toString();
+    }
+
+    /** Литерал шаблона «содержит» для ILIKE: спецсимволы шаблона экранируются. */
+    private static String likeLiteral(String s) {
+        String escaped = s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return literal("%" + escaped + "%");
+    }
+
+    /** Строковый литерал SQL (standard_conforming_strings = on). */
+    private static String literal(String s) {
+        if (s.indexOf('\0') >= 0) {
+            throw new ValidationException("Недопустимый символ в параметре фильтра");
+        }
+        return "'" + s.replace("'", "''") + "'";
+    }
+
+    private static String numeric(Double d) {
+        if (d.isNaN() || d.isInfinite()) {
+            throw new ValidationException("Некорректное значение цены: " + d);
+        }
+        return BigDecimal.valueOf(d).toPlainString();
+    }
+
+    /**
+     * Импортирует товары из CSV-источника в формате {@code products.csv}
+     * ({@code id,name,brand,category,price,description,active}).
+     * <p>
+     * Пустые строки и строки, начинающиеся с {@code #}, пропускаются.
+     * Пустой или нулевой {@code id} означает новый товар.
+     *
+     * @param source CSV-источник; закрывается по завершении импорта
+     * @return отчёт об импорте
+     * @throws PersistenceException если импорт не удался (изменения откатываются)
+     */
+    public ImportReport importCsv(Reader source) {
+        long t0 = System.currentTimeMillis();
+        ExecutorService parser = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "product-import-parser");
+            t.setDaemon(true);
+            return t;
+        });
+        try (Connection cn = ds.getConnection()) {
+            boolean autoCommit = cn.getAutoCommit();
+            cn.setAutoCommit(false);
+            try (PipedReader pipe = new PipedReader(PIPE_SIZE)) {
+                PipedWriter sink = new PipedWriter(pipe);
+                Future<ParseStats> parsed = parser.submit(() -> parse(source, sink));
+
+                try (Statement st = cn.createStatement()) {
+                    st.execute(CREATE_STAGING);
+                }
+                CopyManager copy = cn.unwrap(PGConnection.class).getCopyAPI();
+                try {
+                    copy.copyIn(COPY_IN, pipe);
+                } finally {
+                    // разблокирует поток разбора, если COPY завершился с ошибкой
+                    pipe.close();
+                }
+                ParseStats stats = parsed.get();
+
+                long imported;
+                try (Statement st = cn.createStatement()) {
+                    st.execute(SYNC_SEQUENCE);
+                    st.executeUpdate(ASSIGN_IDS);
+                    imported = st.executeUpdate(MERGE);
+                }
+                cn.commit();
+                return new ImportReport(stats.read, imported, stats.rejected,
+                        System.currentTimeMillis() - t0, stats.errors);
+            } catch (SQLException | IOException | RuntimeException e) {
+                cn.rollback();
+                throw e;
+            } catch (ExecutionException e) {
+                cn.rollback();
+                throw new PersistenceException("Ошибка чтения CSV при импорте: " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                cn.rollback();
+                Thread.currentThread().interrupt();
+                throw new PersistenceException("Импорт прерван");
+            } finally {
+                cn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException | IOException e) {
+            throw wrap("Bulk import failed: ", e);
+        } finally {
+            parser.shutdownNow();
+        }
+    }
+
+    /**
+     * Выполняется в потоке разбора: читает записи, валидирует их и пишет
+     * в канал в формате, который ожидает {@code COPY ... WITH (FORMAT csv)}.
+     */
+    private ParseStats parse(Reader source, Writer sink) throws IOException {
+        ParseStats stats = new ParseStats();
+        try (BufferedReader br = new BufferedReader(source);
+             Writer out = new BufferedWriter(sink, PIPE_SIZE)) {
+            String line;
+            long lineNo = 0;
+            while ((line = CsvUtil.readRecord(br)) != null) {
+                lineNo++;
+                if (line.isBlank() || line.startsWith("#")) continue;
+                stats.read++;
+                try {
+                    out.write(toCopyRow(CsvUtil.parseLine(line)));
+                } catch (IllegalArgumentException e) {
+                    stats.reject("строка " + lineNo + ": " + e.getMessage());
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Проверяет запись и формирует строку для COPY.
+     * Текстовые значения всегда заключаются в кавычки, {@code NULL} — пустое поле без кавычек.
+     */
+    private static String toCopyRow(List<String> f) {
+        if (f.size() < 7) {
+            throw new IllegalArgumentException("ожидается 7 полей, получено " + f.size());
+        }
+        String id = f.get(0);
+        if (!id.isEmpty()) {
+            long v = Long.parseLong(id);
+            if (v < 0) throw new IllegalArgumentException("отрицательный id");
+            id = v == 0 ? "" : Long.toString(v);
+        }
+        String name = f.get(1);
+        if (name.isBlank()) throw new IllegalArgumentException("название товара обязательно");
+        Category category = Category.valueOf(f.get(3));
+        double price = Double.parseDouble(f.get(4));
+        if (price < 0 || Double.isNaN(price) || Double.isInfinite(price)) {
+            throw new IllegalArgumentException("некорректная цена: " + f.get(4));
+        }
+        String active = f.get(6);
+        if (!active.equalsIgnoreCase("true") && !active.equalsIgnoreCase("false")) {
+            throw new IllegalArgumentException("некорректный признак активности: " + active);
+        }
+        return id + ',' + quote(name) + ',' + quote(f.get(2)) + ',' + category.name() + ','
+                + price + ',' + quote(f.get(5)) + ',' + active.toLowerCase() + '\n';
+    }
+
+    /**
+     * Оборачивает исключение в доменное PersistenceException
+     * с более читаемым сообщением.
+     */
+    private PersistenceException wrap(String action, Exception e) {
+        return new PersistenceException(action + ". Причина: " + e.getMessage());
+    }
+
+    private static String quote(String s) {
+        if (s == null || s.isEmpty()) return "";
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    /** Счётчики потока разбора. */
+    private static final class ParseStats {
+        long read;
+        long rejected;
+        final List<String> errors = new ArrayList<>();
+
+        void reject(String message) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) errors.add(message);
+        }
+    }
+}
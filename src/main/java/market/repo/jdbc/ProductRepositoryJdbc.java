@@ -1,7 +1,11 @@
 package market.repo.jdbc;
 
 import market.domain.Product;
+import market.domain.UpsertResult;
+import market.exception.EntityNotFoundException;
+import market.exception.OptimisticLockException;
 import market.exception.PersistenceException;
+import market.repo.IdGenerator;
 import market.repo.ProductRepository;
 
 import javax.sql.DataSource;
@@ -17,12 +21,104 @@ import java.util.Optional;
  * JDBC-реализация репозитория продуктов.
  * <p>
  * Хранит и извлекает сущности {@link Product} из PostgreSQL,
+ * <p>
+ * Массовое сохранение ({@link #saveAll(List)}) выполняется пакетами через
+ * {@code addBatch/executeBatch} в одной транзакции. Для максимальной скорости
+ * вставки пул соединений стоит настроить со свойством драйвера
+ * {@code reWriteBatchedInserts=true}: тогда pgjdbc объединяет пакет
+ * в многострочные {@code INSERT ... VALUES (...), (...)}.
+ * <p>
+ * Обновление использует оптимистическую блокировку по столбцу {@code version}:
+ * запись изменяется, только если её версия совпадает с версией в объекте,
+ * после чего версия увеличивается. Отсутствие товара и конфликт параллельного
+ * изменения определяются по результату того же запроса, без предварительного чтения.
+ * <p>
+ * Синхронизация с поставщиками ({@link #upsert(Product)}, {@link #upsertAll(List)})
+ * опирается на {@code INSERT ... ON CONFLICT ... DO UPDATE ... WHERE <данные изменились>}:
+ * ключом служит артикул {@code sku} (уникальный индекс {@code ux_products_sku}), а при его
+ * отсутствии — {@code id}. Если данные не изменились, строка не перезаписывается вовсе.
+ * <p>
+ * Если передан {@link IdGenerator} (обычно поверх {@link SequenceBlockSource}), идентификаторы
+ * новых товаров назначаются на клиенте блоками из {@code seq_product_id}: вставка не требует
+ * {@code RETURNING}, и пакет {@code INSERT} уходит без чтения сгенерированных ключей.
  */
 public class ProductRepositoryJdbc implements ProductRepository {
+    /** Максимальное количество строк в одном {@code executeBatch}. */
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String INSERT_SQL = """
+            INSERT INTO market.products (name, brand, category, price, description, active, sku)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+        """;
+
+    private static final String INSERT_WITH_ID_SQL = """
+            INSERT INTO market.products (name, brand, category, price, description, active, sku, id)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+        """;
+
+    private static final String UPDATE_SQL = """
+            UPDATE market.products
+            SET name=?, brand=?, category=?, price=?, description=?, active=?, sku=?, version=version+1
+            WHERE id=? AND version=?
+        """;
+
+    /** Обновление при конфликте — только если хотя бы одно поле отличается. */
+    private static final String UPSERT_SET = """
+            SET name = EXCLUDED.name, brand = EXCLUDED.brand, category = EXCLUDED.category,
+                price = EXCLUDED.price, description = EXCLUDED.description, active = EXCLUDED.active,
+                sku = EXCLUDED.sku, version = t.version + 1
+            WHERE (t.name, t.brand, t.category, t.price, t.description, t.active, t.sku)
+                  IS DISTINCT FROM
+                  (EXCLUDED.name, EXCLUDED.brand, EXCLUDED.category, EXCLUDED.price,
+                   EXCLUDED.description, EXCLUDED.active, EXCLUDED.sku)
+        """;
+
+    private static final String UPSERT_BY_SKU_SQL = """
+            INSERT INTO market.products AS t (name, brand, category, price, description, active, sku)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (sku) DO UPDATE
+        """ + UPSERT_SET;
+
+    private static final String UPSERT_BY_ID_SQL = """
+            INSERT INTO market.products AS t (name, brand, category, price, description, active, sku, id)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (id) DO UPDATE
+        """ + UPSERT_SET;
+
+    /** Явно переданные id могли обогнать последовательность — подтягиваем её. */
+    private static final String SYNC_SEQUENCE_SQL = """
+            SELECT setval('market.seq_product_id',
+                          GREATEST(?, (SELECT last_value FROM market.seq_product_id)))
+        """;
+
+    /**
+     * Обновление за один запрос: CTE пытается обновить строку с ожидаемой версией,
+     * а внешний SELECT (видящий снимок до обновления) сообщает, существует ли строка вообще.
+     */
+    private static final String UPDATE_CHECKED_SQL = """
+            WITH upd AS (
+        """ + UPDATE_SQL + """
+                RETURNING version
+            )
+            SELECT (SELECT version FROM upd) AS new_version,
+                   EXISTS (SELECT 1 FROM market.products WHERE id=?) AS found
+        """;
+
     private final DataSource ds;
+    /** Генератор id на клиенте; {@code null} — id назначает БД через DEFAULT/RETURNING. */
+    private final IdGenerator ids;
 
     public ProductRepositoryJdbc(DataSource ds) {
+        this(ds, null);
+    }
+
+    /**
+     * @param ds  источник соединений
+     * @param ids генератор идентификаторов новых товаров ({@code null} — id назначает БД)
+     */
+    public ProductRepositoryJdbc(DataSource ds, IdGenerator ids) {
         this.ds = ds;
+        this.ids = ids;
     }
 
     @Override
@@ -35,21 +131,28 @@ public class ProductRepositoryJdbc implements ProductRepository {
     }
 
     private Product insert(Product p) {
-        String sql = """
-            INSERT INTO market.products (name, brand, category, price, description, active)
-            VALUES (?, ?, ?, ?, ?, ?)
-            RETURNING id
-        """;
+        if (ids != null) {
+            long id = ids.next();
+            try (Connection cn = ds.getConnection();
+                 PreparedStatement ps = cn.prepareStatement(INSERT_WITH_ID_SQL)) {
+                bind(ps, p);
+                ps.setLong(8, id);
+                ps.executeUpdate();
+            } catch (SQLException e) {
+                throw wrap("Insert product failed: ", e);
+            }
+            p.setId(id);
+            p.setVersion(0);
+            return p;
+        }
         try (Connection cn = ds.getConnection();
-             PreparedStatement ps = cn.prepareStatement(sql)) {
-            ps.setString(1, p.getName());
-            ps.setString(2, p.getBrand());
-            ps.setString(3, p.getCategory().name());
-            ps.setBigDecimal(4, java.math.BigDecimal.valueOf(p.getPrice()));
-            ps.setString(5, p.getDescription());
-            ps.setBoolean(6, p.isActive());
+             PreparedStatement ps = cn.prepareStatement(INSERT_SQL + " RETURNING id, version")) {
+            bind(ps, p);
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) p.setId(rs.getLong(1));
+                if (rs.next()) {
+                    p.setId(rs.getLong(1));
+                    p.setVersion(rs.getLong(2));
+                }
             }
             return p;
         } catch (SQLException e) {
@@ -58,31 +161,273 @@ public class ProductRepositoryJdbc implements ProductRepository {
     }
 
     private Product update(Product p) {
-        String sql = """
-            UPDATE market.products
-            SET name=?, brand=?, category=?, price=?, description=?, active=?
-            WHERE id=?
-        """;
         try (Connection cn = ds.getConnection();
-             PreparedStatement ps = cn.prepareStatement(sql)) {
-            ps.setString(1, p.getName());
-            ps.setString(2, p.getBrand());
-            ps.setString(3, p.getCategory().name());
-            ps.setBigDecimal(4, java.math.BigDecimal.valueOf(p.getPrice()));
-            ps.setString(5, p.getDescription());
-            ps.setBoolean(6, p.isActive());
-            ps.setLong(7, p.getId());
-            ps.executeUpdate();
+             PreparedStatement ps = cn.prepareStatement(UPDATE_CHECKED_SQL)) {
+            bind(ps, p);
+            ps.setLong(8, p.getId());
+            ps.setLong(9, p.getVersion());
+            ps.setLong(10, p.getId());
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                long newVersion = rs.getLong("new_version");
+                if (rs.wasNull()) {
+                    if (rs.getBoolean("found")) {
+                        throw new OptimisticLockException(
+                                "Товар id=" + p.getId() + " был изменён другим пользователем");
+                    }
+                    throw new EntityNotFoundException("Товар не найден: id=" + p.getId());
+                }
+                p.setVersion(newVersion);
+            }
             return p;
         } catch (SQLException e) {
             throw wrap("Update product failed: ", e);
         }
     }
 
+    @Override
+    public List<Product> saveAll(List<Product> products) {
+        List<Product> inserts = new ArrayList<>();
+        List<Product> updates = new ArrayList<>();
+        for (Product p : products) {
+            if (p.getId() == null || p.getId() == 0) inserts.add(p);
+            else updates.add(p);
+        }
+        if (inserts.isEmpty() && updates.isEmpty()) return products;
+
+        long[] generated = new long[inserts.size()];
+        try (Connection cn = ds.getConnection()) {
+            boolean autoCommit = cn.getAutoCommit();
+            cn.setAutoCommit(false);
+            try {
+                insertBatch(cn, inserts, generated);
+                updateBatch(cn, updates);
+                cn.commit();
+            } catch (SQLException | RuntimeException e) {
+                cn.rollback();
+                throw e;
+            } finally {
+                cn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw wrap("Batch save products failed: ", e);
+        }
+
+        // идентификаторы и версии меняем только после успешного commit
+        for (int i = 0; i < inserts.size(); i++) {
+            inserts.get(i).setId(generated[i]);
+            inserts.get(i).setVersion(0);
+        }
+        for (Product p : updates) {
+            p.setVersion(p.getVersion() + 1);
+        }
+        return products;
+    }
+
+    private void insertBatch(Connection cn, List<Product> inserts, long[] generated) throws SQLException {
+        if (inserts.isEmpty()) return;
+        if (ids != null) {
+            insertBatchWithIds(cn, inserts, generated);
+            return;
+        }
+        try (PreparedStatement ps = cn.prepareStatement(INSERT_SQL, new String[]{"id"})) {
+            int from = 0;
+            while (from < inserts.size()) {
+                int to = Math.min(from + BATCH_SIZE, inserts.size());
+                for (int i = from; i < to; i++) {
+                    bind(ps, inserts.get(i));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    int i = from;
+                    while (rs.next() && i < to) generated[i++] = rs.getLong(1);
+                    if (i != to) {
+                        throw new PersistenceException("Драйвер вернул не все сгенерированные id товаров");
+                    }
+                }
+                from = to;
+            }
+        }
+    }
+
+    /** Пакетная вставка с id, назначенными на клиенте: сгенерированные ключи не читаются. */
+    private void insertBatchWithIds(Connection cn, List<Product> inserts, long[] generated) throws SQLException {
+        for (int i = 0; i < inserts.size(); i++) {
+            generated[i] = ids.next();
+        }
+        try (PreparedStatement ps = cn.prepareStatement(INSERT_WITH_ID_SQL)) {
+            int from = 0;
+            while (from < inserts.size()) {
+                int to = Math.min(from + BATCH_SIZE, inserts.size());
+                for (int i = from; i < to; i++) {
+                    bind(ps, inserts.get(i));
+                    ps.setLong(8, generated[i]);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                from = to;
+            }
+        }
+    }
+
+    private void updateBatch(Connection cn, List<Product> updates) throws SQLException {
+        if (updates.isEmpty()) return;
+        try (PreparedStatement ps = cn.prepareStatement(UPDATE_SQL)) {
+            int from = 0;
+            while (from < updates.size()) {
+                int to = Math.min(from + BATCH_SIZE, updates.size());
+                for (int i = from; i < to; i++) {
+                    Product p = updates.get(i);
+                    bind(ps, p);
+                    ps.setLong(8, p.getId());
+                    ps.setLong(9, p.getVersion());
+                    ps.addBatch();
+                }
+                int[] counts = ps.executeBatch();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == 0) {
+                        throw new OptimisticLockException(
+                                "Товар id=" + updates.get(from + i).getId() + " не найден или был изменён");
+                    }
+                }
+                from = to;
+            }
+        }
+    }
+
+    private void bind(PreparedStatement ps, Product p) throws SQLException {
+        ps.setString(1, p.getName());
+        ps.setString(2, p.getBrand());
+        ps.setString(3, p.getCategory().name());
+        ps.setBigDecimal(4, java.math.BigDecimal.valueOf(p.getPrice()));
+        ps.setString(5, p.getDescription());
+        ps.setBoolean(6, p.isActive());
+        ps.setString(7, p.getSku());
+    }
+
+    @Override
+    public UpsertResult upsert(Product p) {
+        boolean bySku = p.getSku() != null;
+        boolean byId = !bySku && p.getId() != null && p.getId() != 0;
+        if (!bySku && !byId) {
+            insert(p);
+            return UpsertResult.INSERTED;
+        }
+        // CTE возвращает записанную строку, а если запись пропущена (данные не изменились) —
+        // существующую строку из снимка до upsert; всё за один запрос.
+        String sql = "WITH up AS (" + (bySku ? UPSERT_BY_SKU_SQL : UPSERT_BY_ID_SQL)
+                + " RETURNING id, version, (xmax = 0) AS inserted)"
+                + " SELECT id, version, inserted, TRUE AS written FROM up"
+                + " UNION ALL"
+                + " SELECT id, version, FALSE, FALSE FROM market.products"
+                + " WHERE " + (bySku ? "sku" : "id") + " = ? AND NOT EXISTS (SELECT 1 FROM up)";
+        try (Connection cn = ds.getConnection();
+             PreparedStatement ps = cn.prepareStatement(sql)) {
+            bind(ps, p);
+            if (bySku) {
+                ps.setString(8, p.getSku());
+            } else {
+                ps.setLong(8, p.getId());
+                ps.setLong(9, p.getId());
+            }
+            UpsertResult result = UpsertResult.UNCHANGED;
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    p.setId(rs.getLong("id"));
+                    p.setVersion(rs.getLong("version"));
+                    if (rs.getBoolean("written")) {
+                        result = rs.getBoolean("inserted") ? UpsertResult.INSERTED : UpsertResult.UPDATED;
+                    }
+                }
+            }
+            if (byId && result == UpsertResult.INSERTED) {
+                syncSequence(cn, p.getId());
+            }
+            return result;
+        } catch (SQLException e) {
+            throw wrap("Upsert product failed: ", e);
+        }
+    }
+
+    @Override
+    public int upsertAll(List<Product> products) {
+        List<Product> bySku = new ArrayList<>();
+        List<Product> byId = new ArrayList<>();
+        List<Product> inserts = new ArrayList<>();
+        long maxId = 0;
+        for (Product p : products) {
+            if (p.getSku() != null) bySku.add(p);
+            else if (p.getId() != null && p.getId() != 0) { byId.add(p); maxId = Math.max(maxId, p.getId()); }
+            else inserts.add(p);
+        }
+        if (products.isEmpty()) return 0;
+
+        long[] generated = new long[inserts.size()];
+        int written;
+        try (Connection cn = ds.getConnection()) {
+            boolean autoCommit = cn.getAutoCommit();
+            cn.setAutoCommit(false);
+            try {
+                written = upsertBatch(cn, UPSERT_BY_SKU_SQL, bySku, false)
+                        + upsertBatch(cn, UPSERT_BY_ID_SQL, byId, true);
+                insertBatch(cn, inserts, generated);
+                written += inserts.size();
+                if (!byId.isEmpty()) syncSequence(cn, maxId);
+                cn.commit();
+            } catch (SQLException | RuntimeException e) {
+                cn.rollback();
+                throw e;
+            } finally {
+                cn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw wrap("Batch upsert products failed: ", e);
+        }
+        for (int i = 0; i < inserts.size(); i++) {
+            inserts.get(i).setId(generated[i]);
+        }
+        return written;
+    }
+
+    /**
+     * Выполняет пакет upsert-запросов и возвращает количество реально записанных строк:
+     * {@code RETURNING} отдаёт строку только для вставленных или изменённых товаров.
+     */
+    private int upsertBatch(Connection cn, String sql, List<Product> list, boolean withId) throws SQLException {
+        if (list.isEmpty()) return 0;
+        int written = 0;
+        try (PreparedStatement ps = cn.prepareStatement(sql, new String[]{"id"})) {
+            int from = 0;
+            while (from < list.size()) {
+                int to = Math.min(from + BATCH_SIZE, list.size());
+                for (int i = from; i < to; i++) {
+                    Product p = list.get(i);
+                    bind(ps, p);
+                    if (withId) ps.setLong(8, p.getId());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    while (rs.next()) written++;
+                }
+                from = to;
+            }
+        }
+        return written;
+    }
+
+    private void syncSequence(Connection cn, long id) throws SQLException {
+        try (PreparedStatement ps = cn.prepareStatement(SYNC_SEQUENCE_SQL)) {
+            ps.setLong(1, id);
+            ps.execute();
+        }
+    }
+
     @Override
     public Optional<Product> findById(long id) {
         String sql = """
-            SELECT id,name,brand,category,price,description,active
+            SELECT id,name,brand,category,price,description,active,version,sku
             FROM market.products WHERE id=?
         """;
         try (Connection cn = ds.getConnection();
@@ -112,7 +457,7 @@ public class ProductRepositoryJdbc implements ProductRepository {
     @Override
     public List<Product> findAll() {
         String sql = """
-            SELECT id,name,brand,category,price,description,active
+            SELECT id,name,brand,category,price,description,active,version,sku
             FROM market.products
             ORDER BY id
         """;
@@ -130,6 +475,9 @@ public class ProductRepositoryJdbc implements ProductRepository {
 
     @Override
     public long nextId() {
+        if (ids != null) {
+            return ids.next();
+        }
         throw new PersistenceException(
                 "Генерация ID недоступна: репозиторий использует PostgreSQL sequence через DEFAULT/RETURNING"
         );
@@ -154,6 +502,8 @@ public class ProductRepositoryJdbc implements ProductRepository {
         p.setPrice(rs.getBigDecimal("price").doubleValue());
         p.setDescription(rs.getString("description"));
         p.setActive(rs.getBoolean("active"));
+        p.setVersion(rs.getLong("version"));
+        p.setSku(rs.getString("sku"));
         return p;
     }
 
@@ -0,0 +1,87 @@
+package market.repo.jdbc;
+
+import market.exception.PersistenceException;
+import market.repo.IdGenerator;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Источник блоков идентификаторов на основе последовательности PostgreSQL (pooled-lo).
+ * <p>
+ * Шаг последовательности ({@code INCREMENT BY}) равен размеру блока: значение {@code v},
+ * полученное одним {@code nextval}, резервирует идентификаторы {@code [v, v + increment)}.
+ * Вставки, которые по-прежнему берут id через {@code DEFAULT nextval(...)}, тоже получают
+ * собственный блок и используют из него первое значение, поэтому пересечений нет.
+ * <p>
+ * Шаг читается из {@code pg_sequences} вместе с {@code nextval}, так что размер блока
+ * всегда совпадает с настройкой последовательности в Liquibase.
+ */
+public class SequenceBlockSource implements IdGenerator.BlockSource {
+
+    private static final String RESERVE_SQL = """
+            SELECT nextval(format('%I.%I', s.schemaname, s.sequencename)::regclass), s.increment_by
+            FROM pg_sequences s
+            WHERE s.schemaname = ? AND s.sequencename = ?
+        """;
+
+    private static final String ADVANCE_SQL = """
+            SELECT setval(format('%I.%I', s.schemaname, s.sequencename)::regclass,
+                          GREATEST(?, COALESCE(s.last_value, 0)))
+            FROM pg_sequences s
+            WHERE s.schemaname = ? AND s.sequencename = ?
+        """;
+
+    private final DataSource ds;
+    private final String schema;
+    private final String sequence;
+
+    /**
+     * @param ds       источник соединений
+     * @param schema   схема последовательности (например, {@code market})
+     * @param sequence имя последовательности (например, {@code seq_product_id})
+     */
+    public SequenceBlockSource(DataSource ds, String schema, String sequence) {
+        this.ds = ds;
+        this.schema = schema;
+        this.sequence = sequence;
+    }
+
+    @Override
+    public IdGenerator.IdBlock reserve() {
+        try (Connection cn = ds.getConnection();
+             PreparedStatement ps = cn.prepareStatement(RESERVE_SQL)) {
+            ps.setString(1, schema);
+            ps.setString(2, sequence);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    throw new PersistenceException("Последовательность не найдена: " + schema + "." + sequence);
+                }
+                long from = rs.getLong(1);
+                return new IdGenerator.IdBlock(from, from + rs.getLong(2));
+            }
+        } catch (SQLException e) {
+            throw wrap("Reserve id block failed: ", e);
+        }
+    }
+
+    @Override
+    public void advanceTo(long id) {
+        try (Connection cn = ds.getConnection();
+             PreparedStatement ps = cn.prepareStatement(ADVANCE_SQL)) {
+            ps.setLong(1, id);
+            ps.setString(2, schema);
+            ps.setString(3, sequence);
+            ps.executeQuery().close();
+        } catch (SQLException e) {
+            throw wrap("Advance id sequence failed: ", e);
+        }
+    }
+
+    private PersistenceException wrap(String action, SQLException e) {
+        return new PersistenceException(action + ". Причина: " + e.getMessage());
+    }
+}
@@ -7,6 +7,10 @@ import market.repo.UserRepository;
 
 import javax.sql.DataSource;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -17,6 +21,9 @@ import java.util.Optional;
  */
 public class UserRepositoryJdbc implements UserRepository {
 
+    /** Строк в одном многострочном INSERT при массовой регистрации (3 параметра на строку). */
+    private static final int ROWS_PER_INSERT = 1000;
+
     private final DataSource ds;
 
     public UserRepositoryJdbc(DataSource ds) {
@@ -55,6 +62,91 @@ public class UserRepositoryJdbc implements UserRepository {
         }
     }
 
+    @Override
+    public boolean register(User user) {
+        // уникальный индекс по username решает гонку двух регистраций без exists()
+        String sql = """
+            INSERT INTO market.users (username, password, role)
+            VALUES (?, ?, ?)
+            ON CONFLICT (username) DO NOTHING
+            RETURNING id
+            """;
+        try (Connection cn = ds.getConnection();
+             PreparedStatement ps = cn.prepareStatement(sql)) {
+
+            ps.setString(1, user.getUsername());
+            ps.setString(2, user.getPassword());
+            ps.setString(3, user.getRole().name());
+
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return false;
+                }
+                user.setId(rs.getLong(1));
+                return true;
+            }
+        } catch (SQLException e) {
+            throw wrap("Не удалось зарегистрировать пользователя username=" + user.getUsername(), e);
+        }
+    }
+
+    @Override
+    public int registerAll(List<User> users) {
+        if (users.isEmpty()) return 0;
+        List<User> assigned = new ArrayList<>();
+        // все куски — одна транзакция: либо пачка зарегистрирована целиком, либо ничего
+        try (Connection cn = ds.getConnection()) {
+            boolean autoCommit = cn.getAutoCommit();
+            cn.setAutoCommit(false);
+            try {
+                int from = 0;
+                while (from < users.size()) {
+                    int to = Math.min(from + ROWS_PER_INSERT, users.size());
+                    List<User> chunk = users.subList(from, to);
+                    Map<String, User> byName = new HashMap<>();
+                    try (PreparedStatement ps = cn.prepareStatement(multiRowRegister(chunk.size()))) {
+                        int i = 1;
+                        for (User u : chunk) {
+                            ps.setString(i++, u.getUsername());
+                            ps.setString(i++, u.getPassword());
+                            ps.setString(i++, u.getRole().name());
+                            byName.putIfAbsent(u.getUsername(), u);
+                        }
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) {
+                                User u = byName.get(rs.getString(2));
+                                u.setId(rs.getLong(1));
+                                assigned.add(u);
+                            }
+                        }
+                    }
+                    from = to;
+                }
+                cn.commit();
+            } catch (SQLException | RuntimeException e) {
+                cn.rollback();
+                // строки откатились — выданные им id недействительны
+                for (User u : assigned) u.setId(null);
+                throw e;
+            } finally {
+                cn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw wrap("Не удалось зарегистрировать пачку из " + users.size() + " пользователей", e);
+        }
+        return assigned.size();
+    }
+
+    private static String multiRowRegister(int rows) {
+        StringBuilder sb = new StringBuilder(96 + rows * 11)
+                .append("INSERT INTO market.users (username, password, role) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("(?, ?, ?)");
+        }
+        return sb.append(" ON CONFLICT (username) DO NOTHING RETURNING id, username").toString();
+    }
+
     @Override
     public boolean exists(String username) {
         String sql = "SELECT 1 FROM market.users WHERE username = ?";
@@ -70,6 +162,23 @@ public class UserRepositoryJdbc implements UserRepository {
         }
     }
 
+    @Override
+    public List<String> findAllUsernames() {
+        String sql = "SELECT username FROM market.users";
+        try (Connection cn = ds.getConnection();
+             PreparedStatement ps = cn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+
+            List<String> result = new ArrayList<>();
+            while (rs.next()) {
+                result.add(rs.getString(1));
+            }
+            return result;
+        } catch (SQLException e) {
+            throw wrap("Не удалось прочитать список пользователей", e);
+        }
+    }
+
     /**
      * Для JDBC-репозитория загрузка данных из внешнего источника не требуется,
      * поэтому метод ничего не делает.
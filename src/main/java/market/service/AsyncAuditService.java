@@ -0,0 +1,206 @@
+package market.service;
+
+import market.domain.AuditEvent;
+import market.repo.AuditRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Асинхронная запись аудита пачками.
+ * <p>
+ * {@link #append(AuditEvent)} только кладёт событие в ограниченную очередь и сразу
+ * возвращается. Единственный фоновый поток забирает события через {@code drainTo}
+ * и пишет их многострочным INSERT ({@link AuditRepository#saveAll(List)}).
+ * Пачка уходит, как только набралось {@code maxBatch} событий или с момента первого
+ * события в пачке прошло {@code flushIntervalMs}.
+ * <p>
+ * Поведение при переполнении очереди задаёт {@link OverflowPolicy}. {@link #close()}
+ * дописывает всё, что осталось в очереди; события после закрытия пишутся синхронно.
+ * Проверка {@code closed} и постановка в очередь идут под read-блокировкой, а закрытие
+ * берёт write-блокировку, поэтому событие не может попасть в очередь после её последнего
+ * опустошения.
+ */
+public class AsyncAuditService implements AuditService, AutoCloseable {
+
+    /** Что делать, если очередь аудита заполнена. */
+    public enum OverflowPolicy {
+        /** Ждать свободного места (обратное давление на вызывающего). */
+        BLOCK,
+        /** Отбросить новое событие. */
+        DROP_NEWEST,
+        /** Отбросить самое старое событие в очереди и добавить новое. */
+        DROP_OLDEST
+    }
+
+    private final AuditRepository repo;
+    private final MetricsService metrics;
+    private final BlockingQueue<AuditEvent> queue;
+    private final long flushIntervalNanos;
+    private final int maxBatch;
+    private final OverflowPolicy policy;
+    private final Thread writer;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile boolean closed;
+    /** Постановка в очередь — под read, установка {@link #closed} — под write. */
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+
+    /**
+     * @param repo            репозиторий аудита
+     * @param metrics         сервис метрик
+     * @param capacity        ёмкость очереди событий
+     * @param flushIntervalMs максимальная задержка записи события, мс
+     * @param maxBatch        максимальный размер пачки
+     * @param policy          поведение при переполнении очереди
+     */
+    public AsyncAuditService(AuditRepository repo,
+                             MetricsService metrics,
+                             int capacity,
+                             long flushIntervalMs,
+                             int maxBatch,
+                             OverflowPolicy policy) {
+        if (capacity <= 0 || maxBatch <= 0 || flushIntervalMs < 0) {
+            throw new IllegalArgumentException("Некорректные параметры очереди аудита");
+        }
+        this.repo = repo;
+        this.metrics = metrics;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.maxBatch = maxBatch;
+        this.policy = policy;
+        this.writer = new Thread(this::writeLoop, "audit-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void append(AuditEvent e) {
+        closing.readLock().lock();
+        try {
+            if (!closed) {
+                enqueue(e);
+                return;
+            }
+        } finally {
+            closing.readLock().unlock();
+        }
+        repo.save(e);
+        written.incrementAndGet();
+    }
+
+    /** @return событий, ожидающих записи */
+    public int queued() {
+        return queue.size();
+    }
+
+    /** @return событий, записанных в БД */
+    public long written() {
+        return written.get();
+    }
+
+    /** @return событий, отброшенных из-за переполнения очереди */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /** @return событий, потерянных из-за ошибок записи */
+    public long failed() {
+        return failed.get();
+    }
+
+    /**
+     * Прекращает приём событий в очередь и дожидается записи оставшихся.
+     */
+    @Override
+    public void close() {
+        // ждём постановок в очередь, уже прошедших проверку closed
+        closing.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closing.writeLock().unlock();
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // события, поставленные в очередь после выхода писателя (например, по таймауту join)
+        List<AuditEvent> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        write(rest);
+    }
+
+    private void enqueue(AuditEvent e) {
+        switch (policy) {
+            case BLOCK -> {
+                try {
+                    queue.put(e);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                }
+            }
+            case DROP_NEWEST -> {
+                if (!queue.offer(e)) dropped.incrementAndGet();
+            }
+            case DROP_OLDEST -> {
+                while (!queue.offer(e)) {
+                    if (queue.poll() != null) dropped.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<AuditEvent> batch = new ArrayList<>(maxBatch);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                AuditEvent head = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (head == null) continue;
+                batch.add(head);
+                fill(batch);
+            } catch (InterruptedException e) {
+                // прерывание — сигнал дописать очередь и выйти
+                closed = true;
+                queue.drainTo(batch);
+            }
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /** Добирает пачку до {@code maxBatch}, ожидая не дольше интервала сброса. */
+    private void fill(List<AuditEvent> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (batch.size() < maxBatch) {
+            queue.drainTo(batch, maxBatch - batch.size());
+            long left = deadline - System.nanoTime();
+            if (batch.size() >= maxBatch || left <= 0 || closed) return;
+            AuditEvent next = queue.poll(left, TimeUnit.NANOSECONDS);
+            if (next == null) return;
+            batch.add(next);
+        }
+    }
+
+    private void write(List<AuditEvent> batch) {
+        if (batch.isEmpty()) return;
+        try {
+            repo.saveAll(batch);
+            written.addAndGet(batch.size());
+        } catch (RuntimeException e) {
+            failed.addAndGet(batch.size());
+            System.err.println("Не удалось записать " + batch.size() + " событий аудита: " + e.getMessage());
+        }
+        metrics.setAuditQueue(queue.size(), written.get(), dropped.get(), failed.get());
+    }
+}
@@ -0,0 +1,142 @@
+package market.service;
+
+import market.domain.AuditAction;
+import market.domain.AuditEvent;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Чтение файлового журнала аудита, записанного {@link AuditServiceImpl}.
+ * <p>
+ * Проходит по закрытым сегментам {@code audit.log.1}, {@code audit.log.2}, ... в порядке
+ * номеров — сжатым ({@code .gz}) или ещё нет — и затем по текущему файлу, так что
+ * события возвращаются в порядке записи. Сегменты открываются лениво, по одному;
+ * возвращаемый поток нужно закрывать.
+ */
+public class AuditLogReader {
+
+    private static final Pattern LINE =
+            Pattern.compile("^\\[(.*?)] user=(.*?) action=(\\S+) details=(.*)$");
+
+    private final Path file;
+
+    /**
+     * @param file текущий файл журнала ({@code audit.log}); сегменты ищутся рядом с ним
+     */
+    public AuditLogReader(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return строки журнала от самых старых к самым новым
+     */
+    public Stream<String> lines() {
+        List<Path> all = new ArrayList<>(closedSegments(file));
+        all.add(file);
+        return all.stream().flatMap(AuditLogReader::open);
+    }
+
+    /**
+     * @return события журнала от самых старых к самым новым; нераспознанные строки пропускаются
+     */
+    public Stream<AuditEvent> events() {
+        return lines().map(AuditLogReader::parse).filter(e -> e != null);
+    }
+
+    /**
+     * Разбирает строку журнала в формате {@link AuditEvent#toString()}.
+     *
+     * @param line строка журнала
+     * @return событие или {@code null}, если строка не распознана
+     */
+    public static AuditEvent parse(String line) {
+        Matcher m = LINE.matcher(line);
+        if (!m.matches()) return null;
+        AuditEvent e = new AuditEvent();
+        try {
+            e.setTimestamp("null".equals(m.group(1)) ? null : LocalDateTime.parse(m.group(1)));
+            e.setAction(AuditAction.valueOf(m.group(3)));
+        } catch (RuntimeException ex) {
+            return null;
+        }
+        e.setUsername("null".equals(m.group(2)) ? null : m.group(2));
+        e.setDetails("null".equals(m.group(4)) ? null : m.group(4));
+        return e;
+    }
+
+    /**
+     * Закрытые сегменты журнала, упорядоченные по номеру. Если сегмент уже сжат,
+     * возвращается {@code .gz}; недописанные {@code .gz.tmp} игнорируются.
+     *
+     * @param file текущий файл журнала
+     * @return пути сегментов
+     */
+    static List<Path> closedSegments(Path file) {
+        Path dir = file.toAbsolutePath().getParent();
+        String prefix = file.getFileName() + ".";
+        Map<Long, Path> byNumber = new TreeMap<>();
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                if (!name.startsWith(prefix)) continue;
+                String suffix = name.substring(prefix.length());
+                boolean gz = suffix.endsWith(".gz");
+                String digits = gz ? suffix.substring(0, suffix.length() - 3) : suffix;
+                if (digits.isEmpty() || !digits.chars().allMatch(Character::isDigit)) continue;
+                long n = Long.parseLong(digits);
+                // оба вида сразу бывают только между переименованием .gz и удалением исходного
+                if (gz || !byNumber.containsKey(n)) byNumber.put(n, p);
+            }
+        } catch (NoSuchFileException e) {
+            return List.of();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new ArrayList<>(byNumber.values());
+    }
+
+    private static Stream<String> open(Path segment) {
+        try {
+            InputStream in;
+            try {
+                in = Files.newInputStream(segment);
+            } catch (NoSuchFileException e) {
+                // сегмент сжали, пока мы до него шли
+                Path gz = segment.resolveSibling(segment.getFileName() + ".gz");
+                if (segment.getFileName().toString().endsWith(".gz") || !Files.exists(gz)) return Stream.empty();
+                segment = gz;
+                in = Files.newInputStream(gz);
+            }
+            if (segment.getFileName().toString().endsWith(".gz")) {
+                in = new GZIPInputStream(in, 64 * 1024);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            return reader.lines().onClose(() -> {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package market.service;
+
+import market.domain.AuditAction;
+import market.domain.AuditEvent;
+import market.domain.AuditRollup;
+import market.repo.AuditRollupRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Сервис аудита, поддерживающий поминутные агрегаты по типу действия (и, по желанию, по пользователю).
+ * <p>
+ * Оборачивает другой {@link AuditService}: каждое событие передаётся дальше и заодно
+ * увеличивает счётчик в памяти. Раз в {@code flushIntervalMs} накопленные приращения
+ * одним пакетом прибавляются к таблице {@code market.audit_rollup}, так что вопросы вроде
+ * «входов в минуту» или «поисков в час по пользователям» не требуют GROUP BY по журналу.
+ * <p>
+ * {@link #query} отвечает из таблицы агрегатов и добавляет ещё не сброшенные приращения,
+ * поэтому свежие минуты видны сразу.
+ */
+public class AuditRollupService implements AuditService, AutoCloseable {
+
+    /** Начало отсчёта интервалов — совпадает с origin в {@code date_bin} репозитория. */
+    private static final LocalDateTime ORIGIN = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    private record Key(LocalDateTime minute, AuditAction action, String username) {}
+
+    private final AuditService delegate;
+    private final AuditRollupRepository repo;
+    private final boolean perUser;
+    private final ScheduledExecutorService flusher;
+
+    /** Увеличение счётчиков — под read-блокировкой, подмена окна при сбросе — под write. */
+    private final ReadWriteLock swap = new ReentrantReadWriteLock();
+    private Map<Key, LongAdder> pending = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate        сервис, в который передаются сами события
+     * @param repo            хранилище агрегатов
+     * @param flushIntervalMs период сброса счётчиков в БД, мс
+     * @param perUser         вести ли счётчики по каждому пользователю (помимо общих)
+     */
+    public AuditRollupService(AuditService delegate, AuditRollupRepository repo,
+                              long flushIntervalMs, boolean perUser) {
+        this.delegate = delegate;
+        this.repo = repo;
+        this.perUser = perUser;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "audit-rollup");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void append(AuditEvent e) {
+        delegate.append(e);
+        LocalDateTime ts = e.getTimestamp() != null ? e.getTimestamp() : LocalDateTime.now();
+        LocalDateTime minute = ts.truncatedTo(ChronoUnit.MINUTES);
+        swap.readLock().lock();
+        try {
+            pending.computeIfAbsent(new Key(minute, e.getAction(), AuditRollup.ALL_USERS), k -> new LongAdder())
+                    .increment();
+            if (perUser && e.getUsername() != null) {
+                pending.computeIfAbsent(new Key(minute, e.getAction(), e.getUsername()), k -> new LongAdder())
+                        .increment();
+            }
+        } finally {
+            swap.readLock().unlock();
+        }
+    }
+
+    /**
+     * Возвращает агрегаты за интервал {@code [from, to)}.
+     * <p>
+     * Выполняется под тем же монитором, что и {@link #flush()}: иначе пачка, уже изъятая
+     * из окна, но ещё не записанная в БД, не попала бы ни в таблицу, ни в снимок окна.
+     * {@link #append} монитор не берёт и запросом не блокируется.
+     *
+     * @param action   тип действия ({@code null} — все типы)
+     * @param username пользователь, {@code null} — сумма по всем, {@link AuditRollup#EACH_USER} — по каждому
+     * @param from     начало интервала (включительно)
+     * @param to       конец интервала (не включительно)
+     * @param bucket   интервал группировки (минута, час, ...)
+     * @return агрегаты, упорядоченные по времени, действию и пользователю
+     * @throws IllegalArgumentException если {@code bucket} не равен целому положительному числу минут:
+     *                                  окно в памяти группируется по минутам, и иначе записанные и
+     *                                  незаписанные счётчики попали бы в разные интервалы
+     */
+    public synchronized List<AuditRollup> query(AuditAction action, String username,
+                                                LocalDateTime from, LocalDateTime to, Duration bucket) {
+        if (bucket.toMinutes() < 1 || !bucket.equals(Duration.ofMinutes(bucket.toMinutes()))) {
+            throw new IllegalArgumentException("Интервал группировки должен быть целым числом минут: " + bucket);
+        }
+        Map<Key, Long> merged = new TreeMap<>(Comparator.comparing(Key::minute)
+                .thenComparing(k -> k.action().name())
+                .thenComparing(Key::username));
+        for (AuditRollup r : repo.aggregate(action, username, from, to, bucket)) {
+            merged.merge(new Key(r.bucket(), r.action(), r.username()), r.count(), Long::sum);
+        }
+        for (Map.Entry<Key, LongAdder> en : snapshot().entrySet()) {
+            Key k = en.getKey();
+            if (k.minute().isBefore(from) || !k.minute().isBefore(to)) continue;
+            if (action != null && k.action() != action) continue;
+            if (!matchesUser(k.username(), username)) continue;
+            merged.merge(new Key(bucketStart(k.minute(), bucket), k.action(), k.username()),
+                    en.getValue().sum(), Long::sum);
+        }
+        List<AuditRollup> result = new ArrayList<>(merged.size());
+        merged.forEach((k, n) -> result.add(new AuditRollup(k.minute(), k.action(), k.username(), n)));
+        return result;
+    }
+
+    /**
+     * Синхронно сбрасывает накопленные приращения в БД. При ошибке приращения
+     * возвращаются в окно и будут записаны следующим сбросом.
+     */
+    public synchronized void flush() {
+        Map<Key, LongAdder> batch;
+        swap.writeLock().lock();
+        try {
+            if (pending.isEmpty()) return;
+            batch = pending;
+            pending = new ConcurrentHashMap<>();
+        } finally {
+            swap.writeLock().unlock();
+        }
+        List<AuditRollup> deltas = new ArrayList<>(batch.size());
+        batch.forEach((k, n) -> deltas.add(new AuditRollup(k.minute(), k.action(), k.username(), n.sum())));
+        try {
+            repo.increment(deltas);
+        } catch (RuntimeException ex) {
+            swap.readLock().lock();
+            try {
+                batch.forEach((k, n) -> pending.computeIfAbsent(k, x -> new LongAdder()).add(n.sum()));
+            } finally {
+                swap.readLock().unlock();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Останавливает фоновый сброс и записывает оставшиеся счётчики.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
+
+    private Map<Key, LongAdder> snapshot() {
+        swap.readLock().lock();
+        try {
+            return Map.copyOf(pending);
+        } finally {
+            swap.readLock().unlock();
+        }
+    }
+
+    private static boolean matchesUser(String keyUser, String requested) {
+        if (requested == null) return AuditRollup.ALL_USERS.equals(keyUser);
+        if (AuditRollup.EACH_USER.equals(requested)) return !AuditRollup.ALL_USERS.equals(keyUser);
+        return requested.equals(keyUser);
+    }
+
+    /** Начало интервала группировки — так же, как {@code date_bin(bucket, minute, ORIGIN)}. */
+    private static LocalDateTime bucketStart(LocalDateTime minute, Duration bucket) {
+        long step = bucket.toMinutes();
+        long sinceOrigin = ChronoUnit.MINUTES.between(ORIGIN, minute);
+        return ORIGIN.plusMinutes(Math.floorDiv(sinceOrigin, step) * step);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.err.println("Не удалось сохранить агрегаты аудита: " + e.getMessage());
+        }
+    }
+}
@@ -1,29 +1,363 @@
 package market.service;
 
 import market.domain.AuditEvent;
+import market.exception.PersistenceException;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Реализация сервиса аудита, отвечающая за запись событий {@link AuditEvent}.
  * Используется для логирования действий пользователей (LOGIN, LOGOUT, CREATE, UPDATE, DELETE, SEARCH).
+ * <p>
+ * Файл журнала держится открытым ({@link FileChannel}), а параллельные вызовы
+ * {@link #append(AuditEvent)} объединяются в групповую запись (group commit): первый
+ * поток становится «ведущим» и одним {@code write} записывает строки всех, кто успел
+ * встать в очередь, остальные ждут, пока их строка окажется в файле. Если групповая
+ * запись не удалась, {@link PersistenceException} получает каждый поток этой группы,
+ * так что {@link FsyncPolicy#EVERY_BATCH} не подтверждает ненаписанные строки.
+ * После {@link #close()} события не принимаются.
+ * <p>
+ * Надёжность задаёт {@link FsyncPolicy}. При превышении {@code maxBytes} или по истечении
+ * {@code rotateIntervalMs} с открытия текущий файл переименовывается в {@code audit.log.N}
+ * (N растёт) и запись продолжается в новый. Если включено сжатие, закрытые сегменты
+ * фоновым потоком упаковываются в {@code audit.log.N.gz}; читать журнал целиком, включая
+ * сжатые сегменты, можно через {@link AuditLogReader}.
  */
-public class AuditServiceImpl implements  AuditService {
+public class AuditServiceImpl implements AuditService, AutoCloseable {
 
-    private final Path file = Paths.get("audit.log");
+    /** Когда вызывать {@code fsync} для файла журнала. */
+    public enum FsyncPolicy {
+        /** Никогда: данные сбрасывает ОС. */
+        NONE,
+        /** Фоновым потоком раз в заданный интервал, если были записи. */
+        INTERVAL,
+        /** После каждой групповой записи, до возврата из {@code append}. */
+        EVERY_BATCH
+    }
+
+    /** Размер файла по умолчанию, после которого он ротируется. */
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** Период ротации по умолчанию — сутки. */
+    private static final long DEFAULT_ROTATE_INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+
+    private final Path file;
+    private final FsyncPolicy fsync;
+    private final long maxBytes;
+    private final long rotateIntervalMs;
+    private final MetricsService metrics;
+    private final ScheduledExecutorService syncer;
+    /** Фоновое сжатие закрытых сегментов; {@code null}, если сжатие выключено. */
+    private final ExecutorService compressor;
+
+    /** Строки одной групповой записи и её исход. */
+    private static final class Batch {
+        final List<ByteBuffer> lines = new ArrayList<>();
+        boolean done;
+        Exception failure;
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition written = lock.newCondition();
+    private Batch pending = new Batch();
+    private boolean leaderActive;
+    private boolean closed;
+
+    /** Доступ к каналу — только у ведущего потока или под {@code synchronized (this)}. */
+    private FileChannel channel;
+    /** Момент открытия текущего сегмента (для ротации по времени), мс. */
+    private long openedAtMillis;
+    private volatile boolean dirty;
+
+    private long events;
+    private long batches;
+    private long bytes;
+    private long fsyncs;
+    private final long startNanos = System.nanoTime();
+
+    public AuditServiceImpl() {
+        this(Paths.get("audit.log"), FsyncPolicy.NONE, 0, DEFAULT_MAX_BYTES, DEFAULT_ROTATE_INTERVAL_MS, true, null);
+    }
+
+    /**
+     * Журнал с ротацией только по размеру и без сжатия.
+     *
+     * @see #AuditServiceImpl(Path, FsyncPolicy, long, long, long, boolean, MetricsService)
+     */
+    public AuditServiceImpl(Path file, FsyncPolicy fsync, long fsyncIntervalMs, long maxBytes, MetricsService metrics) {
+        this(file, fsync, fsyncIntervalMs, maxBytes, 0, false, metrics);
+    }
+
+    /**
+     * @param file            файл журнала
+     * @param fsync           политика {@code fsync}
+     * @param fsyncIntervalMs период {@code fsync} для {@link FsyncPolicy#INTERVAL}, мс
+     * @param maxBytes         размер файла, после которого он ротируется ({@code <= 0} — без ротации по размеру)
+     * @param rotateIntervalMs возраст файла, после которого он ротируется, мс ({@code <= 0} — без ротации по времени)
+     * @param compress         сжимать ли закрытые сегменты в {@code .gz}
+     * @param metrics          сервис метрик ({@code null} — метрики не публикуются)
+     */
+    public AuditServiceImpl(Path file, FsyncPolicy fsync, long fsyncIntervalMs, long maxBytes,
+                            long rotateIntervalMs, boolean compress, MetricsService metrics) {
+        this.file = file;
+        this.fsync = fsync;
+        this.maxBytes = maxBytes;
+        this.rotateIntervalMs = rotateIntervalMs;
+        this.metrics = metrics;
+        if (fsync == FsyncPolicy.INTERVAL) {
+            if (fsyncIntervalMs <= 0) {
+                throw new IllegalArgumentException("Интервал fsync должен быть > 0");
+            }
+            this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "audit-fsync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncer.scheduleWithFixedDelay(this::syncIfDirty, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+        if (compress) {
+            this.compressor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "audit-compress");
+                t.setDaemon(true);
+                return t;
+            });
+            compressLeftovers();
+        } else {
+            this.compressor = null;
+        }
+    }
 
     @Override
     public void append(AuditEvent e){
-        try (BufferedWriter bw = Files.newBufferedWriter(file,
-                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
-            bw.write(e.toString()); bw.newLine();
+        ByteBuffer line = ByteBuffer.wrap((e.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        lock.lock();
+        try {
+            if (closed) {
+                throw new PersistenceException("Журнал аудита " + file + " закрыт");
+            }
+            Batch mine = pending;
+            mine.lines.add(line);
+            while (!mine.done) {
+                if (leaderActive) {
+                    written.awaitUninterruptibly();
+                    continue;
+                }
+                // становимся ведущим: забираем всё накопленное и пишем без блокировки
+                leaderActive = true;
+                Batch batch = pending;
+                pending = new Batch();
+                lock.unlock();
+                Exception failure = null;
+                try {
+                    writeBatch(batch.lines);
+                } catch (IOException | RuntimeException ex) {
+                    failure = ex;
+                } finally {
+                    lock.lock();
+                    leaderActive = false;
+                    batch.failure = failure;
+                    batch.done = true;
+                    written.signalAll();
+                }
+            }
+            if (mine.failure != null) {
+                throw new PersistenceException("Не удалось записать событие аудита: " + mine.failure.getMessage());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Сбрасывает данные на диск, закрывает файл журнала и дожидается сжатия
+     * уже закрытых сегментов.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            // дожидаемся групповых записей, в которые уже встали потоки
+            while (leaderActive || !pending.lines.isEmpty()) {
+                written.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        synchronized (this) {
+            if (channel != null) {
+                try {
+                    channel.force(false);
+                    channel.close();
+                } catch (IOException ex) {
+                    System.err.println("Audit close failed: " + ex.getMessage());
+                }
+                channel = null;
+            }
+        }
+        if (compressor != null) {
+            compressor.shutdown();
+            try {
+                compressor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private synchronized void writeBatch(List<ByteBuffer> batch) throws IOException {
+        long size = 0;
+        for (ByteBuffer b : batch) size += b.remaining();
+        FileChannel ch = openChannel();
+        if (shouldRotate(ch.size(), size)) {
+            rotate();
+            ch = openChannel();
+        }
+        ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+        long left = size;
+        while (left > 0) {
+            left -= ch.write(buffers);
+        }
+        if (fsync == FsyncPolicy.EVERY_BATCH) {
+            ch.force(false);
+            fsyncs++;
+        } else {
+            dirty = true;
+        }
+        events += batch.size();
+        batches++;
+        bytes += size;
+        publishMetrics();
+    }
+
+    private boolean shouldRotate(long current, long incoming) {
+        if (current == 0) return false;
+        if (maxBytes > 0 && current + incoming > maxBytes) return true;
+        return rotateIntervalMs > 0 && System.currentTimeMillis() - openedAtMillis >= rotateIntervalMs;
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            // файл мог остаться от прошлого запуска — возраст считаем от его создания
+            openedAtMillis = channel.size() == 0
+                    ? System.currentTimeMillis()
+                    : Files.readAttributes(file, BasicFileAttributes.class).creationTime().toMillis();
+        }
+        return channel;
+    }
+
+    /** Закрывает текущий файл, переименовывает его в {@code audit.log.N} и ставит в очередь на сжатие. */
+    private void rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+        channel = null;
+        Path closed = file.resolveSibling(file.getFileName() + "." + nextSegmentNumber());
+        Files.move(file, closed);
+        if (compressor != null) {
+            compressor.execute(() -> compress(closed));
+        }
+    }
+
+    /** Ставит на сжатие несжатые сегменты, оставшиеся от прошлого запуска. */
+    private void compressLeftovers() {
+        for (Path segment : AuditLogReader.closedSegments(file)) {
+            if (!segment.getFileName().toString().endsWith(".gz")) {
+                compressor.execute(() -> compress(segment));
+            }
+        }
+    }
+
+    /**
+     * Сжимает закрытый сегмент в {@code <имя>.gz}: пишет во временный файл, атомарно
+     * переименовывает его и только затем удаляет исходный, так что читатель в любой
+     * момент видит полный сегмент в одном из двух видов.
+     */
+    private static void compress(Path segment) {
+        Path gz = segment.resolveSibling(segment.getFileName() + ".gz");
+        Path tmp = segment.resolveSibling(segment.getFileName() + ".gz.tmp");
+        try (InputStream in = Files.newInputStream(segment);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp), 64 * 1024) {
+                 { def.setLevel(Deflater.BEST_SPEED); }
+             }) {
+            in.transferTo(out);
+        } catch (IOException ex) {
+            System.err.println("Audit compress failed: " + ex.getMessage());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // временный файл будет перезаписан следующей попыткой
+            }
+            return;
+        }
+        try {
+            Files.move(tmp, gz, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(segment);
         } catch (IOException ex) {
-            System.err.println("Audit write failed: " + ex.getMessage());
+            System.err.println("Audit compress failed: " + ex.getMessage());
+        }
+    }
+
+    private long nextSegmentNumber() throws IOException {
+        String prefix = file.getFileName() + ".";
+        long max = 0;
+        try (var files = Files.list(file.toAbsolutePath().getParent())) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                if (!name.startsWith(prefix)) continue;
+                String suffix = name.substring(prefix.length());
+                int dot = suffix.indexOf('.');
+                String digits = dot < 0 ? suffix : suffix.substring(0, dot);
+                if (!digits.isEmpty() && digits.chars().allMatch(Character::isDigit)) {
+                    max = Math.max(max, Long.parseLong(digits));
+                }
+            }
         }
+        return max + 1;
+    }
+
+    private synchronized void syncIfDirty() {
+        if (!dirty || channel == null) return;
+        try {
+            channel.force(false);
+            dirty = false;
+            fsyncs++;
+            publishMetrics();
+        } catch (IOException ex) {
+            System.err.println("Audit fsync failed: " + ex.getMessage());
+        }
+    }
+
+    private void publishMetrics() {
+        if (metrics == null) return;
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        metrics.setAuditWrites(events, batches, bytes, fsyncs, seconds == 0 ? 0 : events / seconds);
     }
 }
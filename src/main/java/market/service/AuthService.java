@@ -3,6 +3,7 @@ package market.service;
 import market.domain.Role;
 import market.domain.User;
 
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -38,6 +39,35 @@ public interface AuthService {
      */
     Optional<User> current();
 
+    /**
+     * Выполняет вход и открывает отдельную сессию.
+     * <p>
+     * В отличие от {@link #login(String, String)} не меняет «текущего пользователя»
+     * процесса: одновременно может быть открыто сколько угодно сессий разных клиентов.
+     *
+     * @param username имя пользователя
+     * @param password пароль пользователя
+     * @return {@link Optional} с токеном сессии или {@link Optional#empty()},
+     *         если имя пользователя или пароль неверны
+     */
+    Optional<String> openSession(String username, String password);
+
+    /**
+     * Возвращает пользователя сессии и продлевает её.
+     *
+     * @param token токен сессии
+     * @return {@link Optional} с пользователем или {@link Optional#empty()},
+     *         если сессия не найдена или истекла
+     */
+    Optional<User> current(String token);
+
+    /**
+     * Закрывает сессию.
+     *
+     * @param token токен сессии
+     */
+    void logout(String token);
+
     /**
      * Регистрирует нового пользователя в системе.
      * <p>
@@ -51,6 +81,15 @@ public interface AuthService {
      */
     void register(String username, String password, Role role);
 
+    /**
+     * Массово регистрирует пользователей (например, всю организацию при подключении).
+     * Пользователи с уже занятыми именами пропускаются.
+     *
+     * @param users новые пользователи (имя, пароль, роль)
+     * @return количество созданных пользователей
+     */
+    int registerAll(List<User> users);
+
     /**
      * Проверяет, существует ли пользователь с указанным именем.
      *
@@ -7,6 +7,8 @@ import market.exception.ValidationException;
 import market.repo.UserRepository;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -17,6 +19,7 @@ import java.util.Optional;
  */
 public class AuthServiceImpl implements AuthService {
     private final UserRepository repo;
+    private final SessionStore sessions = new SessionStore(Duration.ofMinutes(30));
     private User current;
 
     public AuthServiceImpl(UserRepository repo) {
@@ -43,15 +46,36 @@ public class AuthServiceImpl implements AuthService {
 
     @Override public Optional<User> current() { return Optional.ofNullable(current); }
 
+    @Override
+    public Optional<String> openSession(String username, String password) {
+        return repo.findByUsername(username)
+                .filter(u -> Objects.equals(password, u.getPassword()))
+                .map(sessions::open);
+    }
+
+    @Override public Optional<User> current(String token) { return sessions.get(token); }
+
+    @Override public void logout(String token) { sessions.invalidate(token); }
+
     @Override
     public void register(String username, String password, Role role) {
         if (username==null || username.isBlank()) throw new ValidationException("Имя не может быть пустым");
         if (password==null || password.isBlank()) throw new ValidationException("Пароль не может быть пустым");
-        if (repo.exists(username)) throw new ValidationException("Имя уже занято");
-        repo.saveUser(new User(username, password, role));
+        if (!repo.register(new User(username, password, role))) throw new ValidationException("Имя уже занято");
         persist();
     }
 
+    @Override
+    public int registerAll(List<User> users) {
+        for (User u : users) {
+            if (u.getUsername()==null || u.getUsername().isBlank()) throw new ValidationException("Имя не может быть пустым");
+            if (u.getPassword()==null || u.getPassword().isBlank()) throw new ValidationException("Пароль не может быть пустым");
+        }
+        int created = repo.registerAll(users);
+        if (created > 0) persist();
+        return created;
+    }
+
     @Override public boolean exists(String username) { return repo.exists(username); }
 
     @Override
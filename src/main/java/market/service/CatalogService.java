@@ -1,9 +1,12 @@
 package market.service;
 
 import market.domain.Category;
+import market.domain.ImportReport;
 import market.domain.Product;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 
@@ -26,6 +29,29 @@ public interface CatalogService {
      */
     Product create(Product p);
 
+    /**
+     * Сохраняет набор товаров одной операцией (массовая загрузка каталога).
+     * <p>
+     * Новые товары создаются, существующие — обновляются. Все товары проходят
+     * валидацию до записи, а кэш поиска сбрасывается один раз на весь набор.
+     *
+     * @param products товары для сохранения
+     * @return сохранённые товары с присвоенными идентификаторами
+     */
+    List<Product> saveAll(List<Product> products);
+
+    /**
+     * Синхронизирует каталог с фидом поставщика (идемпотентно).
+     * <p>
+     * Товары сопоставляются по артикулу {@code sku} (иначе по {@code id}):
+     * отсутствующие создаются, изменившиеся обновляются, совпадающие не трогаются.
+     * Кэш поиска сбрасывается, только если что-то действительно изменилось.
+     *
+     * @param products товары из фида
+     * @return количество созданных или изменённых товаров
+     */
+    int upsertAll(List<Product> products);
+
     /**
      * Возвращает товар по идентификатору.
      *
@@ -41,6 +67,8 @@ public interface CatalogService {
      * @param p объект {@link Product} с изменёнными данными
      * @return обновлённый товар
      * @throws IllegalArgumentException если товар с указанным идентификатором не существует
+     * @throws market.exception.OptimisticLockException если товар успел изменить кто-то другой
+     *         (версия в объекте устарела)
      */
     Product update(Product p);
 
@@ -94,4 +122,36 @@ public interface CatalogService {
      * @throws IOException если произошла ошибка при записи данных
      */
     void persist() throws IOException;
+
+    /**
+     * Импортирует товары из CSV-файла в формате {@code products.csv}
+     * ({@code id,name,brand,category,price,description,active}).
+     * <p>
+     * Товары с известным {@code id} обновляются, без {@code id} — создаются.
+     * Некорректные записи пропускаются и учитываются в отчёте.
+     *
+     * @param file путь к CSV-файлу
+     * @return отчёт об импорте
+     * @throws IOException если файл не удалось прочитать
+     */
+    ImportReport importCsv(Path file) throws IOException;
+
+    /**
+     * Выгружает товары в CSV в формате {@code products.csv}, применяя те же фильтры,
+     * что и {@link #search(String, String, Category, Double, Double, Boolean)}.
+     * <p>
+     * Данные пишутся в поток по мере чтения, без построения списка товаров в памяти.
+     *
+     * @param out        поток, куда пишется CSV (не закрывается)
+     * @param q          часть названия или описания товара
+     * @param brand      название бренда для фильтрации
+     * @param category   категория товара
+     * @param minPrice   минимальная цена
+     * @param maxPrice   максимальная цена
+     * @param onlyActive если {@code true} — выгружаются только активные товары
+     * @return количество выгруженных товаров
+     * @throws IOException если не удалось записать данные
+     */
+    long exportCsv(OutputStream out, String q, String brand, Category category,
+                   Double minPrice, Double maxPrice, Boolean onlyActive) throws IOException;
 }
@@ -1,11 +1,20 @@
 package market.service;
 import market.cache.LRUCache;
 import market.domain.Category;
+import market.domain.ImportReport;
 import market.domain.Product;
 import market.exception.PersistenceException;
+import market.repo.CsvUtil;
 import market.repo.ProductRepository;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -17,9 +26,10 @@ import java.util.stream.Collectors;
  * для сбора метрик (время выполнения запросов, статистика кеша).
  */
 public class CatalogServiceImpl implements CatalogService{
+    private static final int CACHE_TOP_KEYS = 5;
     private final ProductRepository repo;
     private final MetricsService metrics;
-    private final LRUCache<String, List<Long>> cache = new LRUCache<>(64);
+    private final LRUCache<String, List<Long>> cache = new LRUCache<>(64, List::size);
 
     public CatalogServiceImpl(ProductRepository repo, MetricsService metrics) {
         this.repo = repo;
@@ -40,6 +50,21 @@ public class CatalogServiceImpl implements CatalogService{
         return saved;
     }
 
+    @Override
+    public List<Product> saveAll(List<Product> products){
+        List<Product> saved = repo.saveAll(products);
+        invalidateCache();
+        metrics.setProductCount(repo.findAll().size());
+        return saved;
+    }
+
+    @Override
+    public int upsertAll(List<Product> products){
+        int written = repo.upsertAll(products);
+        if (written > 0){ invalidateCache(); metrics.setProductCount(repo.findAll().size()); }
+        return written;
+    }
+
     @Override
     public Optional<Product> get(long id){ return repo.findById(id); }
 
@@ -80,6 +105,7 @@ public class CatalogServiceImpl implements CatalogService{
             result = idsToProducts(cached.get());
 
         } else {
+            long loadStart = System.nanoTime();
             Predicate<Product> pred = p -> true;
             if (namePart != null && !namePart.isBlank()){
                 String q = namePart.toLowerCase();
@@ -96,10 +122,11 @@ public class CatalogServiceImpl implements CatalogService{
             if (onlyActive != null && onlyActive) pred = pred.and(Product::isActive);
             result = repo.findAll().stream().filter(pred).collect(Collectors.toList());
             cache.put(key, result.stream().map(Product::getId).collect(Collectors.toList()));
+            cache.recordLoad(System.nanoTime() - loadStart);
         }
         long dt = System.currentTimeMillis() - t0;
         metrics.setLastQueryMillis(dt);
-        metrics.setCache(cache.getHits(), cache.getMisses());
+        metrics.setCacheStats(cache.stats(CACHE_TOP_KEYS));
         return result;
     }
 
@@ -118,6 +145,61 @@ public class CatalogServiceImpl implements CatalogService{
         repo.flush();
     }
 
+    @Override
+    public ImportReport importCsv(Path file) throws IOException {
+        long t0 = System.currentTimeMillis();
+        List<Product> batch = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        long read = 0, rejected = 0;
+        try (BufferedReader br = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = CsvUtil.readRecord(br)) != null) {
+                if (line.isBlank() || line.startsWith("#")) continue;
+                read++;
+                try {
+                    List<String> f = CsvUtil.parseLine(line);
+                    Product p = new Product(
+                            f.get(0).isEmpty() ? 0L : Long.parseLong(f.get(0)),
+                            f.get(1), f.get(2), Category.valueOf(f.get(3)),
+                            Double.parseDouble(f.get(4)), f.get(5));
+                    p.setActive(Boolean.parseBoolean(f.get(6)));
+                    if (p.getName().isBlank() || p.getPrice() < 0)
+                        throw new IllegalArgumentException("некорректный товар: " + line);
+                    batch.add(p);
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    rejected++;
+                    if (errors.size() < 10) errors.add(e.getMessage());
+                }
+            }
+        }
+        saveAll(batch);
+        ImportReport report = new ImportReport(read, batch.size(), rejected,
+                System.currentTimeMillis() - t0, errors);
+        metrics.setImport(report);
+        return report;
+    }
+
+    @Override
+    public long exportCsv(OutputStream out, String q, String brand, Category category,
+                          Double minPrice, Double maxPrice, Boolean onlyActive) throws IOException {
+        List<Product> list = search(q, brand, category, minPrice, maxPrice, onlyActive);
+        BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        bw.write("#id,name,brand,category,price,description,active\n");
+        for (Product p : list) {
+            bw.write(String.join(",",
+                    Long.toString(p.getId()),
+                    CsvUtil.esc(p.getName()),
+                    CsvUtil.esc(p.getBrand()),
+                    p.getCategory().name(),
+                    Double.toString(p.getPrice()),
+                    CsvUtil.esc(p.getDescription()),
+                    Boolean.toString(p.isActive())));
+            bw.write("\n");
+        }
+        bw.flush();
+        return list.size();
+    }
+
     private void invalidateCache(){
         cache.clear();
     }
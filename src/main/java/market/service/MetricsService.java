@@ -1,5 +1,8 @@
 package market.service;
 
+import market.cache.CacheStats;
+import market.domain.ImportReport;
+
 /**
  * Сервис сбора и предоставления метрик работы приложения.
  * <p>
@@ -31,6 +34,55 @@ public interface MetricsService {
      */
     void setCache(long hits, long misses);
 
+    /**
+     * Обновляет подробную статистику кэша: вытеснения, время загрузки после промаха,
+     * размер и вес, а также самые «горячие» и самые часто промахивающиеся ключи.
+     * <p>
+     * Также обновляет общие счётчики попаданий и промахов (см. {@link #setCache(long, long)}).
+     *
+     * @param stats снимок статистики кэша
+     */
+    void setCacheStats(CacheStats stats);
+
+    /**
+     * Сохраняет результат последнего массового импорта товаров
+     * (количество строк, отклонённые записи, скорость в строках в секунду).
+     *
+     * @param report отчёт об импорте
+     */
+    void setImport(ImportReport report);
+
+    /**
+     * Обновляет состояние буфера отложенной записи товаров.
+     *
+     * @param pending   количество ещё не записанных товаров
+     * @param coalesced сколько изменений поглощено более поздними изменениями того же товара
+     * @param flushed   сколько товаров записано в БД фоновыми сбросами
+     * @param rejected  сколько отложенных обновлений БД отклонила при записи
+     */
+    void setWriteBehind(int pending, long coalesced, long flushed, long rejected);
+
+    /**
+     * Обновляет состояние асинхронной записи аудита.
+     *
+     * @param queued  событий в очереди
+     * @param written событий записано в БД
+     * @param dropped событий отброшено из-за переполнения очереди
+     * @param failed  событий потеряно из-за ошибок записи
+     */
+    void setAuditQueue(int queued, long written, long dropped, long failed);
+
+    /**
+     * Обновляет статистику файлового журнала аудита.
+     *
+     * @param events       записано событий
+     * @param batches      выполнено групповых записей
+     * @param bytes        записано байт
+     * @param fsyncs       выполнено вызовов {@code fsync}
+     * @param eventsPerSec средняя скорость записи, событий в секунду
+     */
+    void setAuditWrites(long events, long batches, long bytes, long fsyncs, double eventsPerSec);
+
     /**
      * Возвращает сводку текущих метрик в виде текстового отчёта.
      * <p>
@@ -40,6 +92,13 @@ public interface MetricsService {
      * products: 123
      * lastQueryMs: 4
      * cache: hits=78, misses=12
+     * cache.ratio: 0.87
+     * cache.evictions: 3
+     * cache.size: 64/100, weight=812
+     * cache.load: count=12, avgMs=1.42
+     * cache.hot: iphone|_|_|_|_|_ (hits=40, ratio=0.98)
+     * cache.missed: q|_|_|_|_|_ (misses=9, ratio=0.10)
+     * import: rows=1000000, rejected=12, rowsPerSec=182000
      * </pre>
      *
      * @return текстовое представление текущего состояния метрик
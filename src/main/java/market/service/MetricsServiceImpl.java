@@ -1,11 +1,16 @@
 package market.service;
 
+import market.cache.CacheStats;
+import market.domain.ImportReport;
+
 /**
  * Реализация сервиса метрик каталога.
  * Хранит статистику по работе приложения:
  *  • количество товаров;
  *  • время последнего запроса (мс);
- *  • попадания и промахи LRU-кеша.
+ *  • попадания и промахи LRU-кеша;
+ *  • подробная статистика кеша (вытеснения, время загрузки, «горячие» ключи);
+ *  • результат последнего массового импорта.
  *
  * Предоставляет снимок метрик в текстовом виде
  * для отображения в консольном интерфейсе.
@@ -15,6 +20,11 @@ public class MetricsServiceImpl implements  MetricsService{
     private volatile int productCount;
     private volatile long cacheHits;
     private volatile long cacheMisses;
+    private volatile CacheStats cacheStats;
+    private volatile ImportReport lastImport;
+    private volatile String writeBehind;
+    private volatile String auditQueue;
+    private volatile String auditWrites;
 
     @Override
     public void setLastQueryMillis(long ms){
@@ -31,11 +41,74 @@ public class MetricsServiceImpl implements  MetricsService{
         this.cacheHits = hits; this.cacheMisses = misses;
     }
 
+    @Override
+    public void setCacheStats(CacheStats stats){
+        this.cacheStats = stats;
+        setCache(stats.hits(), stats.misses());
+    }
+
+    @Override
+    public void setImport(ImportReport report){
+        this.lastImport = report;
+    }
+
+    @Override
+    public void setWriteBehind(int pending, long coalesced, long flushed, long rejected){
+        this.writeBehind = "writeBehind: pending=%d, coalesced=%d, flushed=%d, rejected=%d\n"
+                .formatted(pending, coalesced, flushed, rejected);
+    }
+
+    @Override
+    public void setAuditQueue(int queued, long written, long dropped, long failed){
+        this.auditQueue = "audit: queued=%d, written=%d, dropped=%d, failed=%d\n"
+                .formatted(queued, written, dropped, failed);
+    }
+
+    @Override
+    public void setAuditWrites(long events, long batches, long bytes, long fsyncs, double eventsPerSec){
+        double perBatch = batches == 0 ? 0 : (double) events / batches;
+        this.auditWrites = "audit.file: events=%d, batches=%d (%.1f/batch), bytes=%d, fsyncs=%d, eventsPerSec=%.0f\n"
+                .formatted(events, batches, perBatch, bytes, fsyncs, eventsPerSec);
+    }
+
     @Override
     public String snapshot(){
-        return "--- Metrics ---\n" +
-               "products: " + productCount + "\n" +
-               "lastQueryMs: " + lastQueryMillis + "\n" +
-               "cache: hits=" + cacheHits + ", misses=" + cacheMisses + "\n";
+        StringBuilder sb = new StringBuilder()
+                .append("--- Metrics ---\n")
+                .append("products: ").append(productCount).append("\n")
+                .append("lastQueryMs: ").append(lastQueryMillis).append("\n")
+                .append("cache: hits=").append(cacheHits).append(", misses=").append(cacheMisses).append("\n");
+        CacheStats cs = cacheStats;
+        if (cs != null) {
+            sb.append("cache.ratio: %.2f\n".formatted(cs.hitRatio()))
+              .append("cache.evictions: ").append(cs.evictions()).append("\n")
+              .append("cache.size: ").append(cs.size()).append("/").append(cs.capacity())
+              .append(", weight=").append(cs.weight()).append("\n")
+              .append("cache.load: count=%d, avgMs=%.2f\n".formatted(cs.loads(), cs.avgLoadMillis()));
+            for (CacheStats.KeyStats k : cs.hottest()) {
+                sb.append("cache.hot: %s (hits=%d, ratio=%.2f)\n".formatted(k.key(), k.hits(), k.hitRatio()));
+            }
+            for (CacheStats.KeyStats k : cs.mostMissed()) {
+                sb.append("cache.missed: %s (misses=%d, ratio=%.2f)\n".formatted(k.key(), k.misses(), k.hitRatio()));
+            }
+        }
+        ImportReport imp = lastImport;
+        if (imp != null) {
+            sb.append("import: rows=%d, rejected=%d, rowsPerSec=%.0f\n"
+                    .formatted(imp.imported(), imp.rejected(), imp.rowsPerSecond()));
+        }
+        String wb = writeBehind;
+        if (wb != null) {
+            sb.append(wb);
+        }
+        String aq = auditQueue;
+        if (aq != null) {
+            sb.append(aq);
+        }
+        String aw = auditWrites;
+        if (aw != null) {
+            sb.append(aw);
+        }
+        return sb.toString();
     }
 }
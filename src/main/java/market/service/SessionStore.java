@@ -0,0 +1,213 @@
+package market.service;
+
+import market.domain.User;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Хранилище пользовательских сессий с истечением по простою.
+ * <p>
+ * Сессия адресуется непрозрачным токеном (32 случайных байта в base64url); поиск —
+ * {@link ConcurrentHashMap}, то есть O(1) без блокировок. Обращение к сессии только
+ * обновляет время последней активности — одна volatile-запись, без перестановок
+ * в структурах истечения и без выделения памяти.
+ * <p>
+ * Истечение — хешированное колесо таймеров ({@value #WHEEL_SIZE} ячеек по {@code tick}).
+ * Сессия лежит в ячейке своего предполагаемого срока; фоновый поток раз в {@code tick}
+ * обходит наступившую ячейку, удаляет простаивающие сессии, а активные перекладывает
+ * в ячейку нового срока. Ячейки — интрузивные списки по полю {@link Session#next},
+ * так что перекладывание тоже не выделяет памяти.
+ */
+public class SessionStore implements AutoCloseable {
+
+    /** Количество ячеек колеса (степень двойки). */
+    static final int WHEEL_SIZE = 512;
+    private static final int TOKEN_BYTES = 32;
+
+    /** Сессия: пользователь и время последней активности. */
+    private static final class Session {
+        final String token;
+        final User user;
+        volatile long lastAccess;
+        volatile boolean closed;
+        /** Следующая сессия в той же ячейке колеса; меняется под монитором ячейки. */
+        Session next;
+
+        Session(String token, User user, long now) {
+            this.token = token;
+            this.user = user;
+            this.lastAccess = now;
+        }
+    }
+
+    /** Ячейка колеса: голова интрузивного списка. */
+    private static final class Slot {
+        Session head;
+    }
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Slot[] wheel = new Slot[WHEEL_SIZE];
+    private final long idleNanos;
+    private final long tickNanos;
+    private final LongSupplier clock;
+    private final SecureRandom random = new SecureRandom();
+    private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+
+    /** Последний обработанный такт колеса; меняется только под монитором {@code wheel}. */
+    private long sweptTick;
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * @param idleTimeout время простоя, после которого сессия закрывается
+     */
+    public SessionStore(Duration idleTimeout) {
+        this(idleTimeout, Duration.ofSeconds(1), System::nanoTime);
+    }
+
+    /**
+     * @param idleTimeout время простоя, после которого сессия закрывается
+     * @param tick        шаг колеса таймеров (точность истечения)
+     * @param clock       источник времени в наносекундах (для тестов)
+     */
+    SessionStore(Duration idleTimeout, Duration tick, LongSupplier clock) {
+        if (idleTimeout.isNegative() || idleTimeout.isZero() || tick.isNegative() || tick.isZero()) {
+            throw new IllegalArgumentException("Время простоя и шаг колеса должны быть > 0");
+        }
+        this.idleNanos = idleTimeout.toNanos();
+        this.tickNanos = tick.toNanos();
+        this.clock = clock;
+        for (int i = 0; i < WHEEL_SIZE; i++) wheel[i] = new Slot();
+        this.sweptTick = clock.getAsLong() / tickNanos;
+    }
+
+    /**
+     * Открывает сессию для пользователя.
+     *
+     * @param user вошедший пользователь
+     * @return токен сессии
+     */
+    public String open(User user) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = encoder.encodeToString(bytes);
+        Session s = new Session(token, user, clock.getAsLong());
+        sessions.put(token, s);
+        schedule(s);
+        startSweeperIfNeeded();
+        return token;
+    }
+
+    /**
+     * Возвращает пользователя сессии и продлевает её.
+     *
+     * @param token токен сессии
+     * @return пользователь или {@link Optional#empty()}, если сессии нет или она истекла
+     */
+    public Optional<User> get(String token) {
+        if (token == null) return Optional.empty();
+        Session s = sessions.get(token);
+        if (s == null) return Optional.empty();
+        long now = clock.getAsLong();
+        if (now - s.lastAccess >= idleNanos) {
+            remove(s);
+            return Optional.empty();
+        }
+        // не чаще раза в такт: лишние volatile-записи в общую строку кэша ни к чему
+        if (now - s.lastAccess >= tickNanos) s.lastAccess = now;
+        return Optional.of(s.user);
+    }
+
+    /**
+     * Закрывает сессию.
+     *
+     * @param token токен сессии
+     */
+    public void invalidate(String token) {
+        if (token == null) return;
+        Session s = sessions.get(token);
+        if (s != null) remove(s);
+    }
+
+    /** @return количество открытых сессий (включая ещё не удалённые истёкшие) */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Обрабатывает все наступившие такты колеса: удаляет истёкшие сессии.
+     * Вызывается фоновым потоком; доступен для тестов.
+     */
+    void sweep() {
+        synchronized (wheel) {
+            sweepLocked();
+        }
+    }
+
+    private void sweepLocked() {
+        long nowTick = clock.getAsLong() / tickNanos;
+        // за один оборот колеса посещаются все ячейки — дальше обходить незачем
+        long from = Math.max(sweptTick + 1, nowTick - WHEEL_SIZE + 1);
+        for (long tick = from; tick <= nowTick; tick++) {
+            Slot slot = wheel[(int) (tick & (WHEEL_SIZE - 1))];
+            Session s;
+            synchronized (slot) {
+                s = slot.head;
+                slot.head = null;
+            }
+            while (s != null) {
+                Session next = s.next;
+                s.next = null;
+                if (!s.closed) {
+                    if (clock.getAsLong() - s.lastAccess >= idleNanos) {
+                        remove(s);
+                    } else {
+                        schedule(s);
+                    }
+                }
+                s = next;
+            }
+        }
+        sweptTick = nowTick;
+    }
+
+    /** Останавливает фоновое истечение сессий. */
+    @Override
+    public synchronized void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+    }
+
+    private void schedule(Session s) {
+        long deadlineTick = (s.lastAccess + idleNanos) / tickNanos + 1;
+        Slot slot = wheel[(int) (deadlineTick & (WHEEL_SIZE - 1))];
+        synchronized (slot) {
+            s.next = slot.head;
+            slot.head = s;
+        }
+    }
+
+    private void remove(Session s) {
+        s.closed = true;
+        sessions.remove(s.token, s);
+    }
+
+    private synchronized void startSweeperIfNeeded() {
+        if (sweeper != null) return;
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+}
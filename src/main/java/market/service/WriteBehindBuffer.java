@@ -0,0 +1,239 @@
+package market.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Буфер отложенной записи (write-behind) с объединением изменений по ключу.
+ * <p>
+ * Каждое {@link #put(Object, Object)} перезаписывает предыдущее значение с тем же ключом,
+ * поэтому серия частых изменений одного объекта превращается в одну запись.
+ * Фоновый поток сбрасывает накопленное в {@code sink} пачкой — раз в {@code intervalMs}
+ * миллисекунд либо сразу, как только в буфере набралось {@code maxEntries} ключей.
+ * <p>
+ * Пока значение не записано, его можно прочитать через {@link #get(Object)} и
+ * {@link #values()} — в том числе во время сброса. {@link #close()} сбрасывает всё
+ * оставшееся и останавливает фоновый поток.
+ * <p>
+ * Изменяемые значения передаются с функцией копирования: буфер хранит копию, отдаёт
+ * читателям и получателю тоже копии, так что ни вызывающий, ни получатель пачки
+ * не меняют объект, который в это время читает другой поток.
+ *
+ * @param <K> тип ключа
+ * @param <V> тип значения
+ */
+public class WriteBehindBuffer<K, V> implements AutoCloseable {
+
+    private final Consumer<List<V>> sink;
+    private final UnaryOperator<V> copy;
+    private final int maxEntries;
+    private final ScheduledExecutorService flusher;
+
+    /** Защищает {@link #pending} и {@link #inFlight}. */
+    private final Object lock = new Object();
+    /** Сбросы выполняются строго по одному. */
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private Map<K, V> pending = new LinkedHashMap<>();
+    private Map<K, V> inFlight = Map.of();
+
+    private long puts;
+    private long coalesced;
+    private long flushes;
+    private long flushed;
+
+    /**
+     * @param sink       получатель пачки значений (например, {@code repo::saveAll})
+     * @param intervalMs период фонового сброса, мс
+     * @param maxEntries количество ключей, при котором сброс запускается досрочно
+     */
+    public WriteBehindBuffer(Consumer<List<V>> sink, long intervalMs, int maxEntries) {
+        this(sink, UnaryOperator.identity(), intervalMs, maxEntries);
+    }
+
+    /**
+     * @param sink       получатель пачки значений (например, {@code repo::saveAll})
+     * @param copy       копирование значения (для неизменяемых — {@link UnaryOperator#identity()})
+     * @param intervalMs период фонового сброса, мс
+     * @param maxEntries количество ключей, при котором сброс запускается досрочно
+     */
+    public WriteBehindBuffer(Consumer<List<V>> sink, UnaryOperator<V> copy, long intervalMs, int maxEntries) {
+        if (intervalMs <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("intervalMs и maxEntries должны быть > 0");
+        }
+        this.sink = sink;
+        this.copy = copy;
+        this.maxEntries = maxEntries;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "write-behind-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Кладёт значение в буфер, заменяя ещё не записанное значение с тем же ключом.
+     */
+    public void put(K key, V value) {
+        V stored = copy.apply(value);
+        int size;
+        synchronized (lock) {
+            puts++;
+            if (pending.put(key, stored) != null) {
+                coalesced++;
+            }
+            size = pending.size();
+        }
+        if (size >= maxEntries && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * @return копия ещё не записанного значения по ключу (включая сбрасываемое прямо сейчас)
+     */
+    public Optional<V> get(K key) {
+        V v;
+        synchronized (lock) {
+            v = pending.get(key);
+            if (v == null) v = inFlight.get(key);
+        }
+        return Optional.ofNullable(v).map(copy);
+    }
+
+    /**
+     * @return копии всех ещё не записанных значений; более новые перекрывают сбрасываемые
+     */
+    public Collection<V> values() {
+        Collection<V> all;
+        synchronized (lock) {
+            if (inFlight.isEmpty()) {
+                all = new ArrayList<>(pending.values());
+            } else {
+                Map<K, V> merged = new LinkedHashMap<>(inFlight);
+                merged.putAll(pending);
+                all = merged.values();
+            }
+        }
+        List<V> out = new ArrayList<>(all.size());
+        for (V v : all) out.add(copy.apply(v));
+        return out;
+    }
+
+    /** @return {@code true}, если незаписанных значений нет */
+    public boolean isEmpty() {
+        synchronized (lock) {
+            return pending.isEmpty() && inFlight.isEmpty();
+        }
+    }
+
+    /**
+     * Убирает ключ из буфера. Дожидается текущего сброса, чтобы после возврата
+     * значение гарантированно не было записано позже (например, при удалении объекта).
+     */
+    public void remove(K key) {
+        flushLock.lock();
+        try {
+            synchronized (lock) {
+                pending.remove(key);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Синхронно сбрасывает всё накопленное в {@code sink}.
+     * Исключение получателя пробрасывается вызывающему; значения пачки при этом
+     * считаются обработанными (повторять их — забота получателя).
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            flushRequested.set(false);
+            Map<K, V> taken;
+            synchronized (lock) {
+                if (pending.isEmpty()) return;
+                taken = pending;
+                inFlight = taken;
+                pending = new LinkedHashMap<>();
+            }
+            // отложенная карта больше не меняется; получатель может менять значения
+            // пачки (например, версию), поэтому ему отдаются копии
+            List<V> batch = new ArrayList<>(taken.size());
+            for (V v : taken.values()) batch.add(copy.apply(v));
+            try {
+                sink.accept(batch);
+            } finally {
+                synchronized (lock) {
+                    inFlight = Map.of();
+                    flushes++;
+                    flushed += batch.size();
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /** @return количество принятых изменений */
+    public long puts() {
+        synchronized (lock) { return puts; }
+    }
+
+    /** @return сколько изменений было поглощено более поздними изменениями того же ключа */
+    public long coalesced() {
+        synchronized (lock) { return coalesced; }
+    }
+
+    /** @return количество выполненных сбросов */
+    public long flushes() {
+        synchronized (lock) { return flushes; }
+    }
+
+    /** @return количество значений, переданных получателю */
+    public long flushed() {
+        synchronized (lock) { return flushed; }
+    }
+
+    /** @return текущее количество незаписанных ключей */
+    public int size() {
+        synchronized (lock) { return pending.size() + inFlight.size(); }
+    }
+
+    /**
+     * Останавливает фоновый сброс и записывает всё оставшееся.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /** Фоновый сброс: ошибка не должна останавливать планировщик. */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.err.println("Ошибка отложенной записи: " + e.getMessage());
+        }
+    }
+}
@@ -1,20 +1,33 @@
 package market.service.jdbc;
 
 import market.domain.Category;
+import market.domain.ImportReport;
 import market.domain.Product;
 import market.exception.EntityNotFoundException;
+import market.exception.OptimisticLockException;
 import market.exception.PersistenceException;
 import market.exception.ValidationException;
 import market.repo.ProductRepository;
+import market.repo.jdbc.ProductCopyJdbc;
 import market.service.CatalogService;
 import market.service.MetricsService;
+import market.service.WriteBehindBuffer;
 import market.cache.LRUCache;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -24,12 +37,33 @@ import java.util.stream.Collectors;
  * <p>
  * Отвечает за бизнес-логику:
  * валидацию, поиск/фильтрацию, пагинацию, обновление метрик и работу с кэшем.
+ * <p>
+ * В режиме отложенной записи ({@code flushIntervalMs > 0}) {@link #update(Product)} не идёт
+ * в БД сразу: изменение кладётся в {@link WriteBehindBuffer}, где повторные изменения того же
+ * товара объединяются, и фоновый поток записывает их пачкой через {@code saveAll}.
+ * Чтение ({@link #get(long)}, {@link #listAll()}, {@link #search}) видит незаписанные значения;
+ * пока буфер не пуст, поиск идёт мимо кэша. {@link #close()} записывает всё оставшееся.
+ * Существование товара и версия проверяются в {@link #update(Product)} сразу; если БД
+ * всё же отклонит запись позже (товар успели удалить или изменить), обновление попадает
+ * в счётчик {@code rejected} метрик и в {@link #rejectedUpdates()}.
  */
-public class ProductServiceJdbc implements CatalogService {
+public class ProductServiceJdbc implements CatalogService, AutoCloseable {
+
+    /** Сколько «горячих» и часто промахивающихся ключей кэша показывать в метриках. */
+    private static final int CACHE_TOP_KEYS = 5;
+    /** Сколько последних отклонённых отложенных обновлений хранить. */
+    private static final int REJECTED_KEEP = 100;
 
     private final ProductRepository repo;
     private final MetricsService metrics;
     private final LRUCache<String, List<Long>> cache;
+    private final ProductCopyJdbc copy;
+    private final WriteBehindBuffer<Long, Product> writeBehind;
+    /** Кэш не потокобезопасен, поэтому фоновый сброс лишь помечает его устаревшим. */
+    private final AtomicBoolean cacheStale = new AtomicBoolean();
+    /** Последние отклонённые при фоновой записи обновления; доступ — под собственным монитором. */
+    private final Deque<Product> rejected = new ArrayDeque<>();
+    private long rejectedTotal;
 
     /**
      * @param repo    репозиторий товаров (PostgreSQL)
@@ -39,9 +73,43 @@ public class ProductServiceJdbc implements CatalogService {
     public ProductServiceJdbc(ProductRepository repo,
                               MetricsService metrics,
                               int cacheSize) {
+        this(repo, metrics, cacheSize, null);
+    }
+
+    /**
+     * @param repo      репозиторий товаров (PostgreSQL)
+     * @param metrics   сервис метрик
+     * @param cacheSize размер LRU-кэша для запросов поиска
+     * @param copy      массовая загрузка через COPY ({@code null} — импорт недоступен)
+     */
+    public ProductServiceJdbc(ProductRepository repo,
+                              MetricsService metrics,
+                              int cacheSize,
+                              ProductCopyJdbc copy) {
+        this(repo, metrics, cacheSize, copy, 0, 0);
+    }
+
+    /**
+     * @param repo            репозиторий товаров (PostgreSQL)
+     * @param metrics         сервис метрик
+     * @param cacheSize       размер LRU-кэша для запросов поиска
+     * @param copy            массовая загрузка через COPY ({@code null} — импорт недоступен)
+     * @param flushIntervalMs период сброса отложенных обновлений, мс ({@code <= 0} — запись сразу)
+     * @param flushMaxEntries количество отложенных товаров, при котором сброс запускается досрочно
+     */
+    public ProductServiceJdbc(ProductRepository repo,
+                              MetricsService metrics,
+                              int cacheSize,
+                              ProductCopyJdbc copy,
+                              long flushIntervalMs,
+                              int flushMaxEntries) {
         this.repo = repo;
         this.metrics = metrics;
-        this.cache = new LRUCache<>(cacheSize);
+        this.cache = new LRUCache<>(cacheSize, List::size);
+        this.copy = copy;
+        this.writeBehind = flushIntervalMs > 0
+                ? new WriteBehindBuffer<>(this::writeBuffered, Product::new, flushIntervalMs, flushMaxEntries)
+                : null;
     }
 
     @Override
@@ -58,10 +126,46 @@ public class ProductServiceJdbc implements CatalogService {
         return saved;
     }
 
+    @Override
+    public List<Product> saveAll(List<Product> products) {
+        for (Product p : products) {
+            validateProduct(p);
+        }
+        flushPending();
+
+        long t0 = System.currentTimeMillis();
+        List<Product> saved = repo.saveAll(products);
+        long dt = System.currentTimeMillis() - t0;
+
+        updateMetrics(dt);
+        clearCache();
+
+        return saved;
+    }
+
+    @Override
+    public int upsertAll(List<Product> products) {
+        for (Product p : products) {
+            validateProduct(p);
+        }
+        flushPending();
+
+        long t0 = System.currentTimeMillis();
+        int written = repo.upsertAll(products);
+        long dt = System.currentTimeMillis() - t0;
+
+        updateMetrics(dt);
+        if (written > 0) {
+            clearCache();
+        }
+
+        return written;
+    }
+
     @Override
     public Optional<Product> get(long id) {
         long t0 = System.currentTimeMillis();
-        Optional<Product> result = repo.findById(id);
+        Optional<Product> result = find(id);
         long dt = System.currentTimeMillis() - t0;
         updateMetrics(dt);
         return result;
@@ -74,10 +178,19 @@ public class ProductServiceJdbc implements CatalogService {
         }
         validateProduct(p);
 
-        if (repo.findById(p.getId()).isEmpty()) {
-            throw new EntityNotFoundException("Товар не найден: id=" + p.getId());
+        if (writeBehind != null) {
+            // проверяем сразу, иначе ошибка всплыла бы только в фоновом потоке
+            Product current = find(p.getId())
+                    .orElseThrow(() -> new EntityNotFoundException("Товар не найден: id=" + p.getId()));
+            if (current.getVersion() != p.getVersion()) {
+                throw new OptimisticLockException("Товар id=" + p.getId() + " был изменён другим пользователем");
+            }
+            writeBehind.put(p.getId(), p);
+            updateWriteBehindMetrics(writeBehind.size(), writeBehind.flushed());
+            return p;
         }
 
+        // существование и конфликт версий проверяет сам UPDATE (см. ProductRepositoryJdbc)
         long t0 = System.currentTimeMillis();
         Product saved = repo.save(p);
         long dt = System.currentTimeMillis() - t0;
@@ -89,6 +202,9 @@ public class ProductServiceJdbc implements CatalogService {
 
     @Override
     public boolean delete(long id) {
+        if (writeBehind != null) {
+            writeBehind.remove(id);
+        }
         long t0 = System.currentTimeMillis();
         boolean result = repo.deleteById(id);
         long dt = System.currentTimeMillis() - t0;
@@ -103,7 +219,7 @@ public class ProductServiceJdbc implements CatalogService {
     @Override
     public List<Product> listAll() {
         long t0 = System.currentTimeMillis();
-        List<Product> list = repo.findAll();
+        List<Product> list = withPending(repo.findAll());
         long dt = System.currentTimeMillis() - t0;
         updateMetrics(dt);
         return list;
@@ -123,23 +239,37 @@ public class ProductServiceJdbc implements CatalogService {
 
         String key = cacheKey(q, brand, category, minPrice, maxPrice, onlyActive);
         long t0 = System.currentTimeMillis();
+        if (cacheStale.getAndSet(false)) {
+            clearCache();
+        }
 
         List<Product> result;
+        if (writeBehind != null && !writeBehind.isEmpty()) {
+            // кэш не знает о незаписанных изменениях — считаем напрямую и не кэшируем
+            result = withPending(repo.findAll()).stream()
+                    .filter(buildPredicate(q, brand, category, minPrice, maxPrice, onlyActive))
+                    .collect(Collectors.toList());
+            metrics.setLastQueryMillis(System.currentTimeMillis() - t0);
+            return result;
+        }
+
         var cached = cache.getIfPresent(key);
 
         if (cached.isPresent()) {
             result = idsToProducts(cached.get());
         } else {
+            long loadStart = System.nanoTime();
             Predicate<Product> pred = buildPredicate(q, brand, category, minPrice, maxPrice, onlyActive);
             result = repo.findAll().stream()
                     .filter(pred)
                     .collect(Collectors.toList());
             cache.put(key, result.stream().map(Product::getId).collect(Collectors.toList()));
+            cache.recordLoad(System.nanoTime() - loadStart);
         }
 
         long dt = System.currentTimeMillis() - t0;
         metrics.setLastQueryMillis(dt);
-        metrics.setCache(cache.getHits(), cache.getMisses());
+        metrics.setCacheStats(cache.stats(CACHE_TOP_KEYS));
         metrics.setProductCount(repo.findAll().size());
 
         return result;
@@ -164,6 +294,7 @@ public class ProductServiceJdbc implements CatalogService {
 
     @Override
     public void persist() {
+        flushPending();
         try {
             repo.flush();
         } catch (IOException e) {
@@ -171,6 +302,139 @@ public class ProductServiceJdbc implements CatalogService {
         }
     }
 
+    @Override
+    public ImportReport importCsv(Path file) throws IOException {
+        if (copy == null) {
+            throw new PersistenceException("Массовый импорт недоступен: не настроен COPY");
+        }
+        flushPending();
+        ImportReport report;
+        try (Reader in = Files.newBufferedReader(file)) {
+            report = copy.importCsv(in);
+        }
+        updateMetrics(report.millis());
+        clearCache();
+        metrics.setImport(report);
+        return report;
+    }
+
+    @Override
+    public long exportCsv(OutputStream out,
+                          String q,
+                          String brand,
+                          Category category,
+                          Double minPrice,
+                          Double maxPrice,
+                          Boolean onlyActive) throws IOException {
+        if (copy == null) {
+            throw new PersistenceException("Выгрузка недоступна: не настроен COPY");
+        }
+        if (minPrice != null && maxPrice != null && minPrice > maxPrice) {
+            throw new ValidationException("Минимальная цена не может быть больше максимальной");
+        }
+        flushPending();
+        long t0 = System.currentTimeMillis();
+        long rows = copy.exportCsv(out, q, brand, category, minPrice, maxPrice, onlyActive);
+        metrics.setLastQueryMillis(System.currentTimeMillis() - t0);
+        return rows;
+    }
+
+    /**
+     * @return последние отложенные обновления, которые БД отклонила при фоновой записи
+     *         (не больше {@value #REJECTED_KEEP}, от старых к новым)
+     */
+    public List<Product> rejectedUpdates() {
+        synchronized (rejected) {
+            List<Product> out = new ArrayList<>(rejected.size());
+            for (Product p : rejected) out.add(new Product(p));
+            return out;
+        }
+    }
+
+    /**
+     * Записывает отложенные обновления и останавливает фоновый сброс.
+     */
+    @Override
+    public void close() {
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+    }
+
+    /**
+     * Получатель пачки из {@link WriteBehindBuffer}: пишет её одной транзакцией, а если
+     * пачка отклонена (конфликт версий, удалённый товар) — по одному, чтобы одна ошибка
+     * не потеряла остальные изменения. Отклонённые товары запоминаются в {@link #rejectedUpdates()}.
+     */
+    private void writeBuffered(List<Product> batch) {
+        long t0 = System.currentTimeMillis();
+        try {
+            repo.saveAll(batch);
+        } catch (RuntimeException e) {
+            for (Product p : batch) {
+                try {
+                    repo.save(p);
+                } catch (RuntimeException ex) {
+                    System.err.println("Отложенное обновление товара id=" + p.getId()
+                            + " отклонено: " + ex.getMessage());
+                    reject(p);
+                }
+            }
+        }
+        cacheStale.set(true);
+        updateMetrics(System.currentTimeMillis() - t0);
+        updateWriteBehindMetrics(writeBehind.size() - batch.size(), writeBehind.flushed() + batch.size());
+    }
+
+    private void reject(Product p) {
+        synchronized (rejected) {
+            if (rejected.size() == REJECTED_KEEP) {
+                rejected.removeFirst();
+            }
+            rejected.addLast(p);
+            rejectedTotal++;
+        }
+    }
+
+    private void updateWriteBehindMetrics(int pending, long flushed) {
+        long rejectedCount;
+        synchronized (rejected) {
+            rejectedCount = rejectedTotal;
+        }
+        metrics.setWriteBehind(pending, writeBehind.coalesced(), flushed, rejectedCount);
+    }
+
+    private void flushPending() {
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
+    }
+
+    private Optional<Product> find(long id) {
+        if (writeBehind != null) {
+            Optional<Product> pending = writeBehind.get(id);
+            if (pending.isPresent()) {
+                return pending;
+            }
+        }
+        return repo.findById(id);
+    }
+
+    /** Подменяет товары из БД их ещё не записанными версиями. */
+    private List<Product> withPending(List<Product> fromDb) {
+        if (writeBehind == null || writeBehind.isEmpty()) {
+            return fromDb;
+        }
+        Map<Long, Product> byId = new LinkedHashMap<>();
+        for (Product p : fromDb) {
+            byId.put(p.getId(), p);
+        }
+        for (Product p : writeBehind.values()) {
+            byId.replace(p.getId(), p);
+        }
+        return new ArrayList<>(byId.values());
+    }
+
     private void validateProduct(Product p) {
         if (p.getName() == null || p.getName().isBlank()) {
             throw new ValidationException("Название товара обязательно");
@@ -190,7 +454,7 @@ public class ProductServiceJdbc implements CatalogService {
 
     private void clearCache() {
         cache.clear();
-        metrics.setCache(cache.getHits(), cache.getMisses());
+        metrics.setCacheStats(cache.stats(CACHE_TOP_KEYS));
     }
 
     private Predicate<Product> buildPredicate(String q,
@@ -253,7 +517,7 @@ public class ProductServiceJdbc implements CatalogService {
     private List<Product> idsToProducts(List<Long> ids) {
         List<Product> result = new ArrayList<>(ids.size());
         for (Long id : ids) {
-            repo.findById(id).ifPresent(result::add);
+            find(id).ifPresent(result::add);
         }
         return result;
     }
@@ -1,28 +1,75 @@
 package market.service.jdbc;
 
+import market.cache.BloomFilter;
+import market.cache.TtlCache;
 import market.domain.Role;
 import market.domain.User;
 import market.exception.PersistenceException;
 import market.exception.ValidationException;
 import market.repo.UserRepository;
 import market.service.AuthService;
+import market.service.SessionStore;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Сервис аутентификации и управления пользователями,
  * работающий поверх JDBC-репозитория.
  * <p>
- * Хранит "текущего пользователя" в памяти процесса (для консольного приложения).
+ * Хранит "текущего пользователя" в памяти процесса (для консольного приложения);
+ * остальные клиенты работают через сессии {@link SessionStore}.
+ * <p>
+ * Чтобы вход и проверка имени при регистрации не ходили в БД каждый раз, найденные
+ * пользователи кэшируются в {@link TtlCache}, а все имена — в {@link BloomFilter}:
+ * если фильтр говорит «нет», {@link #exists(String)} отвечает {@code false} без запроса.
+ * Фильтр перестраивается из БД фоновым потоком раз в {@code ttl}, так что пользователь,
+ * созданный другим процессом, становится виден не позже чем через {@code ttl}; повторную
+ * регистрацию в этом окне всё равно не пропустит уникальный индекс по {@code username}.
+ * Пока новый фильтр строится, {@link #exists(String)} отвечает по старому.
  */
-public class UserServiceJdbc implements AuthService {
+public class UserServiceJdbc implements AuthService, AutoCloseable {
+
+    /** Доля ложных «возможно, есть» у фильтра имён. */
+    private static final double FILTER_FPP = 0.01;
 
     private final UserRepository repo;
+    private final TtlCache<String, User> cache;
+    private final SessionStore sessions;
+    private final ScheduledExecutorService filterRefresher;
+    private volatile BloomFilter usernames;
+    /** Имена, зарегистрированные во время перестроения фильтра; {@code null} — перестроения нет. */
+    private List<String> registeredDuringRebuild;
     private User currentUser;
 
     public UserServiceJdbc(UserRepository repo) {
+        this(repo, 10_000, Duration.ofMinutes(5), Duration.ofMinutes(30));
+    }
+
+    /**
+     * @param repo        репозиторий пользователей
+     * @param cacheSize   максимальное количество пользователей в кэше
+     * @param ttl         время жизни записи кэша и период перестроения фильтра имён
+     * @param sessionIdle время простоя, после которого сессия закрывается
+     */
+    public UserServiceJdbc(UserRepository repo, int cacheSize, Duration ttl, Duration sessionIdle) {
         this.repo = repo;
+        this.cache = new TtlCache<>(cacheSize, ttl);
+        this.sessions = new SessionStore(sessionIdle);
+        rebuildFilter();
+        this.filterRefresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "users-filter-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        long periodMs = Math.max(1, ttl.toMillis());
+        filterRefresher.scheduleWithFixedDelay(this::rebuildFilterQuietly, periodMs, periodMs, TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -35,7 +82,7 @@ public class UserServiceJdbc implements AuthService {
             throw new ValidationException("Пароль не может быть пустым");
         }
 
-        return repo.findByUsername(username)
+        return findUser(username)
                 .filter(u -> u.getPassword().equals(password))
                 .map(u -> {
                     currentUser = u;
@@ -53,8 +100,56 @@ public class UserServiceJdbc implements AuthService {
         return Optional.ofNullable(currentUser);
     }
 
+    @Override
+    public Optional<String> openSession(String username, String password) {
+        if (username == null || username.isBlank() || password == null || password.isBlank()) {
+            return Optional.empty();
+        }
+        return findUser(username)
+                .filter(u -> u.getPassword().equals(password))
+                .map(sessions::open);
+    }
+
+    @Override
+    public Optional<User> current(String token) {
+        return sessions.get(token);
+    }
+
+    @Override
+    public void logout(String token) {
+        sessions.invalidate(token);
+    }
+
     @Override
     public void register(String username, String password, Role role) {
+        User u = newUser(username, password, role);
+
+        // проверка и вставка — один запрос: занятое имя видно по пустому RETURNING
+        boolean created;
+        try {
+            created = repo.register(u);
+        } finally {
+            cache.invalidate(u.getUsername());
+        }
+        if (!created) {
+            throw new ValidationException("Пользователь с таким именем уже существует");
+        }
+        remember(List.of(u));
+    }
+
+    @Override
+    public int registerAll(List<User> users) {
+        List<User> batch = new ArrayList<>(users.size());
+        for (User u : users) {
+            batch.add(newUser(u.getUsername(), u.getPassword(), u.getRole()));
+        }
+        int created = repo.registerAll(batch);
+        batch.forEach(u -> cache.invalidate(u.getUsername()));
+        remember(batch.stream().filter(u -> u.getId() != null).toList());
+        return created;
+    }
+
+    private static User newUser(String username, String password, Role role) {
         if (username == null || username.isBlank()) {
             throw new ValidationException("Имя пользователя не может быть пустым");
         }
@@ -67,19 +162,21 @@ public class UserServiceJdbc implements AuthService {
             throw new ValidationException("Роль пользователя обязательна");
         }
 
-        if (repo.exists(username)) {
-            throw new ValidationException("Пользователь с таким именем уже существует");
-        }
-
         User u = new User();
         u.setUsername(username.trim());
         u.setPassword(password);
         u.setRole(role);
+        return u;
+    }
 
-        try {
-            repo.saveUser(u);
-        } catch (PersistenceException e) {
-            throw e;
+    /** Добавляет имена созданных пользователей в фильтр. */
+    private void remember(List<User> created) {
+        // под тем же монитором, что и подмена фильтра, чтобы новое имя не потерялось
+        synchronized (this) {
+            for (User u : created) {
+                usernames.add(u.getUsername());
+                if (registeredDuringRebuild != null) registeredDuringRebuild.add(u.getUsername());
+            }
         }
     }
 
@@ -88,6 +185,12 @@ public class UserServiceJdbc implements AuthService {
         if (username == null || username.isBlank()) {
             return false;
         }
+        if (!usernames.mightContain(username)) {
+            return false;
+        }
+        if (cache.get(username).isPresent()) {
+            return true;
+        }
         return repo.exists(username);
     }
 
@@ -99,4 +202,56 @@ public class UserServiceJdbc implements AuthService {
             throw new PersistenceException("Ошибка сохранения пользователей: " + e.getMessage());
         }
     }
+
+    private Optional<User> findUser(String username) {
+        Optional<User> cached = cache.get(username);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        Optional<User> found = repo.findByUsername(username);
+        found.ifPresent(u -> cache.put(username, u));
+        return found;
+    }
+
+    /** Останавливает фоновое перестроение фильтра и истечение сессий. */
+    @Override
+    public void close() {
+        filterRefresher.shutdownNow();
+        sessions.close();
+    }
+
+    private void rebuildFilterQuietly() {
+        try {
+            rebuildFilter();
+        } catch (RuntimeException e) {
+            System.err.println("Failed to rebuild username filter: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Строит фильтр заново. Чтение всех имён из БД идёт без монитора, поэтому не держит
+     * {@link #exists(String)} и регистрацию; имена, зарегистрированные за это время,
+     * добавляются в новый фильтр перед подменой.
+     */
+    void rebuildFilter() {
+        synchronized (this) {
+            registeredDuringRebuild = new ArrayList<>();
+        }
+        BloomFilter f;
+        try {
+            List<String> all = repo.findAllUsernames();
+            f = new BloomFilter(Math.max(1024, all.size() * 2L), FILTER_FPP);
+            all.forEach(f::add);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                registeredDuringRebuild = null;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            registeredDuringRebuild.forEach(f::add);
+            registeredDuringRebuild = null;
+            usernames = f;
+        }
+    }
 }
@@ -10,32 +10,52 @@ import market.db.MigrationRunner;
 import market.domain.*;
 import market.exception.AuthorizationException;
 import market.exception.EntityNotFoundException;
+import market.exception.OptimisticLockException;
 import market.exception.PersistenceException;
 import market.exception.ValidationException;
+import market.repo.AuditRepository;
+import market.repo.IdGenerator;
+import market.repo.SegmentedAuditRepository;
+import market.repo.jdbc.AuditPartitionMaintenance;
 import market.repo.jdbc.AuditRepositoryJdbc;
+import market.repo.jdbc.AuditRollupRepositoryJdbc;
+import market.repo.jdbc.ProductCopyJdbc;
 import market.repo.jdbc.ProductRepositoryJdbc;
+import market.repo.jdbc.SequenceBlockSource;
 import market.repo.jdbc.UserRepositoryJdbc;
+import market.service.AsyncAuditService;
+import market.service.AuditRollupService;
 import market.service.AuditService;
 import market.service.MetricsService;
 import market.service.MetricsServiceImpl;
-import market.service.jdbc.AuditServiceJdbc;
 import market.service.jdbc.ProductServiceJdbc;
 import market.service.jdbc.UserServiceJdbc;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 public class ConsoleApp {
 
     private final AuthController auth;
     private final ProductController products;
     private final AuditService audit;
+    private final AuditRollupService auditStats;
     private final MetricsService metrics;
     private final Scanner in = new Scanner(System.in);
 
@@ -59,6 +79,8 @@ public class ConsoleApp {
         cfg.setUsername(props.getProperty("db.username"));
         cfg.setPassword(props.getProperty("db.password"));
         cfg.setMaximumPoolSize(5);
+        // pgjdbc объединяет пакетные INSERT в многострочные (см. ProductRepositoryJdbc.saveAll)
+        cfg.addDataSourceProperty("reWriteBatchedInserts", "true");
 
         DataSource ds = new HikariDataSource(cfg);
 
@@ -75,15 +97,45 @@ public class ConsoleApp {
         System.out.println("Миграции БД применены успешно.\n");
 
         // 5. Репозитории
-        var productRepo = new ProductRepositoryJdbc(ds);
+        // id товаров выдаются на клиенте блоками из seq_product_id (см. 06-product-id-blocks.yaml)
+        var productIds  = new IdGenerator(new SequenceBlockSource(ds, props.getProperty("db.schema"), "seq_product_id"));
+        var productRepo = new ProductRepositoryJdbc(ds, productIds);
         var userRepo    = new UserRepositoryJdbc(ds);
-        var auditRepo   = new AuditRepositoryJdbc(ds);
+        // audit.storage=segments — двоичные сегменты на диске вместо таблицы audit_log
+        boolean auditInSegments = "segments".equals(props.getProperty("audit.storage", "jdbc"));
+        AuditRepository auditRepo = auditInSegments
+                ? new SegmentedAuditRepository(Path.of(props.getProperty("audit.segmentsDir", "audit-segments")))
+                : new AuditRepositoryJdbc(ds);
 
         // 6. Сервисы
         int cacheSize = Integer.parseInt(props.getProperty("cache.size", "100"));
-        var productService = new ProductServiceJdbc(productRepo, metrics, cacheSize);
+        long flushIntervalMs = Long.parseLong(props.getProperty("writeBehind.flushIntervalMs", "0"));
+        int flushMaxEntries = Integer.parseInt(props.getProperty("writeBehind.maxEntries", "500"));
+        var productService = new ProductServiceJdbc(productRepo, metrics, cacheSize, new ProductCopyJdbc(ds),
+                flushIntervalMs, flushMaxEntries);
+        // отложенные обновления записываются и при выходе через System.exit
+        Runtime.getRuntime().addShutdownHook(new Thread(productService::close, "product-service-shutdown"));
         var authService    = new UserServiceJdbc(userRepo);
-        this.audit         = new AuditServiceJdbc(auditRepo);
+        var asyncAudit     = new AsyncAuditService(auditRepo, metrics,
+                Integer.parseInt(props.getProperty("audit.queueCapacity", "10000")),
+                Long.parseLong(props.getProperty("audit.flushIntervalMs", "200")),
+                Integer.parseInt(props.getProperty("audit.maxBatch", "500")),
+                AsyncAuditService.OverflowPolicy.valueOf(props.getProperty("audit.overflow", "DROP_OLDEST")));
+        // поминутные счётчики событий в audit_rollup — для статистики без GROUP BY по журналу
+        this.auditStats    = new AuditRollupService(asyncAudit, new AuditRollupRepositoryJdbc(ds),
+                Long.parseLong(props.getProperty("audit.rollup.flushIntervalMs", "5000")),
+                Boolean.parseBoolean(props.getProperty("audit.rollup.perUser", "true")));
+        this.audit         = auditStats;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            auditStats.close();
+            asyncAudit.close();
+            if (auditRepo instanceof SegmentedAuditRepository segments) segments.close();
+        }, "audit-shutdown"));
+        if (!auditInSegments) {
+            new AuditPartitionMaintenance(ds,
+                    Integer.parseInt(props.getProperty("audit.partitionsAhead", "3")),
+                    Integer.parseInt(props.getProperty("audit.retentionMonths", "12"))).start();
+        }
 
         // 7. Контроллеры
         this.auth = new ConsoleAuthController(authService);
@@ -140,7 +192,10 @@ public class ConsoleApp {
                 "5) Поиск / фильтрация (с пагинацией)\n" +
                 "6) Метрики\n" +
                 "7) Выйти из аккаунта\n" +
-                "8) Сохранить данные\n");
+                "8) Сохранить данные\n" +
+                "9) Импорт товаров из CSV (только админ)\n" +
+                "10) Экспорт товаров в CSV (с фильтрами)\n" +
+                "11) Статистика аудита за последний час\n");
         int c = askInt("Выберите пункт: ");
         try {
             switch (c) {
@@ -158,6 +213,9 @@ public class ConsoleApp {
                     products.persist();
                     println("Данные сохранены.");
                 }
+                case 9 -> { requireAdmin(user); importCsv(); }
+                case 10 -> exportCsv();
+                case 11 -> auditStatistics();
                 default -> println("Неизвестная команда.");
             }
         } catch (AuthorizationException e) {
@@ -166,6 +224,8 @@ public class ConsoleApp {
             println("Не найдено: " + e.getMessage());
         } catch (ValidationException e) {
             println("Ошибка валидации: " + e.getMessage());
+        } catch (OptimisticLockException e) {
+            println("Конфликт изменений: " + e.getMessage() + ". Загрузите товар заново.");
         } catch (PersistenceException e) {
             println("Ошибка сохранения данных: " + e.getMessage());
         } catch (IOException e) {
@@ -173,6 +233,19 @@ public class ConsoleApp {
         }
     }
 
+    private void auditStatistics() {
+        LocalDateTime to = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        var rows = auditStats.query(null, null, to.minusHours(1), to, Duration.ofHours(1));
+        if (rows.isEmpty()) {
+            println("(событий нет)");
+            return;
+        }
+        // интервал может захватить две часовые корзины — суммируем по типу действия
+        Map<AuditAction, Long> byAction = new EnumMap<>(AuditAction.class);
+        rows.forEach(r -> byAction.merge(r.action(), r.count(), Long::sum));
+        byAction.forEach((action, n) -> println("%-8s %d".formatted(action, n)));
+    }
+
     private void registerUser() {
         println("Регистрация нового пользователя");
         String username;
@@ -212,29 +285,58 @@ public class ConsoleApp {
     }
 
     private void searchWithPagination() {
+        var f = askFilter();
+        long started = System.nanoTime();
+        var res = products.search(
+                f.q(),
+                f.brand(),
+                f.category(),
+                f.min(),
+                f.max(),
+                f.onlyActive(), 0,
+                Integer.MAX_VALUE
+        );
+        long elapsed = System.nanoTime() - started;
+        paginateAndShow(res);
+        audit.append(resultEvent(AuditAction.SEARCH, "%s size=%d".formatted(f, res.size()), res.size(), elapsed));
+    }
+
+    private void exportCsv() throws IOException {
+        String file = ask("Путь к CSV-файлу: ").trim();
+        var f = askFilter();
+        long rows;
+        long started = System.nanoTime();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Path.of(file)))) {
+            rows = products.exportCsv(out, f.q(), f.brand(), f.category(), f.min(), f.max(), f.onlyActive());
+        }
+        audit.append(resultEvent(AuditAction.EXPORT, "file=%s %s size=%d".formatted(file, f, rows),
+                (int) rows, System.nanoTime() - started));
+        println("Выгружено товаров: " + rows);
+    }
+
+    /** Параметры фильтрации, введённые пользователем ({@code null} — фильтр не задан). */
+    private record Filter(String q, String brand, Category category, Double min, Double max, Boolean onlyActive) {
+        @Override
+        public String toString() {
+            return "q=%s brand=%s cat=%s min=%s max=%s active=%s"
+                    .formatted(q == null ? "" : q, brand == null ? "" : brand, category, min, max, onlyActive);
+        }
+    }
+
+    private Filter askFilter() {
         String q = askDef("Название / описание содержит", "");
         String brand = askDef("Бренд содержит", "");
         String cat = askDef("Категория (или пусто)", "");
         String min = askDef("Мин. цена (или пусто)", "");
         String max = askDef("Макс. цена (или пусто)", "");
         String onlyActive = askDef("Только активные? (true/false/пусто)", "");
-        Category category = cat.isBlank() ? null : Category.valueOf(cat.toUpperCase());
-        Double minP = min.isBlank() ? null : Double.parseDouble(min);
-        Double maxP = max.isBlank() ? null : Double.parseDouble(max);
-        Boolean act = onlyActive.isBlank() ? null : Boolean.parseBoolean(onlyActive);
-        var res = products.search(
+        return new Filter(
                 q.isBlank() ? null : q,
                 brand.isBlank() ? null : brand,
-                category,
-                minP,
-                maxP,
-                act, 0,
-                Integer.MAX_VALUE
-        );
-        paginateAndShow(res);
-        audit.append(new AuditEvent(currentUser(), AuditAction.SEARCH,
-                "q=%s brand=%s cat=%s min=%s max=%s active=%s size=%d"
-                        .formatted(q, brand, category, minP, maxP, act, res.size())));
+                cat.isBlank() ? null : Category.valueOf(cat.toUpperCase()),
+                min.isBlank() ? null : Double.parseDouble(min),
+                max.isBlank() ? null : Double.parseDouble(max),
+                onlyActive.isBlank() ? null : Boolean.parseBoolean(onlyActive));
     }
 
     private void paginateAndShow(List<Product> list) {
@@ -270,8 +372,9 @@ public class ConsoleApp {
         p.setPrice(Double.parseDouble(ask("Цена: ")));
         p.setDescription(ask("Описание: "));
         p.setActive(true);
+        long started = System.nanoTime();
         var saved = products.create(p);
-        audit.append(new AuditEvent(currentUser(), AuditAction.CREATE, "id=" + saved.getId()));
+        audit.append(productEvent(AuditAction.CREATE, saved.getId(), saved.getName(), System.nanoTime() - started));
         println("Создан товар: " + saved);
     }
 
@@ -300,20 +403,33 @@ public class ConsoleApp {
         p.setPrice(Double.parseDouble(price));
         p.setDescription(desc);
         p.setActive(Boolean.parseBoolean(act));
+        long started = System.nanoTime();
         products.update(p);
-        audit.append(new AuditEvent(currentUser(), AuditAction.UPDATE, "id=" + p.getId()));
+        audit.append(productEvent(AuditAction.UPDATE, p.getId(), p.getName(), System.nanoTime() - started));
         println("Товар обновлён.");
     }
 
     private void delete() {
         long id = askLong("ID товара: ");
+        long started = System.nanoTime();
         boolean ok = products.delete(id);
         if (ok) {
-            audit.append(new AuditEvent(currentUser(), AuditAction.DELETE, "id=" + id));
+            audit.append(productEvent(AuditAction.DELETE, id, null, System.nanoTime() - started));
             println("Товар удалён.");
         } else println("Товар не найден.");
     }
 
+    private void importCsv() throws IOException {
+        String file = ask("Путь к CSV-файлу: ").trim();
+        long started = System.nanoTime();
+        var report = products.importCsv(Path.of(file));
+        audit.append(resultEvent(AuditAction.IMPORT,
+                "file=%s rows=%d rejected=%d".formatted(file, report.imported(), report.rejected()),
+                (int) report.imported(), System.nanoTime() - started));
+        println("Импорт завершён: " + report);
+        report.errors().forEach(e -> println("  " + e));
+    }
+
     private void requireAdmin(User u) {
         if (u.getRole() != Role.ADMIN)
             throw new AuthorizationException("Только для администратора");
@@ -323,6 +439,23 @@ public class ConsoleApp {
         return auth.current().map(User::getUsername).orElse("-");
     }
 
+    /** Событие по одному товару: id и название пишутся в отдельные столбцы журнала. */
+    private AuditEvent productEvent(AuditAction action, long productId, String productName, long elapsedNanos) {
+        AuditEvent e = new AuditEvent(currentUser(), action, "id=" + productId);
+        e.setProductId(productId);
+        e.setProductName(productName);
+        e.setLatencyMs(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        return e;
+    }
+
+    /** Событие операции над набором товаров (поиск, импорт, экспорт) с размером результата. */
+    private AuditEvent resultEvent(AuditAction action, String details, int resultSize, long elapsedNanos) {
+        AuditEvent e = new AuditEvent(currentUser(), action, details);
+        e.setResultSize(resultSize);
+        e.setLatencyMs(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        return e;
+    }
+
     private static void println(String s) {
         System.out.println(s);
     }
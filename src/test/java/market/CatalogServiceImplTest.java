@@ -3,20 +3,23 @@ package market;
 
 import market.domain.Category;
 import market.domain.Product;
+import market.repo.IdGenerator;
 import market.repo.InMemoryProductRepository;
 import market.service.CatalogServiceImpl;
 import market.service.MetricsServiceImpl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 import static org.junit.jupiter.api.Assertions.*;
 public class CatalogServiceImplTest {
     private CatalogServiceImpl service;
     @BeforeEach
-    void setup() throws IOException {
-        InMemoryProductRepository repo = new InMemoryProductRepository();
+    void setup(@TempDir Path dir) throws IOException {
+        InMemoryProductRepository repo = new InMemoryProductRepository(dir.resolve("products.csv"), new IdGenerator(0));
         MetricsServiceImpl metrics = new MetricsServiceImpl();
         service = new CatalogServiceImpl(repo, metrics);
         service.create(new Product(0L,"iPhone 14","Apple", Category.ELECTRONICS, 999.0,"Smartphone"));
@@ -45,4 +48,13 @@ public class CatalogServiceImplTest {
         assertEquals(0, page2.size());
         assertNotEquals(page0.get(0).getId(), page1.get(0).getId());
     }
+    @Test
+    void saveAllAssignsIds(){
+        List<Product> batch = List.of(
+                new Product(0L,"Tea","Ahmad", Category.FOOD, 5.0,"Leaves"),
+                new Product(0L,"Ball","Adidas", Category.SPORTS, 30.0,"Football"));
+        service.saveAll(batch);
+        assertTrue(batch.stream().allMatch(p -> p.getId() > 0));
+        assertEquals(1, service.search("tea", null, null, null, null, true).size());
+    }
 }
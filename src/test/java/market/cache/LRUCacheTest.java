@@ -0,0 +1,70 @@
+package market.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LRUCacheTest {
+    @Test
+    void countsEvictionsAndWeight(){
+        LRUCache<String, List<Long>> cache = new LRUCache<>(2, List::size);
+        cache.put("a", List.of(1L, 2L));
+        cache.put("b", List.of(3L));
+        cache.put("c", List.of(4L, 5L, 6L));
+
+        CacheStats stats = cache.stats(3);
+        assertEquals(1, stats.evictions());
+        assertEquals(2, stats.size());
+        assertEquals(4, stats.weight());
+        assertFalse(cache.containsKey("a"));
+    }
+
+    @Test
+    void tracksHotAndMissedKeys(){
+        LRUCache<String, Integer> cache = new LRUCache<>(10);
+        cache.put("hot", 1);
+        for (int i = 0; i < 20; i++) cache.getIfPresent("hot");
+        for (int i = 0; i < 7; i++) cache.getIfPresent("cold");
+        cache.getIfPresent("rare");
+        cache.recordLoad(2_000_000);
+
+        CacheStats stats = cache.stats(1);
+        assertEquals(20, stats.hits());
+        assertEquals(8, stats.misses());
+        assertEquals("hot", stats.hottest().get(0).key());
+        assertEquals(20, stats.hottest().get(0).hits());
+        assertEquals("cold", stats.mostMissed().get(0).key());
+        assertEquals(7, stats.mostMissed().get(0).misses());
+        assertEquals(2.0, stats.avgLoadMillis(), 1e-9);
+    }
+
+    @Test
+    void keepsRunningWeightThroughReplaceRemoveAndClear(){
+        LRUCache<String, List<Long>> cache = new LRUCache<>(3, List::size);
+        cache.put("a", List.of(1L, 2L));
+        cache.put("b", List.of(3L));
+        assertEquals(3, cache.weight());
+
+        cache.put("a", List.of(1L, 2L, 3L, 4L)); // замена значения
+        assertEquals(5, cache.weight());
+        cache.putIfAbsent("a", List.of(9L));     // ключ уже есть — вес не меняется
+        assertEquals(5, cache.weight());
+
+        cache.put("c", List.of(5L));
+        cache.put("d", List.of(6L, 7L));          // вытесняется "b"
+        assertEquals(7, cache.weight());
+
+        assertEquals(List.of(1L, 2L, 3L, 4L), cache.remove("a"));
+        assertNull(cache.remove("missing"));
+        assertEquals(3, cache.weight());
+        assertEquals(3, cache.stats(0).weight());
+
+        assertThrows(UnsupportedOperationException.class, () -> cache.values().clear());
+        assertThrows(UnsupportedOperationException.class, () -> cache.merge("c", List.of(), (x, y) -> x));
+
+        cache.clear();
+        assertEquals(0, cache.weight());
+    }
+}
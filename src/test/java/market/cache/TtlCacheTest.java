@@ -0,0 +1,47 @@
+package market.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TtlCacheTest {
+    @Test
+    void expiresEntriesAfterTtl(){
+        AtomicLong now = new AtomicLong();
+        TtlCache<String, Integer> cache = new TtlCache<>(10, Duration.ofSeconds(1), now::get);
+        cache.put("a", 1);
+        assertEquals(1, cache.get("a").orElseThrow());
+
+        now.addAndGet(Duration.ofMillis(1500).toNanos());
+        assertTrue(cache.get("a").isEmpty());
+        assertEquals(1, cache.getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed(){
+        TtlCache<String, Integer> cache = new TtlCache<>(2, Duration.ofMinutes(1));
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a");
+        cache.put("c", 3);
+        assertTrue(cache.get("b").isEmpty());
+        assertTrue(cache.get("a").isPresent());
+    }
+
+    @Test
+    void bloomFilterHasNoFalseNegatives(){
+        BloomFilter filter = new BloomFilter(1_000, 0.01);
+        for (int i = 0; i < 1_000; i++) filter.add("user" + i);
+        for (int i = 0; i < 1_000; i++) assertTrue(filter.mightContain("user" + i));
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filter.mightContain("other" + i)) falsePositives++;
+        }
+        assertTrue(falsePositives < 300, "ложных срабатываний: " + falsePositives);
+    }
+}
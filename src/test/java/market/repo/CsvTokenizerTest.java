@@ -0,0 +1,75 @@
+package market.repo;
+
+import market.domain.Category;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CsvTokenizerTest {
+
+    private static CsvTokenizer tokenize(String csv) {
+        // прямой буфер — как отображённый в память файл, без доступного массива
+        byte[] bytes = csv.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        return new CsvTokenizer().reset(buf);
+    }
+
+    @Test
+    void fieldsMatchCsvUtil() {
+        String line = "7, Кофе ,\"Lavazza, Italy\",FOOD,8.5,\"строка 1\nон сказал \"\"да\"\"\",TRUE,";
+        CsvTokenizer tok = tokenize("\uFEFF#id,name\r\n\r\n" + line + "\r\n");
+
+        assertTrue(tok.nextRecord());
+        assertTrue(tok.isComment());
+        assertTrue(tok.nextRecord());
+        assertTrue(tok.isBlank());
+        assertTrue(tok.nextRecord());
+
+        assertEquals(CsvUtil.parseLine(line).size(), tok.fieldCount());
+        for (int i = 0; i < tok.fieldCount(); i++) {
+            assertEquals(CsvUtil.parseLine(line).get(i), tok.string(i), "поле " + i);
+        }
+        assertEquals(7L, tok.parseLong(0));
+        assertEquals(Category.FOOD, tok.parseEnum(3, Category.values()));
+        assertEquals(8.5, tok.parseDouble(4));
+        assertTrue(tok.parseBoolean(6));
+        assertTrue(tok.isEmpty(7));
+        assertFalse(tok.nextRecord());
+    }
+
+    @Test
+    void parseDoubleMatchesDoubleParseDouble() {
+        Random rnd = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        String[] values = new String[10_000];
+        for (int i = 0; i < values.length; i++) {
+            double v = switch (i % 4) {
+                case 0 -> rnd.nextInt(100_000) / 100.0;
+                case 1 -> rnd.nextDouble() * 1e6;
+                case 2 -> -rnd.nextDouble();
+                default -> rnd.nextDouble() * 1e-10;
+            };
+            values[i] = i % 5 == 0 ? String.format("%.2f", v).replace(',', '.') : Double.toString(v);
+            sb.append(values[i]).append('\n');
+        }
+        CsvTokenizer tok = tokenize(sb.toString());
+        for (String value : values) {
+            assertTrue(tok.nextRecord());
+            assertEquals(Double.parseDouble(value), tok.parseDouble(0), value);
+        }
+    }
+
+    @Test
+    void malformedNumbersAreRejected() {
+        CsvTokenizer tok = tokenize("12x,-,abc\n");
+        assertTrue(tok.nextRecord());
+        assertThrows(NumberFormatException.class, () -> tok.parseLong(0));
+        assertThrows(NumberFormatException.class, () -> tok.parseDouble(1));
+        assertThrows(IllegalArgumentException.class, () -> tok.parseEnum(2, Category.values()));
+        assertThrows(IndexOutOfBoundsException.class, () -> tok.string(3));
+    }
+}
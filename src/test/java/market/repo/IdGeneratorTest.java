@@ -0,0 +1,85 @@
+package market.repo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdGeneratorTest {
+    @Test
+    void issuesUniqueIdsAcrossThreads() throws InterruptedException {
+        IdGenerator ids = new IdGenerator(0);
+        Set<Long> seen = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < 10_000; i++) seen.add(ids.next());
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(80_000, seen.size());
+        assertTrue(seen.stream().allMatch(id -> id > 0));
+    }
+
+    @Test
+    void advanceToSkipsTakenIds(){
+        IdGenerator ids = new IdGenerator(0);
+        assertEquals(1, ids.next());
+        ids.advanceTo(5_000);
+        assertEquals(5_001, ids.next());
+        ids.advanceTo(10);
+        assertEquals(5_002, ids.next());
+    }
+
+    @Test
+    void advanceToDuringConcurrentNextKeepsIdsUnique() throws InterruptedException {
+        IdGenerator ids = new IdGenerator(0);
+        Set<Long> seen = ConcurrentHashMap.newKeySet();
+        AtomicReference<Long> duplicate = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(9);
+        for (int t = 0; t < 8; t++) {
+            pool.execute(() -> {
+                while (!done.get()) {
+                    long id = ids.next();
+                    if (!seen.add(id)) duplicate.compareAndSet(null, id);
+                }
+            });
+        }
+        pool.execute(() -> {
+            // сдвиг на один id внутри текущего блока: поток next(), прочитавший
+            // устаревший диапазон, выдал бы уже выданный или занятый id
+            for (int i = 0; i < 500_000; i++) ids.advanceTo(ids.peek() + 1);
+            done.set(true);
+        });
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS));
+        assertNull(duplicate.get(), "id выдан дважды");
+    }
+
+    @Test
+    void fileSourceContinuesAfterRestart(@TempDir Path dir){
+        Path hw = dir.resolve("products.id");
+        IdGenerator first = new IdGenerator(new FileIdBlockSource(hw, 10));
+        assertEquals(1, first.next());
+        assertEquals(2, first.next());
+
+        IdGenerator second = new IdGenerator(new FileIdBlockSource(hw, 10));
+        assertEquals(11, second.next());
+        second.advanceTo(100);
+        assertEquals(101, second.next());
+
+        IdGenerator third = new IdGenerator(new FileIdBlockSource(hw, 10));
+        assertTrue(third.next() > 101);
+    }
+}
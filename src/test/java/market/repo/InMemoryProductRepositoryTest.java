@@ -0,0 +1,184 @@
+package market.repo;
+
+import market.domain.Category;
+import market.domain.Product;
+import market.domain.UpsertResult;
+import market.exception.PersistenceException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryProductRepositoryTest {
+
+    @Test
+    void loadRecoversSnapshotPlusJournal(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("products.csv");
+        try (InMemoryProductRepository repo = new InMemoryProductRepository(file, new IdGenerator(0))) {
+            repo.saveAll(List.of(
+                    new Product(0L, "Tea", "Ahmad", Category.FOOD, 5.0, "Leaves, black"),
+                    new Product(0L, "Ball", "Adidas", Category.SPORTS, 30.0, "Football")));
+            repo.snapshot();
+            assertTrue(Files.exists(dir.resolve("products.bin")));
+            assertFalse(Files.exists(dir.resolve("products.csv.journal")));
+
+            Product ball = repo.findById(2).orElseThrow();
+            ball.setPrice(25.0);
+            repo.save(ball);
+            repo.deleteById(1);
+            repo.save(new Product(0L, "Coffee", "Lavazza", Category.FOOD, 8.5, "line1\nline2"));
+            repo.flush();
+        }
+        assertFalse(Files.exists(file), "снимок не переписывается на каждое изменение");
+
+        try (InMemoryProductRepository repo = new InMemoryProductRepository(file, new IdGenerator(0))) {
+            repo.load();
+            assertTrue(repo.findById(1).isEmpty());
+            assertEquals(25.0, repo.findById(2).orElseThrow().getPrice());
+            assertEquals("line1\nline2", repo.findById(3).orElseThrow().getDescription());
+            assertEquals(4, repo.nextId());
+        }
+    }
+
+    @Test
+    void csvIsConvertedToBinarySnapshotAndExportedBack(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("products.csv");
+        Files.writeString(file, """
+                #id,name,brand,category,price,description,active
+                1,iPhone 14,Apple,ELECTRONICS,999.99,"Smartphone, 128 GB",true
+                2,Coffee,Lavazza,FOOD,8.5,Beans,false
+                """);
+        try (InMemoryProductRepository repo = new InMemoryProductRepository(file, new IdGenerator(0))) {
+            repo.load();
+            repo.save(new Product(0L, "Ball", "Adidas", Category.SPORTS, 30.0, "Football"));
+        }
+        Path binary = dir.resolve("products.bin");
+        List<Product> fromBinary = ProductSnapshotCodec.read(binary);
+        assertEquals(3, fromBinary.size());
+        assertTrue(Files.getLastModifiedTime(binary).compareTo(Files.getLastModifiedTime(file)) >= 0);
+        assertEquals(4, Files.readAllLines(file).size(), "CSV выгружен при закрытии");
+
+        try (InMemoryProductRepository repo = new InMemoryProductRepository(file, new IdGenerator(0))) {
+            repo.load();
+            Product iphone = repo.findById(1).orElseThrow();
+            assertEquals(999.99, iphone.getPrice());
+            assertEquals("Smartphone, 128 GB", iphone.getDescription());
+            assertNull(iphone.getSku());
+            assertFalse(repo.findById(2).orElseThrow().isActive());
+            assertEquals(Category.SPORTS, repo.findById(3).orElseThrow().getCategory());
+        }
+    }
+
+    @Test
+    void binarySnapshotRoundTripsLongStrings(@TempDir Path dir) throws IOException {
+        Product p = new Product(5L, "Книга", "Изд.", Category.BOOKS, 12.3, "я".repeat(2_000_000));
+        p.setSku("SKU-5");
+        Path binary = dir.resolve("products.bin");
+        ProductSnapshotCodec.write(binary, List.of(p));
+
+        Product back = ProductSnapshotCodec.read(binary).get(0);
+        assertEquals(p.getDescription(), back.getDescription());
+        assertEquals("SKU-5", back.getSku());
+        assertEquals(12.3, back.getPrice());
+        assertTrue(back.isActive());
+    }
+
+    @Test
+    void tornJournalTailIsSkipped(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("products.csv");
+        try (InMemoryProductRepository repo = new InMemoryProductRepository(file, new IdGenerator(0))) {
+            repo.save(new Product(0L, "Tea", "Ahmad", Category.FOOD, 5.0, "Leaves"));
+        }
+        Files.writeString(dir.resolve("products.csv.journal"), "U,2,Ball,Adi",
+                StandardOpenOption.APPEND);
+
+        try (InMemoryProductRepository repo = new InMemoryProductRepository(file, new IdGenerator(0))) {
+            repo.load();
+            assertEquals(1, repo.findAll().size());
+            assertEquals("Tea", repo.findById(1).orElseThrow().getName());
+        }
+    }
+
+    @Test
+    void corruptSnapshotFailsLoadAndKeepsCsv(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("products.csv");
+        String csv = """
+                #id,name,brand,category,price,description,active
+                1,Tea,Ahmad,FOOD,5.0,Leaves,true
+                2,Ball,Adidas,SPORTS,30.0,Football,true
+                """;
+        Files.writeString(file, csv);
+        Path binary = dir.resolve("products.bin");
+        Files.write(binary, new byte[]{1, 2, 3});
+        Files.setLastModifiedTime(binary, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+
+        try (InMemoryProductRepository repo = new InMemoryProductRepository(file, new IdGenerator(0))) {
+            assertThrows(PersistenceException.class, repo::load);
+            assertTrue(repo.findAll().isEmpty());
+        }
+        assertEquals(csv, Files.readString(file), "CSV не затирается после неудачной загрузки");
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(binary));
+    }
+
+    @Test
+    void malformedCsvRowFailsLoadAndKeepsCsv(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("products.csv");
+        String csv = """
+                1,Tea,Ahmad,FOOD,5.0,Leaves,true
+                2,Ball,Adidas,SPORTS,дорого,Football,true
+                """;
+        Files.writeString(file, csv);
+
+        try (InMemoryProductRepository repo = new InMemoryProductRepository(file, new IdGenerator(0))) {
+            assertThrows(PersistenceException.class, repo::load);
+            assertTrue(repo.findAll().isEmpty());
+        }
+        assertEquals(csv, Files.readString(file));
+        assertFalse(Files.exists(dir.resolve("products.bin")));
+    }
+
+    private static Product withSku(long id, String name, String sku) {
+        Product p = new Product(id, name, "Brand", Category.FOOD, 1.0, "");
+        p.setSku(sku);
+        return p;
+    }
+
+    @Test
+    void upsertFindsBySkuIndexAndRejectsIdOfAnotherProduct(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("products.csv");
+        try (InMemoryProductRepository repo = new InMemoryProductRepository(file, new IdGenerator(0))) {
+            repo.load();
+            assertEquals(UpsertResult.INSERTED, repo.upsert(withSku(0, "Tea", "SKU-1")));
+            assertEquals(UpsertResult.INSERTED, repo.upsert(withSku(0, "Ball", "SKU-2")));
+            assertEquals(UpsertResult.UPDATED, repo.upsert(withSku(0, "Green tea", "SKU-1")));
+            assertEquals(1L, repo.findAll().stream().filter(p -> "SKU-1".equals(p.getSku())).count());
+
+            // новый артикул, но id занят другим товаром — как нарушение PK в БД
+            assertThrows(PersistenceException.class, () -> repo.upsert(withSku(2, "Bat", "SKU-3")));
+            assertEquals("Ball", repo.findById(2).orElseThrow().getName());
+
+            // артикул уже принадлежит товару 1
+            assertThrows(PersistenceException.class, () -> repo.save(withSku(0, "Copy", "SKU-2")));
+
+            // смена артикула освобождает старый
+            repo.save(withSku(2, "Ball", "SKU-2B"));
+            assertEquals(UpsertResult.INSERTED, repo.upsert(withSku(0, "New ball", "SKU-2")));
+            repo.deleteById(1);
+            assertEquals(UpsertResult.INSERTED, repo.upsert(withSku(0, "Tea again", "SKU-1")));
+        }
+        try (InMemoryProductRepository repo = new InMemoryProductRepository(file, new IdGenerator(0))) {
+            repo.load();
+            // индекс восстановлен из журнала
+            assertEquals(UpsertResult.UNCHANGED, repo.upsert(withSku(0, "Tea again", "SKU-1")));
+            assertEquals(UpsertResult.UPDATED, repo.upsert(withSku(0, "Ball v2", "SKU-2B")));
+            assertEquals("Ball v2", repo.findById(2).orElseThrow().getName());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package market.repo;
+
+import market.domain.Role;
+import market.domain.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryUserRepositoryTest {
+
+    @Test
+    void persistAppendsToJournalAndLoadReplaysIt(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("users.csv");
+        try (InMemoryUserRepository repo = new InMemoryUserRepository(file, 1_000)) {
+            repo.register(new User("anna", "a", Role.USER));
+            repo.persist();
+            repo.register(new User("boris", "b", Role.ADMIN));
+            repo.persist();
+        }
+        assertFalse(Files.exists(file), "снимок не переписывается на каждую регистрацию");
+        assertEquals(2, Files.readAllLines(dir.resolve("users.csv.journal")).size());
+
+        try (InMemoryUserRepository repo = new InMemoryUserRepository(file, 1_000)) {
+            repo.load();
+            assertTrue(repo.exists("anna"));
+            assertEquals(Role.ADMIN, repo.findByUsername("boris").orElseThrow().getRole());
+        }
+    }
+
+    @Test
+    void compactionRewritesSnapshotAndKeepsLaterChanges(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("users.csv");
+        try (InMemoryUserRepository repo = new InMemoryUserRepository(file, 1_000)) {
+            for (int i = 0; i < 10; i++) repo.register(new User("u" + i, "p", Role.USER));
+            repo.persist();
+            repo.compact();
+            assertFalse(Files.exists(dir.resolve("users.csv.journal")));
+            assertFalse(Files.exists(dir.resolve("users.csv.journal.compacting")));
+            assertEquals(11, Files.readAllLines(file).size()); // заголовок + 10 строк
+
+            User u0 = repo.findByUsername("u0").orElseThrow();
+            u0.setPassword("changed");
+            repo.saveUser(u0);
+            repo.persist();
+        }
+        try (InMemoryUserRepository repo = new InMemoryUserRepository(file, 1_000)) {
+            repo.load();
+            assertEquals(10, repo.findAllUsernames().size());
+            assertEquals("changed", repo.findByUsername("u0").orElseThrow().getPassword());
+        }
+    }
+
+    @Test
+    void quotesAndCommasInCredentialsSurviveJournalAndSnapshot(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("users.csv");
+        try (InMemoryUserRepository repo = new InMemoryUserRepository(file, 1_000)) {
+            repo.register(new User("alice", "pa\"ss", Role.USER));
+            repo.register(new User("bob", "b,b", Role.USER));
+            repo.register(new User("carol", "c", Role.ADMIN));
+            repo.persist();
+        }
+        try (InMemoryUserRepository repo = new InMemoryUserRepository(file, 1_000)) {
+            repo.load();
+            assertEquals("pa\"ss", repo.findByUsername("alice").orElseThrow().getPassword());
+            assertEquals("b,b", repo.findByUsername("bob").orElseThrow().getPassword());
+            assertTrue(repo.exists("carol"));
+            repo.compact();
+        }
+        try (InMemoryUserRepository repo = new InMemoryUserRepository(file, 1_000)) {
+            repo.load();
+            assertEquals("pa\"ss", repo.findByUsername("alice").orElseThrow().getPassword());
+            assertEquals("b,b", repo.findByUsername("bob").orElseThrow().getPassword());
+            assertEquals(Role.ADMIN, repo.findByUsername("carol").orElseThrow().getRole());
+        }
+    }
+}
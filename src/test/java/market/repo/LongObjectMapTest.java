@@ -0,0 +1,59 @@
+package market.repo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LongObjectMapTest {
+
+    @Test
+    void behavesLikeHashMapUnderRandomOperations() {
+        LongObjectMap<String> map = new LongObjectMap<>(4, 0.5f);
+        Map<Long, String> expected = new HashMap<>();
+        Random rnd = new Random(7);
+        for (int step = 0; step < 200_000; step++) {
+            // узкий диапазон ключей — много коллизий, удалений и повторных вставок
+            long key = rnd.nextInt(5_000) * (rnd.nextBoolean() ? 1L : -1_000_003L);
+            switch (rnd.nextInt(3)) {
+                case 0 -> assertEquals(expected.put(key, "v" + step), map.put(key, "v" + step));
+                case 1 -> assertEquals(expected.remove(key), map.remove(key));
+                default -> assertEquals(expected.get(key), map.get(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (Map.Entry<Long, String> e : expected.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+        AtomicInteger seen = new AtomicInteger();
+        map.forEach((key, value) -> {
+            assertEquals(expected.get(key), value);
+            seen.incrementAndGet();
+        });
+        assertEquals(expected.size(), seen.get());
+        assertEquals(expected.size(), map.values().size());
+    }
+
+    @Test
+    void clearAndIteration() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        for (long i = 1; i <= 100; i++) map.put(i, "p" + i);
+        int n = 0;
+        for (String v : map) {
+            assertTrue(v.startsWith("p"));
+            n++;
+        }
+        assertEquals(100, n);
+        assertThrows(NullPointerException.class, () -> map.put(1, null));
+        assertThrows(IllegalArgumentException.class, () -> new LongObjectMap<String>(10, 1.0f));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1));
+        assertFalse(map.iterator().hasNext());
+    }
+}
@@ -0,0 +1,42 @@
+package market.repo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelCsvLoaderTest {
+
+    @Test
+    void smallChunksKeepQuotedNewlinesAndFileOrder(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("products.csv");
+        StringBuilder sb = new StringBuilder("\uFEFF#id,name,description\n");
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= 500; i++) {
+            String description = i % 3 == 0 ? "строка 1\nстрока \"2\", с запятой" : "описание " + i;
+            expected.add(i + "|" + description);
+            sb.append(i).append(",name").append(i).append(',').append(CsvUtil.esc(description)).append('\n');
+        }
+        Files.writeString(file, sb.toString());
+
+        List<List<String>> chunks = new ParallelCsvLoader(4, 64)
+                .load(file, tok -> tok.string(0) + "|" + tok.string(2));
+
+        assertTrue(chunks.size() > 1);
+        List<String> actual = new ArrayList<>();
+        chunks.forEach(actual::addAll);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void emptyFileGivesNoChunks(@TempDir Path dir) throws IOException {
+        Path file = Files.createFile(dir.resolve("empty.csv"));
+        assertTrue(new ParallelCsvLoader(2, 64).load(file, tok -> tok.string(0)).isEmpty());
+    }
+}
@@ -0,0 +1,154 @@
+package market.repo;
+
+import market.domain.AuditAction;
+import market.domain.AuditEvent;
+import market.domain.AuditPage;
+import market.domain.AuditQuery;
+import market.exception.PersistenceException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentedAuditRepositoryTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 1, 1, 12, 0);
+
+    private static List<AuditEvent> events(int n) {
+        List<AuditEvent> list = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            AuditEvent e = new AuditEvent("user" + (i % 3), i % 2 == 0 ? AuditAction.SEARCH : AuditAction.UPDATE,
+                    "event #" + i);
+            e.setTimestamp(T0.plusSeconds(i));
+            list.add(e);
+        }
+        return list;
+    }
+
+    @Test
+    void answersRangeAndRecentQueriesAcrossSegments(@TempDir Path dir){
+        try (SegmentedAuditRepository repo = new SegmentedAuditRepository(dir, 8 * 1024)) {
+            repo.saveAll(events(2_000));
+
+            List<AuditEvent> recent = repo.findRecent(3);
+            assertEquals(List.of("event #1999", "event #1998", "event #1997"),
+                    recent.stream().map(AuditEvent::getDetails).toList());
+            assertEquals(2_000L, recent.get(0).getId());
+
+            List<AuditEvent> between = repo.findBetween(T0.plusSeconds(500), T0.plusSeconds(510));
+            assertEquals(10, between.size());
+            assertEquals("event #509", between.get(0).getDetails());
+            assertEquals("event #500", between.get(9).getDetails());
+
+            AuditPage page = repo.findPage(new AuditQuery("user1", AuditAction.UPDATE, null, null), null, 5);
+            assertEquals(5, page.items().size());
+            assertTrue(page.items().stream().allMatch(e -> "user1".equals(e.getUsername())
+                    && e.getAction() == AuditAction.UPDATE));
+            AuditPage next = repo.findPage(new AuditQuery("user1", AuditAction.UPDATE, null, null), page.next(), 5);
+            assertTrue(next.items().get(0).getId() < page.items().get(4).getId());
+        }
+    }
+
+    @Test
+    void reopensAndContinuesAfterRestart(@TempDir Path dir){
+        try (SegmentedAuditRepository repo = new SegmentedAuditRepository(dir, 4 * 1024)) {
+            repo.saveAll(events(300));
+        }
+        try (SegmentedAuditRepository repo = new SegmentedAuditRepository(dir, 4 * 1024)) {
+            assertEquals(300, repo.findAll().size());
+            AuditEvent late = new AuditEvent("late", AuditAction.LOGIN, "after restart");
+            late.setTimestamp(T0); // раньше последнего события — время выравнивается
+            repo.save(late);
+            assertEquals(301L, late.getId());
+            assertEquals(T0.plusSeconds(299), late.getTimestamp());
+            assertEquals("after restart", repo.findRecent(1).get(0).getDetails());
+        }
+    }
+
+    @Test
+    void emptyLastSegmentDoesNotRestartIds(@TempDir Path dir) throws IOException {
+        try (SegmentedAuditRepository repo = new SegmentedAuditRepository(dir, 4 * 1024)) {
+            repo.saveAll(events(300));
+        }
+        // сбой сразу после roll(): новый сегмент с одним заголовком, без событий
+        Path last;
+        try (var files = Files.list(dir)) {
+            last = files.filter(p -> p.toString().endsWith(".seg")).max(Comparator.naturalOrder()).orElseThrow();
+        }
+        long number = Long.parseLong(last.getFileName().toString().replaceAll("\\D", ""));
+        ByteBuffer header = ByteBuffer.wrap(Arrays.copyOf(Files.readAllBytes(last), 32));
+        header.putLong(8, number + 1);
+        Files.write(dir.resolve("segment-%08d.seg".formatted(number + 1)), header.array());
+
+        try (SegmentedAuditRepository repo = new SegmentedAuditRepository(dir, 4 * 1024)) {
+            AuditEvent next = new AuditEvent("late", AuditAction.LOGIN, "after crash");
+            repo.save(next);
+            assertEquals(301L, next.getId());
+            assertEquals(301, repo.findAll().stream().map(AuditEvent::getId).distinct().count());
+        }
+    }
+
+    @Test
+    void storesTypedPayloadAndFindsByProduct(@TempDir Path dir) {
+        try (SegmentedAuditRepository repo = new SegmentedAuditRepository(dir, 4 * 1024)) {
+            List<AuditEvent> list = events(200);
+            for (int i = 0; i < list.size(); i += 50) {
+                list.get(i).setProductId(42L);
+                list.get(i).setProductName("товар 42");
+                list.get(i).setLatencyMs((long) i);
+            }
+            list.get(1).setResultSize(17);
+            repo.saveAll(list);
+        }
+        try (SegmentedAuditRepository repo = new SegmentedAuditRepository(dir, 4 * 1024)) {
+            List<AuditEvent> touched = repo.findByProduct(42L);
+            assertEquals(4, touched.size());
+            assertEquals("event #150", touched.get(0).getDetails());
+            assertEquals("товар 42", touched.get(0).getProductName());
+            assertEquals(150L, touched.get(0).getLatencyMs());
+            assertEquals(17, repo.findBetween(T0.plusSeconds(1), T0.plusSeconds(2)).get(0).getResultSize());
+            assertNull(repo.findRecent(1).get(0).getProductId());
+        }
+    }
+
+    @Test
+    void readsAfterAppendsSeeNewEventsAndCloseTrimsPadding(@TempDir Path dir) throws IOException {
+        long segmentBytes = 64 * 1024;
+        try (SegmentedAuditRepository repo = new SegmentedAuditRepository(dir, segmentBytes)) {
+            List<AuditEvent> all = events(50);
+            for (int i = 0; i < all.size(); i++) {
+                repo.save(all.get(i));
+                assertEquals("event #" + i, repo.findRecent(1).get(0).getDetails());
+            }
+            // под отображение активный сегмент дополнен до полного размера
+            assertEquals(segmentBytes, Files.size(dir.resolve("segment-00000001.seg")));
+        }
+        long trimmed = Files.size(dir.resolve("segment-00000001.seg"));
+        assertTrue(trimmed < segmentBytes, "при закрытии файл обрезается до данных: " + trimmed);
+
+        try (SegmentedAuditRepository repo = new SegmentedAuditRepository(dir, segmentBytes)) {
+            assertEquals(50, repo.findAll().size());
+            repo.save(new AuditEvent("late", AuditAction.LOGIN, "after restart"));
+            assertEquals(51L, repo.findRecent(1).get(0).getId());
+        }
+    }
+
+    @Test
+    void saveAfterCloseIsRejected(@TempDir Path dir){
+        SegmentedAuditRepository repo = new SegmentedAuditRepository(dir, 4 * 1024);
+        repo.saveAll(events(3));
+        repo.close();
+        assertThrows(PersistenceException.class, () -> repo.save(new AuditEvent("u", AuditAction.LOGOUT, "")));
+        assertEquals(3, repo.findAll().size());
+    }
+}
@@ -5,6 +5,8 @@ import com.zaxxer.hikari.HikariDataSource;
 import market.db.MigrationRunner;
 import market.domain.AuditAction;
 import market.domain.AuditEvent;
+import market.domain.AuditPage;
+import market.domain.AuditQuery;
 import market.repo.AuditRepository;
 import org.junit.jupiter.api.*;
 import org.testcontainers.containers.PostgreSQLContainer;
@@ -136,4 +138,73 @@ class AuditRepositoryJdbcTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    @Order(4)
+    void partitions_shouldPruneByTimeAndDropExpiredMonths() {
+        LocalDateTime old = LocalDateTime.now().minusMonths(14);
+        AuditEvent archived = new AuditEvent();
+        archived.setUsername("archive");
+        archived.setAction(AuditAction.LOGIN);
+        archived.setDetails("old event");
+        archived.setTimestamp(old);
+        auditRepo.saveAll(List.of(archived));
+
+        AuditPartitionMaintenance maintenance = new AuditPartitionMaintenance(dataSource, 3, 12);
+        maintenance.ensurePartitions();
+        assertEquals(1, auditRepo.findBetween(old.minusMinutes(1), old.plusMinutes(1)).size());
+
+        assertTrue(maintenance.dropExpired() >= 1, "Секция 14-месячной давности должна быть удалена");
+        assertTrue(auditRepo.findBetween(old.minusMinutes(1), old.plusMinutes(1)).isEmpty());
+        assertFalse(auditRepo.findRecent(1).isEmpty(), "Свежие события должны остаться");
+    }
+
+    @Test
+    @Order(5)
+    void findPage_shouldWalkUserEventsByKeyset() {
+        LocalDateTime base = LocalDateTime.now().minusHours(1);
+        List<AuditEvent> events = new java.util.ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            AuditEvent e = new AuditEvent();
+            e.setUsername("pager");
+            e.setAction(i % 2 == 0 ? AuditAction.SEARCH : AuditAction.UPDATE);
+            e.setDetails("page #" + i);
+            e.setTimestamp(base.plusSeconds(i));
+            events.add(e);
+        }
+        auditRepo.saveAll(events);
+
+        AuditPage first = auditRepo.findPage(AuditQuery.byUser("pager"), null, 3);
+        assertEquals(3, first.items().size());
+        assertEquals("page #6", first.items().get(0).getDetails());
+        assertTrue(first.hasNext());
+
+        AuditPage second = auditRepo.findPage(AuditQuery.byUser("pager"), first.next(), 3);
+        assertEquals("page #3", second.items().get(0).getDetails());
+        AuditPage third = auditRepo.findPage(AuditQuery.byUser("pager"), second.next(), 3);
+        assertEquals(1, third.items().size());
+        assertFalse(third.hasNext());
+
+        AuditPage searches = auditRepo.findPage(
+                new AuditQuery("pager", AuditAction.SEARCH, base, base.plusSeconds(5)), null, 10);
+        assertEquals(3, searches.items().size());
+    }
+
+    @Test
+    @Order(6)
+    void findByProduct_shouldReturnTypedPayload() {
+        AuditEvent touched = new AuditEvent("admin", AuditAction.UPDATE, "id=42");
+        touched.setProductId(42L);
+        touched.setProductName("Кофеварка");
+        touched.setLatencyMs(7L);
+        AuditEvent search = new AuditEvent("admin", AuditAction.SEARCH, "q=кофе size=3");
+        search.setResultSize(3);
+        auditRepo.saveAll(List.of(touched, search));
+
+        List<AuditEvent> byProduct = auditRepo.findByProduct(42L);
+        assertEquals(1, byProduct.size());
+        AuditEvent e = byProduct.get(0);
+        assertEquals("Кофеварка", e.getProductName());
+        assertEquals(7L, e.getLatencyMs());
+        assertNull(e.getResultSize());
+    }
+}
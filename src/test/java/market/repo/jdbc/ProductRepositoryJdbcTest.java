@@ -5,11 +5,27 @@ import com.zaxxer.hikari.HikariDataSource;
 import market.db.MigrationRunner;
 import market.domain.Category;
 import market.domain.Product;
+import market.domain.UpsertResult;
+import market.exception.EntityNotFoundException;
+import market.exception.OptimisticLockException;
+import market.repo.IdGenerator;
 import market.repo.ProductRepository;
 import org.junit.jupiter.api.*;
 import org.testcontainers.containers.PostgreSQLContainer;
 
 import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 class ProductRepositoryJdbcTest {
@@ -35,6 +51,7 @@ class ProductRepositoryJdbcTest {
         cfg.setJdbcUrl(url);
         cfg.setUsername(PG.getUsername());
         cfg.setPassword(PG.getPassword());
+        cfg.addDataSourceProperty("reWriteBatchedInserts", "true");
         ds = new HikariDataSource(cfg);
 
         repo = new ProductRepositoryJdbc(ds);
@@ -61,4 +78,167 @@ class ProductRepositoryJdbcTest {
         Assertions.assertTrue(found.isPresent());
         Assertions.assertEquals("Test", found.get().getName());
     }
-}
\ No newline at end of file
+
+    @Test
+    void saveAll_insertsBatchAndAssignsIds() {
+        List<Product> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            batch.add(new Product(null, "Batch " + i, "Brand", Category.BOOKS, 10.0 + i, "desc"));
+        }
+
+        repo.saveAll(batch);
+
+        for (Product p : batch) {
+            Assertions.assertNotNull(p.getId());
+            Assertions.assertEquals(p.getName(), repo.findById(p.getId()).orElseThrow().getName());
+        }
+
+        batch.get(0).setPrice(99.0);
+        repo.saveAll(List.of(batch.get(0)));
+        Assertions.assertEquals(99.0, repo.findById(batch.get(0).getId()).orElseThrow().getPrice());
+    }
+
+    @Test
+    void copyImport_mergesValidRowsAndSkipsInvalid() {
+        String csv = """
+                #id,name,brand,category,price,description,active
+                ,Imported 1,ACME,HOME,10.5,"multi
+                line",true
+                ,Imported 2,ACME,UNKNOWN,1.0,bad category,true
+                ,,ACME,HOME,1.0,no name,true
+                """;
+
+        var report = new ProductCopyJdbc(ds).importCsv(new StringReader(csv));
+
+        Assertions.assertEquals(3, report.read());
+        Assertions.assertEquals(1, report.imported());
+        Assertions.assertEquals(2, report.rejected());
+        Assertions.assertTrue(repo.findAll().stream()
+                .anyMatch(p -> p.getName().equals("Imported 1") && p.getDescription().equals("multi\nline")));
+    }
+
+    @Test
+    void copyImport_generatedIdsDoNotCollideWithExplicitIds() throws SQLException {
+        long explicit;
+        try (Connection cn = ds.getConnection();
+             Statement st = cn.createStatement();
+             ResultSet rs = st.executeQuery("""
+                     SELECT GREATEST((SELECT last_value FROM market.seq_product_id),
+                                     (SELECT COALESCE(MAX(id), 0) FROM market.products)) + 1
+                     """)) {
+            rs.next();
+            explicit = rs.getLong(1); // ровно то, что выдал бы следующий nextval
+        }
+        String csv = ",Generated,ACME,HOME,1.0,,true\n"
+                + explicit + ",Explicit,ACME,HOME,2.0,,true\n";
+
+        var report = new ProductCopyJdbc(ds).importCsv(new StringReader(csv));
+
+        Assertions.assertEquals(2, report.imported());
+        Assertions.assertEquals("Explicit", repo.findById(explicit).orElseThrow().getName());
+        Assertions.assertTrue(repo.findAll().stream()
+                .anyMatch(p -> p.getName().equals("Generated") && p.getId() > explicit));
+    }
+
+    @Test
+    void copyExport_streamsFilteredRows() throws IOException {
+        Product p = new Product(null, "Export 50% off", "O'Brand", Category.FOOD, 42.0, "promo");
+        repo.save(p);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rows = new ProductCopyJdbc(ds).exportCsv(out, "50%", "o'b", Category.FOOD, 40.0, 45.0, true);
+
+        String csv = out.toString(StandardCharsets.UTF_8);
+        Assertions.assertEquals(1, rows);
+        Assertions.assertTrue(csv.startsWith("#id,name"));
+        Assertions.assertTrue(csv.contains(p.getId() + ",Export 50% off,O'Brand,FOOD,42.00,promo,true"));
+    }
+
+    @Test
+    void copyExport_reimportsWithoutRejects() throws IOException {
+        Product active = repo.save(new Product(null, "Round trip, \"quoted\"", "RT", Category.BOOKS, 3.5, "line1\nline2"));
+        Product inactive = new Product(null, "Round trip off", "RT", Category.BOOKS, 4.0, null);
+        inactive.setActive(false);
+        repo.save(inactive);
+
+        ProductCopyJdbc copy = new ProductCopyJdbc(ds);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rows = copy.exportCsv(out, null, "RT", Category.BOOKS, null, null, false);
+        Assertions.assertEquals(2, rows);
+
+        var report = copy.importCsv(new StringReader(out.toString(StandardCharsets.UTF_8)));
+
+        Assertions.assertEquals(2, report.read());
+        Assertions.assertEquals(2, report.imported());
+        Assertions.assertEquals(0, report.rejected(), String.valueOf(report.errors()));
+        Product activeBack = repo.findById(active.getId()).orElseThrow();
+        Assertions.assertTrue(activeBack.isActive());
+        Assertions.assertEquals(active.getName(), activeBack.getName());
+        Assertions.assertEquals("line1\nline2", activeBack.getDescription());
+        Assertions.assertFalse(repo.findById(inactive.getId()).orElseThrow().isActive());
+    }
+
+    @Test
+    void update_detectsStaleVersionAndMissingRow() {
+        Product p = repo.save(new Product(null, "Versioned", "Brand", Category.HOME, 5.0, null));
+        Assertions.assertEquals(0, p.getVersion());
+
+        Product stale = repo.findById(p.getId()).orElseThrow();
+        p.setPrice(6.0);
+        repo.save(p);
+        Assertions.assertEquals(1, p.getVersion());
+
+        stale.setPrice(7.0);
+        Assertions.assertThrows(OptimisticLockException.class, () -> repo.save(stale));
+
+        Product missing = new Product(-1L, "Ghost", "Brand", Category.HOME, 1.0, null);
+        Assertions.assertThrows(EntityNotFoundException.class, () -> repo.save(missing));
+    }
+
+    @Test
+    void upsert_isIdempotentBySku() {
+        Product p = new Product(null, "Feed", "Brand", Category.HOME, 10.0, "from supplier");
+        p.setSku("SKU-1");
+        Assertions.assertEquals(UpsertResult.INSERTED, repo.upsert(p));
+        long id = p.getId();
+
+        Product same = new Product(null, "Feed", "Brand", Category.HOME, 10.0, "from supplier");
+        same.setSku("SKU-1");
+        Assertions.assertEquals(UpsertResult.UNCHANGED, repo.upsert(same));
+        Assertions.assertEquals(id, same.getId());
+        Assertions.assertEquals(0, same.getVersion());
+
+        Product changed = new Product(null, "Feed", "Brand", Category.HOME, 12.0, "from supplier");
+        changed.setSku("SKU-1");
+        Assertions.assertEquals(UpsertResult.UPDATED, repo.upsert(changed));
+        Assertions.assertEquals(1, changed.getVersion());
+
+        Product other = new Product(null, "Other", "Brand", Category.HOME, 1.0, null);
+        other.setSku("SKU-2");
+        // SKU-1: 12 → 10 (обновление), SKU-2: вставка
+        Assertions.assertEquals(2, repo.upsertAll(List.of(same, other)));
+        // SKU-1: 10 → 12 (обновление), SKU-2 без изменений
+        Assertions.assertEquals(1, repo.upsertAll(List.of(changed, other)));
+        // ничего не изменилось — ни одна строка не перезаписана
+        Assertions.assertEquals(0, repo.upsertAll(List.of(changed, other)));
+    }
+
+    @Test
+    void clientSideIds_areReservedFromSequenceBlocks() {
+        IdGenerator ids = new IdGenerator(new SequenceBlockSource(ds, "market", "seq_product_id"));
+        ProductRepository clientIds = new ProductRepositoryJdbc(ds, ids);
+
+        List<Product> batch = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            batch.add(new Product(null, "Block " + i, "Brand", Category.HOME, 1.0, null));
+        }
+        clientIds.saveAll(batch);
+        Product viaDefault = repo.save(new Product(null, "Default", "Brand", Category.HOME, 1.0, null));
+
+        Set<Long> distinct = new HashSet<>();
+        batch.forEach(p -> distinct.add(p.getId()));
+        distinct.add(viaDefault.getId());
+        Assertions.assertEquals(121, distinct.size());
+        Assertions.assertTrue(clientIds.findById(batch.get(119).getId()).isPresent());
+    }
+}
@@ -5,11 +5,14 @@ import com.zaxxer.hikari.HikariDataSource;
 import market.db.MigrationRunner;
 import market.domain.Role;
 import market.domain.User;
+import market.exception.PersistenceException;
 import market.repo.UserRepository;
 import org.junit.jupiter.api.*;
 import org.testcontainers.containers.PostgreSQLContainer;
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -115,4 +118,39 @@ class UserRepositoryJdbcTest {
         assertTrue(opt.isEmpty(), "Для неизвестного username должен возвращаться Optional.empty()");
     }
 
-}
\ No newline at end of file
+    @Test
+    @Order(5)
+    void register_shouldReportTakenUsername_andRegisterAllShouldSkipThem() {
+        assertFalse(userRepo.register(new User("new_user", "x", Role.USER)), "Имя new_user уже занято");
+
+        User fresh = new User("fresh_user", "x", Role.USER);
+        assertTrue(userRepo.register(fresh));
+        assertNotNull(fresh.getId());
+
+        List<User> org = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            org.add(new User("org_user_" + i, "p", Role.USER));
+        }
+        org.add(new User("fresh_user", "x", Role.USER));
+
+        assertEquals(1500, userRepo.registerAll(org));
+        assertTrue(userRepo.exists("org_user_1499"));
+        assertNotNull(org.get(0).getId());
+        assertNull(org.get(1500).getId(), "Занятое имя не должно получить id");
+    }
+
+    @Test
+    @Order(6)
+    void registerAll_shouldRollBackEarlierChunksWhenLaterChunkFails() {
+        List<User> batch = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            batch.add(new User("tx_user_" + i, "p", Role.USER));
+        }
+        // имя длиннее VARCHAR(100) — ошибка во втором куске из 1000 строк
+        batch.set(1100, new User("x".repeat(101), "p", Role.USER));
+
+        assertThrows(PersistenceException.class, () -> userRepo.registerAll(batch));
+        assertFalse(userRepo.exists("tx_user_0"), "Первый кусок должен откатиться вместе со вторым");
+        assertNull(batch.get(0).getId(), "Откатившаяся строка не должна сохранять id");
+    }
+}
@@ -0,0 +1,105 @@
+package market.service;
+
+import market.domain.AuditAction;
+import market.domain.AuditCursor;
+import market.domain.AuditEvent;
+import market.domain.AuditPage;
+import market.domain.AuditQuery;
+import market.repo.AuditRepository;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncAuditServiceTest {
+
+    /** Репозиторий в памяти: запоминает размеры пачек и может «зависнуть» до сигнала. */
+    private static class RecordingRepo implements AuditRepository {
+        final List<AuditEvent> saved = new CopyOnWriteArrayList<>();
+        final List<Integer> batches = new CopyOnWriteArrayList<>();
+        final CountDownLatch release;
+
+        RecordingRepo(CountDownLatch release) { this.release = release; }
+
+        @Override public void save(AuditEvent event) { saved.add(event); }
+        @Override public void saveAll(List<AuditEvent> events) {
+            try { release.await(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            batches.add(events.size());
+            saved.addAll(events);
+        }
+        @Override public List<AuditEvent> findAll() { return saved; }
+        @Override public List<AuditEvent> findByUsername(String username) { return List.of(); }
+        @Override public List<AuditEvent> findRecent(int limit) { return List.of(); }
+        @Override public List<AuditEvent> findBetween(LocalDateTime from, LocalDateTime to) { return List.of(); }
+        @Override public List<AuditEvent> findByProduct(long productId) { return List.of(); }
+        @Override public AuditPage findPage(AuditQuery query, AuditCursor after, int limit) {
+            return new AuditPage(List.of(), null);
+        }
+    }
+
+    private static AuditEvent event(int i) {
+        return new AuditEvent("user", AuditAction.SEARCH, "#" + i);
+    }
+
+    @Test
+    void writesEverythingInBatchesAndDrainsOnClose(){
+        RecordingRepo repo = new RecordingRepo(new CountDownLatch(0));
+        AsyncAuditService audit = new AsyncAuditService(repo, new MetricsServiceImpl(),
+                1_000, 50, 100, AsyncAuditService.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 500; i++) audit.append(event(i));
+        audit.close();
+
+        assertEquals(500, repo.saved.size());
+        assertEquals(500, audit.written());
+        assertTrue(repo.batches.stream().allMatch(n -> n <= 100));
+        assertTrue(repo.batches.size() < 500, "события должны писаться пачками");
+        assertEquals("#0", repo.saved.get(0).getDetails());
+    }
+
+    @Test
+    void dropsOldestWhenQueueIsFull(){
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingRepo repo = new RecordingRepo(release);
+        AsyncAuditService audit = new AsyncAuditService(repo, new MetricsServiceImpl(),
+                10, 0, 1, AsyncAuditService.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 100; i++) audit.append(event(i));
+        release.countDown();
+        audit.close();
+
+        assertTrue(audit.dropped() > 0);
+        assertEquals(100, audit.written() + audit.dropped());
+        assertEquals("#99", repo.saved.get(repo.saved.size() - 1).getDetails());
+    }
+
+    @Test
+    void eventsAppendedDuringCloseAreNotLost() throws InterruptedException {
+        for (int round = 0; round < 20; round++) {
+            RecordingRepo repo = new RecordingRepo(new CountDownLatch(0));
+            AsyncAuditService audit = new AsyncAuditService(repo, new MetricsServiceImpl(),
+                    100_000, 1, 50, AsyncAuditService.OverflowPolicy.DROP_NEWEST);
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            CountDownLatch started = new CountDownLatch(4);
+            for (int t = 0; t < 4; t++) {
+                pool.execute(() -> {
+                    started.countDown();
+                    for (int i = 0; i < 500; i++) audit.append(event(i));
+                });
+            }
+            started.await();
+            audit.close();
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+            assertEquals(0, audit.dropped());
+            assertEquals(2_000, repo.saved.size(), "раунд " + round);
+            assertEquals(2_000, audit.written());
+        }
+    }
+}
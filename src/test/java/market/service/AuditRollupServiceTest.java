@@ -0,0 +1,147 @@
+package market.service;
+
+import market.domain.AuditAction;
+import market.domain.AuditEvent;
+import market.domain.AuditRollup;
+import market.repo.AuditRollupRepository;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuditRollupServiceTest {
+
+    /** Хранилище агрегатов в памяти: копит приращения, может отказать при записи. */
+    private static class RecordingRollups implements AuditRollupRepository {
+        final List<AuditRollup> stored = new CopyOnWriteArrayList<>();
+        volatile boolean failing;
+        /** Если задан, запись ждёт его перед «коммитом» — имитация медленной транзакции. */
+        volatile CountDownLatch commit;
+        final CountDownLatch writing = new CountDownLatch(1);
+
+        @Override
+        public void increment(List<AuditRollup> deltas) {
+            if (failing) throw new IllegalStateException("БД недоступна");
+            writing.countDown();
+            CountDownLatch c = commit;
+            if (c != null) {
+                try {
+                    c.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+            stored.addAll(deltas);
+        }
+
+        /** Сумма по действию за всё время; интервал и группировка для тестов не важны. */
+        @Override
+        public List<AuditRollup> aggregate(AuditAction action, String username,
+                                           LocalDateTime from, LocalDateTime to, Duration bucket) {
+            String user = username == null ? AuditRollup.ALL_USERS : username;
+            long n = total(action, user);
+            return n == 0 ? List.of() : List.of(new AuditRollup(from, action, user, n));
+        }
+
+        long total(AuditAction action, String username) {
+            return stored.stream()
+                    .filter(r -> r.action() == action && r.username().equals(username))
+                    .mapToLong(AuditRollup::count).sum();
+        }
+    }
+
+    private static final AuditService NOOP = e -> {};
+
+    @Test
+    void countsPerMinuteAndPerUser() {
+        RecordingRollups repo = new RecordingRollups();
+        List<AuditEvent> delegated = new ArrayList<>();
+        try (AuditRollupService rollups = new AuditRollupService(delegated::add, repo, 60_000, true)) {
+            for (int i = 0; i < 3; i++) rollups.append(new AuditEvent("anna", AuditAction.SEARCH, ""));
+            rollups.append(new AuditEvent("boris", AuditAction.SEARCH, ""));
+            rollups.append(new AuditEvent("anna", AuditAction.LOGIN, ""));
+            rollups.flush();
+        }
+        assertEquals(5, delegated.size());
+        assertEquals(4, repo.total(AuditAction.SEARCH, AuditRollup.ALL_USERS));
+        assertEquals(3, repo.total(AuditAction.SEARCH, "anna"));
+        assertEquals(1, repo.total(AuditAction.SEARCH, "boris"));
+        assertEquals(1, repo.total(AuditAction.LOGIN, AuditRollup.ALL_USERS));
+    }
+
+    @Test
+    void queryIncludesUnflushedCounts() {
+        RecordingRollups repo = new RecordingRollups();
+        try (AuditRollupService rollups = new AuditRollupService(NOOP, repo, 60_000, false)) {
+            rollups.append(new AuditEvent("anna", AuditAction.EXPORT, ""));
+            rollups.append(new AuditEvent("anna", AuditAction.EXPORT, ""));
+
+            LocalDateTime now = LocalDateTime.now();
+            List<AuditRollup> rows = rollups.query(AuditAction.EXPORT, null,
+                    now.minusHours(1), now.plusHours(1), Duration.ofDays(1));
+            assertEquals(2, rows.stream().mapToLong(AuditRollup::count).sum());
+            assertTrue(repo.stored.isEmpty());
+        }
+    }
+
+    @Test
+    void queryRejectsBucketsThatAreNotWholeMinutes() {
+        RecordingRollups repo = new RecordingRollups();
+        try (AuditRollupService rollups = new AuditRollupService(NOOP, repo, 60_000, false)) {
+            LocalDateTime now = LocalDateTime.now();
+            assertThrows(IllegalArgumentException.class, () -> rollups.query(null, null,
+                    now.minusHours(1), now.plusHours(1), Duration.ofSeconds(90)));
+            assertThrows(IllegalArgumentException.class, () -> rollups.query(null, null,
+                    now.minusHours(1), now.plusHours(1), Duration.ofSeconds(30)));
+            assertEquals(0, repo.stored.size());
+        }
+    }
+
+    @Test
+    void failedFlushKeepsCountsForNextAttempt() {
+        RecordingRollups repo = new RecordingRollups();
+        try (AuditRollupService rollups = new AuditRollupService(NOOP, repo, 60_000, false)) {
+            rollups.append(new AuditEvent("anna", AuditAction.DELETE, ""));
+            repo.failing = true;
+            assertThrows(IllegalStateException.class, rollups::flush);
+
+            repo.failing = false;
+            rollups.append(new AuditEvent("anna", AuditAction.DELETE, ""));
+            rollups.flush();
+        }
+        assertEquals(2, repo.total(AuditAction.DELETE, AuditRollup.ALL_USERS));
+    }
+
+    @Test
+    void queryDuringFlushSeesInFlightCounts() throws Exception {
+        RecordingRollups repo = new RecordingRollups();
+        repo.commit = new CountDownLatch(1);
+        try (AuditRollupService rollups = new AuditRollupService(NOOP, repo, 60_000, false)) {
+            rollups.append(new AuditEvent("anna", AuditAction.LOGIN, ""));
+            rollups.append(new AuditEvent("anna", AuditAction.LOGIN, ""));
+
+            CompletableFuture<Void> flush = CompletableFuture.runAsync(rollups::flush);
+            assertTrue(repo.writing.await(5, TimeUnit.SECONDS));
+
+            // окно уже пустое, а в таблице ещё ничего нет — запрос должен дождаться записи
+            LocalDateTime now = LocalDateTime.now();
+            CompletableFuture<List<AuditRollup>> query = CompletableFuture.supplyAsync(() ->
+                    rollups.query(AuditAction.LOGIN, null, now.minusHours(1), now.plusHours(1), Duration.ofDays(1)));
+            Thread.sleep(200);
+            repo.commit.countDown();
+
+            flush.get(5, TimeUnit.SECONDS);
+            List<AuditRollup> rows = query.get(5, TimeUnit.SECONDS);
+            assertEquals(2, rows.stream().mapToLong(AuditRollup::count).sum());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package market.service;
+
+import market.domain.AuditAction;
+import market.domain.AuditEvent;
+import market.exception.PersistenceException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuditServiceImplTest {
+    @Test
+    void concurrentAppendsAreAllWritten(@TempDir Path dir) throws Exception {
+        Path log = dir.resolve("audit.log");
+        AuditServiceImpl audit = new AuditServiceImpl(log, AuditServiceImpl.FsyncPolicy.EVERY_BATCH, 0, 0, null);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            pool.execute(() -> {
+                for (int i = 0; i < 200; i++) {
+                    audit.append(new AuditEvent("u" + thread, AuditAction.SEARCH, "n=" + i));
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        audit.close();
+
+        List<String> lines = Files.readAllLines(log);
+        assertEquals(1600, lines.size());
+        assertTrue(lines.stream().allMatch(l -> l.contains("action=SEARCH")));
+    }
+
+    @Test
+    void rotatesWhenFileExceedsMaxBytes(@TempDir Path dir) throws IOException {
+        Path log = dir.resolve("audit.log");
+        AuditServiceImpl audit = new AuditServiceImpl(log, AuditServiceImpl.FsyncPolicy.NONE, 0, 200, null);
+        for (int i = 0; i < 20; i++) {
+            audit.append(new AuditEvent("user", AuditAction.LOGIN, "#" + i));
+        }
+        audit.close();
+
+        assertTrue(Files.exists(dir.resolve("audit.log.1")));
+        List<String> all = new ArrayList<>();
+        try (var files = Files.list(dir)) {
+            for (Path p : files.toList()) all.addAll(Files.readAllLines(p));
+        }
+        assertEquals(20, all.size());
+        assertTrue(Files.size(dir.resolve("audit.log.1")) <= 200);
+    }
+
+    @Test
+    void compressesClosedSegmentsAndReadsThemBack(@TempDir Path dir) throws IOException {
+        Path log = dir.resolve("audit.log");
+        AuditServiceImpl audit = new AuditServiceImpl(log, AuditServiceImpl.FsyncPolicy.NONE, 0, 300, 0, true, null);
+        for (int i = 0; i < 30; i++) {
+            audit.append(new AuditEvent("user", AuditAction.SEARCH, "#" + i));
+        }
+        audit.close();
+
+        assertTrue(Files.exists(dir.resolve("audit.log.1.gz")));
+        assertFalse(Files.exists(dir.resolve("audit.log.1")));
+        try (var events = new AuditLogReader(log).events()) {
+            List<String> details = events.map(AuditEvent::getDetails).toList();
+            assertEquals(30, details.size());
+            for (int i = 0; i < 30; i++) assertEquals("#" + i, details.get(i));
+        }
+    }
+
+    @Test
+    void failedBatchWriteIsReportedToAppender(@TempDir Path dir) {
+        // на месте файла журнала — каталог, открыть его для записи нельзя
+        Path log = dir.resolve("audit.log");
+        assertDoesNotThrow(() -> Files.createDirectory(log));
+        AuditServiceImpl audit = new AuditServiceImpl(log, AuditServiceImpl.FsyncPolicy.EVERY_BATCH, 0, 0, null);
+        assertThrows(PersistenceException.class,
+                () -> audit.append(new AuditEvent("user", AuditAction.LOGIN, "")));
+        audit.close();
+    }
+
+    @Test
+    void appendAfterCloseIsRejected(@TempDir Path dir) throws IOException {
+        Path log = dir.resolve("audit.log");
+        AuditServiceImpl audit = new AuditServiceImpl(log, AuditServiceImpl.FsyncPolicy.NONE, 0, 0, null);
+        audit.append(new AuditEvent("user", AuditAction.LOGIN, ""));
+        audit.close();
+
+        assertThrows(PersistenceException.class,
+                () -> audit.append(new AuditEvent("user", AuditAction.LOGOUT, "")));
+        assertEquals(1, Files.readAllLines(log).size());
+    }
+}
@@ -0,0 +1,57 @@
+package market.service;
+
+import market.domain.Role;
+import market.domain.User;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionStoreTest {
+
+    private static final long SECOND = Duration.ofSeconds(1).toNanos();
+
+    @Test
+    void sessionsAreIndependentAndExpireWhenIdle(){
+        AtomicLong now = new AtomicLong(1_000 * SECOND);
+        SessionStore store = new SessionStore(Duration.ofSeconds(10), Duration.ofSeconds(1), now::get);
+        String anna = store.open(new User("anna", "p", Role.USER));
+        String boris = store.open(new User("boris", "p", Role.ADMIN));
+        assertNotEquals(anna, boris);
+
+        for (int i = 0; i < 5; i++) {
+            now.addAndGet(4 * SECOND);
+            store.sweep();
+            assertEquals("anna", store.get(anna).orElseThrow().getUsername()); // активность продлевает
+        }
+        assertTrue(store.get(boris).isEmpty());
+        assertEquals(1, store.size());
+
+        store.invalidate(anna);
+        assertTrue(store.get(anna).isEmpty());
+        store.close();
+    }
+
+    @Test
+    void sweepRemovesManyIdleSessions(){
+        AtomicLong now = new AtomicLong();
+        SessionStore store = new SessionStore(Duration.ofSeconds(30), Duration.ofSeconds(1), now::get);
+        User user = new User("user", "p", Role.USER);
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            tokens.add(store.open(user));
+            if (i % 1_000 == 0) now.addAndGet(SECOND);
+        }
+        assertEquals(20_000, new HashSet<>(tokens).size());
+
+        now.addAndGet(31 * SECOND);
+        store.sweep();
+        assertEquals(0, store.size());
+        store.close();
+    }
+}
@@ -0,0 +1,79 @@
+package market.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteBehindBufferTest {
+    @Test
+    void coalescesUpdatesByKeyAndFlushesOnClose(){
+        List<List<String>> batches = new CopyOnWriteArrayList<>();
+        WriteBehindBuffer<Long, String> buffer = new WriteBehindBuffer<>(batches::add, 60_000, 100);
+
+        buffer.put(1L, "a1");
+        buffer.put(2L, "b1");
+        buffer.put(1L, "a2");
+        buffer.put(1L, "a3");
+
+        assertEquals("a3", buffer.get(1L).orElseThrow());
+        assertEquals(2, buffer.size());
+        assertEquals(2, buffer.coalesced());
+        assertTrue(batches.isEmpty());
+
+        buffer.close();
+        assertEquals(List.of(List.of("a3", "b1")), batches);
+        assertTrue(buffer.isEmpty());
+        assertEquals(2, buffer.flushed());
+    }
+
+    @Test
+    void flushesEarlyWhenMaxEntriesReached() throws InterruptedException {
+        List<String> written = new CopyOnWriteArrayList<>();
+        WriteBehindBuffer<Integer, String> buffer = new WriteBehindBuffer<>(written::addAll, 60_000, 3);
+        for (int i = 0; i < 3; i++) buffer.put(i, "v" + i);
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (written.size() < 3 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(List.of("v0", "v1", "v2"), new ArrayList<>(written));
+        buffer.close();
+    }
+
+    @Test
+    void removedKeyIsNotWritten(){
+        List<String> written = new ArrayList<>();
+        WriteBehindBuffer<Long, String> buffer = new WriteBehindBuffer<>(written::addAll, 60_000, 100);
+        buffer.put(1L, "gone");
+        buffer.put(2L, "kept");
+        buffer.remove(1L);
+        buffer.flush();
+        assertEquals(List.of("kept"), written);
+        buffer.close();
+    }
+
+    @Test
+    void storesAndHandsOutCopiesOfMutableValues(){
+        List<int[]> written = new ArrayList<>();
+        WriteBehindBuffer<Long, int[]> buffer = new WriteBehindBuffer<>(batch -> {
+            for (int[] v : batch) v[0]++; // получатель меняет значения пачки
+            written.addAll(batch);
+        }, int[]::clone, 60_000, 100);
+
+        int[] value = {1};
+        buffer.put(1L, value);
+        value[0] = 100;
+        assertEquals(1, buffer.get(1L).orElseThrow()[0]);
+
+        buffer.get(1L).orElseThrow()[0] = 50;
+        buffer.values().iterator().next()[0] = 60;
+        assertEquals(1, buffer.get(1L).orElseThrow()[0]);
+
+        buffer.flush();
+        assertEquals(2, written.get(0)[0]);
+        assertEquals(100, value[0]);
+        buffer.close();
+    }
+}
@@ -0,0 +1,113 @@
+package market.service.jdbc;
+
+import market.domain.Category;
+import market.domain.Product;
+import market.exception.EntityNotFoundException;
+import market.exception.OptimisticLockException;
+import market.repo.IdGenerator;
+import market.repo.InMemoryProductRepository;
+import market.service.MetricsServiceImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductServiceJdbcTest {
+
+    /** Репозиторий в памяти, который, как UPDATE в PostgreSQL, проверяет существование и версию. */
+    private static class CheckedRepo extends InMemoryProductRepository {
+        CheckedRepo(Path file) {
+            super(file, new IdGenerator(0));
+        }
+
+        @Override
+        public synchronized Product save(Product p) {
+            if (p.getId() != null && p.getId() != 0) {
+                Product current = findById(p.getId())
+                        .orElseThrow(() -> new EntityNotFoundException("Товар не найден: id=" + p.getId()));
+                if (current.getVersion() != p.getVersion()) {
+                    throw new OptimisticLockException("Товар id=" + p.getId() + " был изменён другим пользователем");
+                }
+                Product stored = new Product(p);
+                stored.setVersion(p.getVersion() + 1);
+                super.save(stored);
+                p.setVersion(stored.getVersion());
+                return p;
+            }
+            return super.save(p);
+        }
+
+        @Override
+        public synchronized List<Product> saveAll(List<Product> products) {
+            for (Product p : products) save(p);
+            return products;
+        }
+    }
+
+    @Test
+    void writeBehindUpdateChecksExistenceAndVersionImmediately(@TempDir Path dir) {
+        CheckedRepo repo = new CheckedRepo(dir.resolve("products.csv"));
+        try (ProductServiceJdbc service = new ProductServiceJdbc(repo, new MetricsServiceImpl(), 16, null, 60_000, 100)) {
+            Product tea = service.create(new Product(null, "Tea", "Ahmad", Category.FOOD, 5.0, "Leaves"));
+
+            Product missing = new Product(42L, "Ghost", "None", Category.FOOD, 1.0, "");
+            assertThrows(EntityNotFoundException.class, () -> service.update(missing));
+
+            // репозиторий в памяти отдаёт свой экземпляр, поэтому правим копию
+            Product stale = new Product(service.get(tea.getId()).orElseThrow());
+            stale.setVersion(stale.getVersion() - 1);
+            stale.setPrice(4.0);
+            assertThrows(OptimisticLockException.class, () -> service.update(stale));
+
+            Product fresh = new Product(service.get(tea.getId()).orElseThrow());
+            fresh.setPrice(6.0);
+            service.update(fresh);
+            assertEquals(6.0, service.get(tea.getId()).orElseThrow().getPrice());
+        }
+    }
+
+    @Test
+    void bufferedProductIsNotSharedWithCallers(@TempDir Path dir) {
+        CheckedRepo repo = new CheckedRepo(dir.resolve("products.csv"));
+        try (ProductServiceJdbc service = new ProductServiceJdbc(repo, new MetricsServiceImpl(), 16, null, 60_000, 100)) {
+            Product tea = service.create(new Product(null, "Tea", "Ahmad", Category.FOOD, 5.0, "Leaves"));
+            Product edit = new Product(service.get(tea.getId()).orElseThrow());
+            edit.setPrice(6.0);
+            service.update(edit);
+
+            edit.setPrice(99.0);
+            Product seen = service.get(tea.getId()).orElseThrow();
+            assertEquals(6.0, seen.getPrice());
+            seen.setPrice(77.0);
+            assertEquals(6.0, service.get(tea.getId()).orElseThrow().getPrice());
+
+            service.persist();
+            assertEquals(6.0, repo.findById(tea.getId()).orElseThrow().getPrice());
+        }
+    }
+
+    @Test
+    void rejectedBackgroundWriteIsCountedAndKept(@TempDir Path dir) {
+        CheckedRepo repo = new CheckedRepo(dir.resolve("products.csv"));
+        MetricsServiceImpl metrics = new MetricsServiceImpl();
+        try (ProductServiceJdbc service = new ProductServiceJdbc(repo, metrics, 16, null, 60_000, 100)) {
+            Product tea = service.create(new Product(null, "Tea", "Ahmad", Category.FOOD, 5.0, "Leaves"));
+            Product edit = new Product(service.get(tea.getId()).orElseThrow());
+            edit.setPrice(6.0);
+            service.update(edit);
+
+            // товар удалили в обход сервиса, пока изменение ждало в буфере
+            repo.deleteById(tea.getId());
+            service.persist();
+
+            List<Product> rejected = service.rejectedUpdates();
+            assertEquals(1, rejected.size());
+            assertEquals(tea.getId(), rejected.get(0).getId());
+            assertEquals(6.0, rejected.get(0).getPrice());
+            assertTrue(metrics.snapshot().contains("rejected=1"), metrics.snapshot());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package market.service.jdbc;
+
+import market.domain.Role;
+import market.domain.User;
+import market.repo.InMemoryUserRepository;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserServiceJdbcTest {
+
+    /** Репозиторий в памяти, считающий обращения к «базе». */
+    private static class CountingRepo extends InMemoryUserRepository {
+        final AtomicInteger lookups = new AtomicInteger();
+
+        @Override
+        public Optional<User> findByUsername(String username) {
+            lookups.incrementAndGet();
+            return super.findByUsername(username);
+        }
+
+        @Override
+        public boolean exists(String username) {
+            lookups.incrementAndGet();
+            return super.exists(username);
+        }
+    }
+
+    @Test
+    void repeatedLoginsAndUnknownNamesDoNotHitRepository(){
+        CountingRepo repo = new CountingRepo();
+        UserServiceJdbc service = new UserServiceJdbc(repo, 100, Duration.ofMinutes(5), Duration.ofMinutes(30));
+        service.register("anna", "secret", Role.USER);
+        int afterRegister = repo.lookups.get();
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(service.login("anna", "secret").isPresent());
+        }
+        assertEquals(afterRegister + 1, repo.lookups.get());
+
+        for (int i = 0; i < 100; i++) {
+            assertFalse(service.exists("ghost" + i));
+        }
+        assertTrue(repo.lookups.get() - afterRegister < 10);
+        assertTrue(service.exists("anna"));
+    }
+
+    @Test
+    void filterRebuildDoesNotBlockLookupsAndKeepsNewNames() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean block = new AtomicBoolean();
+        CountingRepo repo = new CountingRepo() {
+            @Override
+            public List<String> findAllUsernames() {
+                List<String> names = super.findAllUsernames();
+                if (block.get()) {
+                    // «долгий» SELECT: снимок имён уже взят, ответ ещё не вернулся
+                    reading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return names;
+            }
+        };
+        try (UserServiceJdbc service = new UserServiceJdbc(repo, 100, Duration.ofMinutes(5), Duration.ofMinutes(30))) {
+            block.set(true);
+            ExecutorService rebuild = Executors.newSingleThreadExecutor();
+            Future<?> done = rebuild.submit(service::rebuildFilter);
+            assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+            // пока фильтр строится, проверки и регистрация не ждут его
+            assertTimeoutPreemptively(Duration.ofSeconds(2), () -> {
+                assertFalse(service.exists("ghost"));
+                service.register("bob", "secret", Role.USER);
+            });
+
+            release.countDown();
+            done.get(5, TimeUnit.SECONDS);
+            rebuild.shutdown();
+            assertTrue(service.exists("bob"), "имя, зарегистрированное во время перестроения, не потеряно");
+        }
+    }
+}